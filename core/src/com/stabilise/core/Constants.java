@@ -95,6 +95,9 @@ public class Constants {
             (1 + 2*(LOADED_SLICE_RADIUS)) * (1 + 2*(LOADED_SLICE_RADIUS));
     /** How many ticks after coming out of use that a region should unload. */
     public static final int REGION_UNLOAD_TICK_BUFFER = 5 * TICKS_PER_SECOND;
+    /** The default number of bytes of recently unloaded regions each world
+     * holds on to in case they're needed again. */
+    public static final long UNLOADED_REGION_CACHE_BUDGET = 32L * 1024 * 1024;
     
     /** How large a character's inventory is. */
     public static final int INVENTORY_CAPACITY = 36;
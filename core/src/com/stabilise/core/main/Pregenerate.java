@@ -0,0 +1,82 @@
+package com.stabilise.core.main;
+
+import java.util.concurrent.TimeUnit;
+
+import com.stabilise.util.Log;
+import com.stabilise.world.WorldInfo;
+import com.stabilise.world.WorldLoadTracker;
+import com.stabilise.world.WorldPregenerator;
+import com.stabilise.world.multiverse.HostMultiverse;
+
+/**
+ * Headlessly pregenerates a rectangle of regions of a world. Usage:
+ * 
+ * <pre>
+ * Pregenerate &lt;world&gt; &lt;dimension&gt; &lt;minX&gt; &lt;minY&gt; &lt;maxX&gt; &lt;maxY&gt;</pre>
+ * 
+ * <p>where the coordinates are in region-lengths and inclusive. If this is
+ * interrupted (e.g. with Ctrl+C), it stops once the regions in flight are
+ * done, and resumes where it left off when next run with the same arguments.
+ * 
+ * @see WorldPregenerator
+ */
+public class Pregenerate {
+    
+    /** Seconds between each progress report. */
+    private static final int REPORT_INTERVAL = 5;
+    
+    
+    private Pregenerate() {
+        // non-instantiable
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        Log log = Log.getAgent("Pregenerate");
+        if(args.length != 6) {
+            log.postSevere("Usage: Pregenerate <world> <dimension> <minX> <minY> <maxX> <maxY>");
+            return;
+        }
+        
+        WorldInfo info = WorldInfo.loadInfo(args[0]);
+        if(info == null) {
+            log.postSevere("Could not load world \"" + args[0] + "\"");
+            return;
+        }
+        
+        Stabilise.bootstrap();
+        
+        HostMultiverse multiverse = new HostMultiverse(info, null);
+        WorldPregenerator pregen = multiverse.pregenerator(args[1],
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+        
+        // On shutdown, stop, and hold the JVM up until the checkpoint is in
+        Thread main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            pregen.stop();
+            try {
+                main.join();
+            } catch(InterruptedException ignored) {}
+        }));
+        
+        Thread reporter = new Thread(() -> {
+            WorldLoadTracker t = pregen.tracker;
+            try {
+                while(true) {
+                    TimeUnit.SECONDS.sleep(REPORT_INTERVAL);
+                    log.postInfo(t.numDone() + "/" + t.numTotal() + " regions");
+                }
+            } catch(InterruptedException ignored) {}
+        }, "PregenReporter");
+        reporter.setDaemon(true);
+        reporter.start();
+        
+        try {
+            pregen.run();
+        } finally {
+            reporter.interrupt();
+            multiverse.close();
+        }
+    }
+    
+}
@@ -98,6 +98,22 @@ public abstract class Position implements Exportable, Cloneable {
      */
     public abstract int lty();
     
+    /**
+     * Gets the x-coordinate of the tile this Position is in, relative to the
+     * region it is in. This Position should be {@link #align() aligned}.
+     */
+    public int rtx() {
+        return (sliceCoordRelativeToRegionFromSliceCoord(sx) << Slice.SLICE_SIZE_SHIFT) | ltx();
+    }
+    
+    /**
+     * Gets the y-coordinate of the tile this Position is in, relative to the
+     * region it is in. This Position should be {@link #align() aligned}.
+     */
+    public int rty() {
+        return (sliceCoordRelativeToRegionFromSliceCoord(sy) << Slice.SLICE_SIZE_SHIFT) | lty();
+    }
+    
     /**
      * Returns the x-coordinate of this Position, in tile-lengths, which is
      * equivalent (up to finite precision) to the position specified jointly by
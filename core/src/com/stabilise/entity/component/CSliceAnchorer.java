@@ -1,6 +1,7 @@
 package com.stabilise.entity.component;
 
 import static com.stabilise.core.Constants.LOADED_SLICE_RADIUS;
+import static com.stabilise.entity.Position.regionCoordFromSliceCoord;
 
 import com.stabilise.core.Constants;
 import com.stabilise.entity.Entity;
@@ -8,8 +9,10 @@ import com.stabilise.entity.Position;
 import com.stabilise.entity.event.EThroughPortalInter;
 import com.stabilise.entity.event.EntityEvent;
 import com.stabilise.util.Checks;
+import com.stabilise.util.collect.LongMap;
 import com.stabilise.util.io.data.DataCompound;
 import com.stabilise.world.HostWorld;
+import com.stabilise.world.Region;
 import com.stabilise.world.RegionState;
 import com.stabilise.world.World;
 
@@ -19,9 +22,37 @@ import com.stabilise.world.World;
  * always remains loaded. This is typically placed on the player (to ensure the
  * world loads around them) and on portals (to ensure that the dimensions at
  * both ends remain loaded).
+ * 
+ * <p>If {@link #setPrefetching(World, boolean) prefetching} is enabled (as it is by
+ * default), this component also predicts where the entity is headed from its
+ * recent velocity, and {@link World#prefetchSlice(int, int) prefetches} the
+ * regions it will need once it gets there. This way, a fast-moving entity
+ * needn't outrun the loading and generation of the world ahead of it.
  */
 public class CSliceAnchorer extends AbstractComponent {
     
+    /** Number of ticks between each prediction of where the entity is
+     * headed. */
+    private static final int PREDICT_INTERVAL = Constants.TICKS_PER_SECOND / 4;
+    /** Weight of the entity's current velocity in the smoothed velocity,
+     * per tick. */
+    private static final float VELOCITY_SMOOTHING = 0.1f;
+    /** Speed below which we don't prefetch, in tiles per second. This is one
+     * slice per second. */
+    private static final float MIN_PREFETCH_SPEED = Constants.SLICE_SIZE;
+    /** How far ahead to predict the entity's path, in seconds... */
+    private static final float LOOKAHEAD_TIME = 3f;
+    /** ...capped at this many tiles (four regions). */
+    private static final float MAX_LOOKAHEAD_DIST =
+            4 * Region.REGION_SIZE * Constants.SLICE_SIZE;
+    /** The distance between each point along the predicted path that we
+     * check, in tiles (a quarter region). */
+    private static final float PREDICT_STEP =
+            Region.REGION_SIZE * Constants.SLICE_SIZE / 4;
+    /** Maximum number of regions to have prefetched at once. This bounds how
+     * much a bad prediction can cost. */
+    private static final int MAX_PREFETCHED = 6;
+    
     
     /** "Radius" of the square of slices to keep anchored. */
     private int radius;
@@ -38,6 +69,18 @@ public class CSliceAnchorer extends AbstractComponent {
      * removed from the attached entity's components list */
     private boolean disabled = false;
     
+    /** Whether to prefetch regions ahead of the entity. */
+    private boolean prefetching = true;
+    /** The entity's smoothed velocity, in tiles per second. */
+    private float velX, velY;
+    /** Ticks until we next predict where the entity is headed. */
+    private int ticksUntilPredict = 0;
+    /** The regions we currently have prefetched, as {@link LongMap#key(int,
+     * int) packed} region coordinates, and a spare array to swap with. */
+    private long[] prefetched = new long[MAX_PREFETCHED],
+            prefetchedSwap = new long[MAX_PREFETCHED];
+    private int numPrefetched = 0;
+    
     
     /**
      * Creates a slice anchorer component with radius {@link
@@ -72,6 +115,23 @@ public class CSliceAnchorer extends AbstractComponent {
         // if everything is already anchored.
         anchorAll(w, e);
         
+        if(prefetching) {
+            velX += (e.dx - velX) * VELOCITY_SMOOTHING;
+            velY += (e.dy - velY) * VELOCITY_SMOOTHING;
+        }
+        
+        updateAnchors(w, e);
+        
+        if(prefetching && --ticksUntilPredict <= 0) {
+            ticksUntilPredict = PREDICT_INTERVAL;
+            prefetch(w, e);
+        }
+    }
+    
+    /**
+     * Moves our anchors along with the entity.
+     */
+    private void updateAnchors(World w, Entity e) {
         int sliceX = e.pos.sx();
         int sliceY = e.pos.sy();
         
@@ -88,6 +148,7 @@ public class CSliceAnchorer extends AbstractComponent {
         
         centreX = sliceX;
         centreY = sliceY;
+        w.setAnchorCentre(this, centreX, centreY);
         
         int oldMinX = minSliceX;
         int oldMaxX = maxSliceX;
@@ -115,6 +176,116 @@ public class CSliceAnchorer extends AbstractComponent {
         for(int y = oldMaxY; y > maxSliceY; y--) deanchorRow(w, y, minX, maxX);
     }
     
+    /**
+     * Prefetches the regions which will be anchored (or neighbour anchored
+     * regions, and so be loaded all the same) along the entity's predicted
+     * path, nearest first, and cancels the prefetches of regions which are no
+     * longer on it.
+     */
+    private void prefetch(World w, Entity e) {
+        float speed = (float)Math.sqrt(velX*velX + velY*velY);
+        if(speed < MIN_PREFETCH_SPEED) {
+            cancelPrefetches(w);
+            return;
+        }
+        
+        float ux = velX / speed, uy = velY / speed;
+        float dist = Math.min(speed * LOOKAHEAD_TIME, MAX_LOOKAHEAD_DIST);
+        double gx = e.pos.gx(), gy = e.pos.gy();
+        
+        // The regions loaded on account of our current anchors. We also skip
+        // any region we looked at in the last step, as consecutive steps
+        // mostly overlap.
+        int anchMinX = regionCoordFromSliceCoord(minSliceX) - 1;
+        int anchMaxX = regionCoordFromSliceCoord(maxSliceX) + 1;
+        int anchMinY = regionCoordFromSliceCoord(minSliceY) - 1;
+        int anchMaxY = regionCoordFromSliceCoord(maxSliceY) + 1;
+        int prevMinX = anchMinX, prevMaxX = anchMaxX;
+        int prevMinY = anchMinY, prevMaxY = anchMaxY;
+        
+        long[] old = prefetched;
+        int numOld = numPrefetched;
+        long[] now = prefetchedSwap;
+        int numNow = 0;
+        
+        path:
+        for(float d = PREDICT_STEP; d <= dist; d += PREDICT_STEP) {
+            int sx = Position.sliceCoordFromTileCoord(gx + ux * d);
+            int sy = Position.sliceCoordFromTileCoord(gy + uy * d);
+            int minX = regionCoordFromSliceCoord(sx - LOADED_SLICE_RADIUS) - 1;
+            int maxX = regionCoordFromSliceCoord(sx + LOADED_SLICE_RADIUS) + 1;
+            int minY = regionCoordFromSliceCoord(sy - LOADED_SLICE_RADIUS) - 1;
+            int maxY = regionCoordFromSliceCoord(sy + LOADED_SLICE_RADIUS) + 1;
+            
+            for(int x = minX; x <= maxX; x++) {
+                for(int y = minY; y <= maxY; y++) {
+                    if(within(x, y, anchMinX, anchMaxX, anchMinY, anchMaxY)
+                            || within(x, y, prevMinX, prevMaxX, prevMinY, prevMaxY))
+                        continue;
+                    long key = LongMap.key(x, y);
+                    // Regions we've already prefetched stay prefetched
+                    // without asking again.
+                    if(contains(old, numOld, key)
+                            || w.prefetchSlice(Position.sliceCoordFromRegionCoord(x),
+                                    Position.sliceCoordFromRegionCoord(y))) {
+                        now[numNow++] = key;
+                        if(numNow == MAX_PREFETCHED)
+                            break path;
+                    }
+                }
+            }
+            
+            prevMinX = minX; prevMaxX = maxX;
+            prevMinY = minY; prevMaxY = maxY;
+        }
+        
+        // Cancel whatever isn't on the path any more
+        for(int i = 0; i < numOld; i++)
+            if(!contains(now, numNow, old[i]))
+                cancelPrefetch(w, old[i]);
+        
+        prefetched = now;
+        prefetchedSwap = old;
+        numPrefetched = numNow;
+    }
+    
+    private static boolean within(int x, int y, int minX, int maxX, int minY, int maxY) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+    
+    private static boolean contains(long[] keys, int n, long key) {
+        for(int i = 0; i < n; i++)
+            if(keys[i] == key)
+                return true;
+        return false;
+    }
+    
+    private void cancelPrefetch(World w, long key) {
+        w.cancelPrefetchSlice(
+                Position.sliceCoordFromRegionCoord(LongMap.keyX(key)),
+                Position.sliceCoordFromRegionCoord(LongMap.keyY(key)));
+    }
+    
+    /**
+     * Cancels all our prefetches and forgets the entity's velocity.
+     */
+    private void cancelPrefetches(World w) {
+        for(int i = 0; i < numPrefetched; i++)
+            cancelPrefetch(w, prefetched[i]);
+        numPrefetched = 0;
+        velX = velY = 0f;
+    }
+    
+    /**
+     * Sets whether this anchorer prefetches the regions along its entity's
+     * predicted path. This is enabled by default.
+     */
+    public void setPrefetching(World w, boolean prefetching) {
+        if(!prefetching)
+            cancelPrefetches(w);
+        this.prefetching = prefetching;
+    }
+    
     /**
      * Anchors a column of slices. minY and maxY are inclusive.
      */
@@ -148,6 +319,9 @@ public class CSliceAnchorer extends AbstractComponent {
      * teleported and an entirely new batch of slices will need to be anchored.
      */
     public void refresh(World w, Entity e) {
+        // Wherever the entity's going now, it's from somewhere else.
+        cancelPrefetches(w);
+        
         int oldMinX = minSliceX;
         int oldMaxX = maxSliceX;
         int oldMinY = minSliceY;
@@ -182,6 +356,7 @@ public class CSliceAnchorer extends AbstractComponent {
     	
         centreX = e.pos.sx();
         centreY = e.pos.sy();
+        w.setAnchorCentre(this, centreX, centreY);
         minSliceX = centreX - LOADED_SLICE_RADIUS;
         maxSliceX = centreX + LOADED_SLICE_RADIUS;
         minSliceY = centreY - LOADED_SLICE_RADIUS;
@@ -199,6 +374,8 @@ public class CSliceAnchorer extends AbstractComponent {
         if(disabled)
             return;
         disabled = true;
+        w.removeAnchorCentre(this);
+        cancelPrefetches(w);
         
         for(int x = minSliceX; x <= maxSliceX; x++)
             deanchorCol(w, x, minSliceY, maxSliceY);
@@ -0,0 +1,141 @@
+package com.stabilise.tests;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.stabilise.util.collect.PalettedIntArray;
+import com.stabilise.util.io.IOUtil;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.Format;
+import com.stabilise.util.maths.SimplexNoise;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.loader.WorldLoader;
+
+/**
+ * Compares how quickly and how small each compression codec encodes and
+ * decodes the records of a region, laid out the same way as they are in
+ * region files.
+ */
+public class CompressionBenchmark {
+
+    private static final int REGIONS = 8;
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 30;
+
+    private static final int AIR = 0, STONE = 1, DIRT = 2, GRASS = 3, ORE = 4;
+
+    public static void main(String[] args) throws IOException {
+        List<DataCompound> records = makeRecords(new Random(4132));
+        long rawBytes = 0;
+        for(DataCompound c : records)
+            rawBytes += IOUtil.toBytes(c, Compression.UNCOMPRESSED).length;
+
+        List<Compression> codecs = new ArrayList<>();
+        codecs.add(Compression.GZIP);
+        codecs.add(Compression.ZLIB.withLevel(1));
+        codecs.add(Compression.ZLIB);
+        codecs.add(Compression.ZLIB.withLevel(9));
+        codecs.add(Compression.LZ);
+        codecs.add(WorldLoader.SLICE_ZLIB.withLevel(1));
+        codecs.add(WorldLoader.SLICE_ZLIB);
+        codecs.add(WorldLoader.SLICE_ZLIB.withLevel(9));
+
+        System.out.println(records.size() + " records, " + rawBytes + " bytes uncompressed");
+        System.out.println(String.format("%-14s %10s %8s %12s %12s",
+                "codec", "bytes", "ratio", "enc MB/s", "dec MB/s"));
+        for(Compression codec : codecs)
+            bench(codec, records, rawBytes);
+    }
+
+    private static void bench(Compression codec, List<DataCompound> records,
+            long rawBytes) throws IOException {
+        byte[][] encoded = new byte[records.size()][];
+        long size = 0, encodeNanos = 0, decodeNanos = 0;
+
+        for(int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for(int i = 0; i < encoded.length; i++)
+                encoded[i] = IOUtil.toBytes(records.get(i), codec);
+            long mid = System.nanoTime();
+            // Decode the same way the WorldLoader does
+            Compression decoder = Compression.byID(codec.id());
+            for(byte[] data : encoded) {
+                ByteBuffer buf = decoder.decompress(ByteBuffer.wrap(data), data.length * 4);
+                IOUtil.read(buf, Format.NBT);
+            }
+            long end = System.nanoTime();
+
+            if(round >= WARMUP_ROUNDS) {
+                encodeNanos += mid - start;
+                decodeNanos += end - mid;
+            }
+        }
+
+        for(byte[] data : encoded)
+            size += data.length;
+        double mb = rawBytes * ROUNDS / 1e6;
+        System.out.println(String.format("%-14s %10d %7.1f%% %12.1f %12.1f",
+                codec, size, 100.0 * size / rawBytes,
+                mb / (encodeNanos / 1e9), mb / (decodeNanos / 1e9)));
+    }
+
+    /**
+     * Makes the slice and region records of a strip of regions of vaguely
+     * realistic terrain: hills of grass and dirt over stone with the odd ore,
+     * and open sky above.
+     */
+    private static List<DataCompound> makeRecords(Random rnd) {
+        SimplexNoise noise = new SimplexNoise(rnd.nextLong());
+        List<DataCompound> records = new ArrayList<>();
+
+        for(int r = 0; r < REGIONS; r++) {
+            // Straddle the surface, which sits around y = 0
+            int rx = r, ry = -1 + r % 2;
+            for(int sy = 0; sy < Region.REGION_SIZE; sy++) {
+                for(int sx = 0; sx < Region.REGION_SIZE; sx++) {
+                    PalettedIntArray tiles = new PalettedIntArray(Slice.TILES_PER_SLICE);
+                    PalettedIntArray walls = new PalettedIntArray(Slice.TILES_PER_SLICE);
+                    byte[] light = new byte[Slice.TILES_PER_SLICE];
+
+                    for(int ty = 0; ty < Slice.SLICE_SIZE; ty++) {
+                        for(int tx = 0; tx < Slice.SLICE_SIZE; tx++) {
+                            int x = (rx * Region.REGION_SIZE + sx) * Slice.SLICE_SIZE + tx;
+                            int y = (ry * Region.REGION_SIZE + sy) * Slice.SLICE_SIZE + ty;
+                            int height = (int)(noise.noise(x / 128.0, 0) * 96);
+                            int depth = height - y;
+                            int tile = depth < 0 ? AIR
+                                    : depth == 0 ? GRASS
+                                    : depth < 4 ? DIRT
+                                    : rnd.nextInt(60) == 0 ? ORE : STONE;
+                            int i = ty * Slice.SLICE_SIZE + tx;
+                            tiles.set(i, tile);
+                            walls.set(i, depth < 0 ? AIR : tile == GRASS ? DIRT : tile);
+                            light[i] = (byte)Math.max(0, 15 - Math.max(0, depth));
+                        }
+                    }
+
+                    DataCompound c = Format.NBT.newCompound();
+                    c.put("tilePalette", tiles.getPalette());
+                    c.put("tiles", tiles.getPackedData());
+                    c.put("wallPalette", walls.getPalette());
+                    c.put("walls", walls.getPackedData());
+                    c.put("light", light);
+                    records.add(c);
+                }
+            }
+
+            DataCompound c = Format.NBT.newCompound();
+            c.put("generated", true);
+            c.put("sliceRecords", true);
+            records.add(c);
+        }
+
+        return records;
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.stabilise.tests;
+
+import java.util.function.LongFunction;
+
+import com.stabilise.util.maths.FastPerlinNoise;
+import com.stabilise.util.maths.FastSimplexNoise;
+import com.stabilise.util.maths.INoise;
+import com.stabilise.util.maths.PerlinNoise;
+import com.stabilise.util.maths.SimplexNoise;
+
+/**
+ * Compares how quickly each noise generator samples a square of points, and
+ * checks that the table-based generators give the same noise across
+ * instances with the same seed.
+ */
+public class NoiseBenchmark {
+
+    private static final long SEED = 7238674329493L;
+    private static final int SIZE = 1024;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        System.out.println(String.format("%-18s %12s %10s %10s",
+                "noise", "Msamples/s", "min", "max"));
+        bench("PerlinNoise", PerlinNoise::new);
+        bench("FastPerlinNoise", FastPerlinNoise::new);
+        bench("SimplexNoise", SimplexNoise::new);
+        bench("FastSimplexNoise", FastSimplexNoise::new);
+
+        checkDeterministic("FastPerlinNoise", FastPerlinNoise::new);
+        checkDeterministic("FastSimplexNoise", FastSimplexNoise::new);
+    }
+
+    private static void bench(String name, LongFunction<INoise> gen) {
+        INoise noise = gen.apply(SEED);
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        long nanos = 0;
+
+        for(int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            for(int y = 0; y < SIZE; y++) {
+                for(int x = 0; x < SIZE; x++) {
+                    float n = noise.noise(x / 37.0, y / 37.0);
+                    if(n < min) min = n;
+                    if(n > max) max = n;
+                }
+            }
+            if(round >= WARMUP_ROUNDS)
+                nanos += System.nanoTime() - start;
+        }
+
+        double samples = (double)SIZE * SIZE * ROUNDS;
+        System.out.println(String.format("%-18s %12.1f %10.4f %10.4f",
+                name, samples / nanos * 1000, min, max));
+    }
+
+    private static void checkDeterministic(String name, LongFunction<INoise> gen) {
+        INoise a = gen.apply(SEED), b = gen.apply(SEED);
+        for(int y = -SIZE; y < SIZE; y += 7) {
+            for(int x = -SIZE; x < SIZE; x += 7) {
+                if(a.noise(x / 13.0, y / 13.0) != b.noise(x / 13.0, y / 13.0)) {
+                    System.out.println(name + " is not deterministic at " + x + "," + y);
+                    return;
+                }
+            }
+        }
+        System.out.println(name + " is deterministic");
+    }
+
+}
@@ -47,8 +47,7 @@ public class I32ArrBox implements ITag {
     public void readData(DataInStream in) throws IOException {
         int len = in.readInt();
         value = new int[len];
-        for(int i = 0; i < len; i++)
-            value[i] = in.readInt();
+        in.readIntArray(value);
     }
     
     @Override
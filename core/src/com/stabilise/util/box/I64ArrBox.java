@@ -47,8 +47,7 @@ public class I64ArrBox implements ITag {
     public void readData(DataInStream in) throws IOException {
         int len = in.readInt();
         value = new long[len];
-        for(int i = 0; i < len; i++)
-            value[i] = in.readLong();
+        in.readLongArray(value);
     }
     
     @Override
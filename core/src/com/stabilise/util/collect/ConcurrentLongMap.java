@@ -0,0 +1,245 @@
+package com.stabilise.util.collect;
+
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A thread-safe variant of {@link LongMap}.
+ *
+ * <p>The map is split into segments by key hash, each of which is a {@code
+ * LongMap} guarded by its own {@link StampedLock}. Writers lock only the
+ * segment they write to. Readers don't lock at all in the common case: they
+ * probe the segment optimistically and only fall back to taking its read
+ * lock if a writer got in the way.
+ *
+ * <p>Memory consistency effects: as with other concurrent collections,
+ * actions in a thread prior to placing an entry into a {@code
+ * ConcurrentLongMap} <i>happen-before</i> actions subsequent to the access or
+ * removal of that entry in another thread.
+ *
+ * <p>Iteration, via {@link #forEach(Consumer)}, is weakly consistent: it
+ * visits a snapshot of each segment in turn, and so does not throw if the map
+ * is concurrently modified, nor if the action itself modifies the map.
+ */
+@ThreadSafe
+public class ConcurrentLongMap<V> {
+
+    private final Segment<V>[] segments;
+    /** The number of bits by which to shift a key's hash to get its
+     * segment. */
+    private final int segmentShift;
+
+
+    /**
+     * Creates a new map with 16 segments.
+     */
+    public ConcurrentLongMap() {
+        this(16);
+    }
+
+    /**
+     * Creates a new map.
+     *
+     * @param concurrencyLevel The estimated number of concurrently writing
+     * threads. This is rounded up to a power of two, and that many segments
+     * are created.
+     *
+     * @throws IllegalArgumentException if {@code concurrencyLevel < 1}.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongMap(int concurrencyLevel) {
+        if(concurrencyLevel < 1)
+            throw new IllegalArgumentException("concurrencyLevel < 1");
+        int n = concurrencyLevel == 1 ? 1 : Integer.highestOneBit(concurrencyLevel - 1) << 1;
+        segments = (Segment<V>[])new Segment<?>[n];
+        for(int i = 0; i < n; i++)
+            segments[i] = new Segment<>();
+        // The top bits pick the segment; LongMap uses the bottom bits
+        segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+    }
+
+    private Segment<V> segmentFor(long key) {
+        return segmentShift == 32 ? segments[0]
+                : segments[LongMap.hash(key) >>> segmentShift];
+    }
+
+    /**
+     * Gets the value mapped to the given key.
+     *
+     * @return The value, or {@code null} if the key is absent.
+     */
+    public V get(long key) {
+        Segment<V> seg = segmentFor(key);
+        StampedLock lock = seg.lock;
+
+        long stamp = lock.tryOptimisticRead();
+        if(stamp != 0) {
+            long[] keys = seg.keys;
+            Object[] vals = seg.vals;
+            // The two arrays are mismatched if we race with a resize; if so
+            // the validation below fails anyway.
+            V v = keys.length == vals.length ? LongMap.probe(keys, vals, key) : null;
+            if(lock.validate(stamp))
+                return v;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return seg.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns {@code true} if this map contains the given key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @return The value which was previously mapped to the key, or {@code
+     * null} if there was none.
+     * @throws NullPointerException if {@code value} is {@code null}.
+     */
+    public V put(long key, V value) {
+        Objects.requireNonNull(value);
+        Segment<V> seg = segmentFor(key);
+        long stamp = seg.lock.writeLock();
+        try {
+            V old = seg.put(key, value);
+            seg.count = seg.size;
+            return old;
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Maps a key to a value if the key is absent.
+     *
+     * @return The value already mapped to the key, or {@code null} if there
+     * was none and {@code value} was put in.
+     * @throws NullPointerException if {@code value} is {@code null}.
+     */
+    public V putIfAbsent(long key, V value) {
+        Objects.requireNonNull(value);
+        Segment<V> seg = segmentFor(key);
+        long stamp = seg.lock.writeLock();
+        try {
+            V old = seg.putIfAbsent(key, value);
+            seg.count = seg.size;
+            return old;
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the entry with the given key.
+     *
+     * @return The value which was mapped to the key, or {@code null} if the
+     * key was absent.
+     */
+    public V remove(long key) {
+        Segment<V> seg = segmentFor(key);
+        long stamp = seg.lock.writeLock();
+        try {
+            V old = seg.remove(key);
+            seg.count = seg.size;
+            return old;
+        } finally {
+            seg.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of entries in this map. This is only a snapshot if
+     * the map is being concurrently modified.
+     */
+    public int size() {
+        int size = 0;
+        for(Segment<V> seg : segments)
+            size += seg.count;
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if this map has no entries. This is only a
+     * snapshot if the map is being concurrently modified.
+     */
+    public boolean isEmpty() {
+        for(Segment<V> seg : segments)
+            if(seg.count != 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Removes every entry of this map.
+     */
+    public void clear() {
+        for(Segment<V> seg : segments) {
+            long stamp = seg.lock.writeLock();
+            try {
+                seg.clear();
+                seg.count = 0;
+            } finally {
+                seg.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Performs the given action for each value in this map. Each segment is
+     * copied under its read lock and the action is invoked outside of it, so
+     * the action may freely modify this map.
+     *
+     * @throws NullPointerException if {@code action} is {@code null}.
+     */
+    public void forEach(Consumer<? super V> action) {
+        Object[] buf = null;
+        for(Segment<V> seg : segments) {
+            int n;
+            long stamp = seg.lock.readLock();
+            try {
+                if(seg.size == 0)
+                    continue;
+                if(buf == null || buf.length < seg.size)
+                    buf = new Object[Math.max(seg.size, 16)];
+                n = seg.copyValues(buf);
+            } finally {
+                seg.lock.unlockRead(stamp);
+            }
+            for(int i = 0; i < n; i++) {
+                @SuppressWarnings("unchecked")
+                V v = (V)buf[i];
+                buf[i] = null;
+                action.accept(v);
+            }
+        }
+    }
+
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+
+    private static class Segment<V> extends LongMap<V> {
+
+        final StampedLock lock = new StampedLock();
+        /** Mirrors size, but may be read without the lock. */
+        volatile int count = 0;
+
+        Segment() {
+            super(8);
+        }
+
+    }
+
+}
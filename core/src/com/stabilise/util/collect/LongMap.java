@@ -0,0 +1,314 @@
+package com.stabilise.util.collect;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A hash map with primitive {@code long} keys, which uses open addressing
+ * with linear probing. Lookups never allocate, and neither do insertions
+ * unless the map needs to grow.
+ *
+ * <p>This is primarily intended for maps keyed by a pair of {@code int}
+ * coordinates -- see {@link #key(int, int)}.
+ *
+ * <p>Null values are not permitted, so {@code null} is returned by {@link
+ * #get(long)} and friends only when a key is absent.
+ *
+ * <p>Entries are removed by shifting later entries of the same probe sequence
+ * back, rather than by leaving tombstones, so a map never degrades however
+ * many entries come and go. This does, however, mean that this map must not
+ * be modified while it is being iterated over.
+ *
+ * @see ConcurrentLongMap
+ */
+@NotThreadSafe
+public class LongMap<V> {
+
+    /** Maximum proportion of slots which may be filled before we grow. */
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // These are package-private for the benefit of ConcurrentLongMap.
+    long[] keys;
+    /** A slot is empty iff its value is null. */
+    Object[] vals;
+    int size = 0;
+    private int threshold;
+
+
+    /**
+     * Creates a new map with room for 16 entries before it needs to grow.
+     */
+    public LongMap() {
+        this(16);
+    }
+
+    /**
+     * Creates a new map.
+     *
+     * @param expectedSize The number of entries the map should be able to
+     * hold before it needs to grow.
+     *
+     * @throws IllegalArgumentException if {@code expectedSize < 0}.
+     */
+    public LongMap(int expectedSize) {
+        if(expectedSize < 0)
+            throw new IllegalArgumentException("expectedSize < 0");
+        int capacity = Integer.highestOneBit(Math.max(4, (int)(expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        vals = new Object[capacity];
+        threshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the value mapped to the given key.
+     *
+     * @return The value, or {@code null} if the key is absent.
+     */
+    public V get(long key) {
+        return probe(keys, vals, key);
+    }
+
+    /**
+     * Returns {@code true} if this map contains the given key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @return The value which was previously mapped to the key, or {@code
+     * null} if there was none.
+     * @throws NullPointerException if {@code value} is {@code null}.
+     */
+    public V put(long key, V value) {
+        Objects.requireNonNull(value);
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        Object v;
+        while((v = vals[i]) != null) {
+            if(keys[i] == key) {
+                vals[i] = value;
+                return cast(v);
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        vals[i] = value;
+        if(++size > threshold)
+            resize(keys.length << 1);
+        return null;
+    }
+
+    /**
+     * Maps a key to a value if the key is absent.
+     *
+     * @return The value already mapped to the key, or {@code null} if there
+     * was none and {@code value} was put in.
+     * @throws NullPointerException if {@code value} is {@code null}.
+     */
+    public V putIfAbsent(long key, V value) {
+        V old = get(key);
+        return old != null ? old : put(key, value);
+    }
+
+    /**
+     * Removes the entry with the given key.
+     *
+     * @return The value which was mapped to the key, or {@code null} if the
+     * key was absent.
+     */
+    public V remove(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        Object v;
+        while((v = vals[i]) != null) {
+            if(keys[i] == key) {
+                shiftBack(i, mask);
+                size--;
+                return cast(v);
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Empties slot {@code i}, moving back any later entries of its probe
+     * sequence which would no longer be reachable otherwise.
+     */
+    private void shiftBack(int i, int mask) {
+        int j = i;
+        while(true) {
+            j = (j + 1) & mask;
+            if(vals[j] == null)
+                break;
+            int home = hash(keys[j]) & mask;
+            // The entry at j may stay put only if its home slot lies
+            // cyclically within (i, j].
+            boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if(!stays) {
+                keys[i] = keys[j];
+                vals[i] = vals[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        vals[i] = null;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldVals = vals;
+        long[] newKeys = new long[capacity];
+        Object[] newVals = new Object[capacity];
+        int mask = capacity - 1;
+        for(int i = 0; i < oldVals.length; i++) {
+            if(oldVals[i] != null) {
+                int j = hash(oldKeys[i]) & mask;
+                while(newVals[j] != null)
+                    j = (j + 1) & mask;
+                newKeys[j] = oldKeys[i];
+                newVals[j] = oldVals[i];
+            }
+        }
+        // Publish vals last; see ConcurrentLongMap's optimistic reads.
+        keys = newKeys;
+        vals = newVals;
+        threshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Removes every entry of this map.
+     */
+    public void clear() {
+        if(size != 0) {
+            Arrays.fill(vals, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Performs the given action for each value in this map. The map must not
+     * be modified by the action.
+     *
+     * @throws NullPointerException if {@code action} is {@code null}.
+     */
+    public void forEach(Consumer<? super V> action) {
+        Object[] vals = this.vals;
+        for(int i = 0; i < vals.length; i++)
+            if(vals[i] != null)
+                action.accept(cast(vals[i]));
+    }
+
+    /**
+     * Copies every value of this map into the given array, which should have
+     * room for at least {@link #size()} values.
+     *
+     * @return The number of values copied.
+     */
+    int copyValues(Object[] dest) {
+        int n = 0;
+        for(Object v : vals)
+            if(v != null)
+                dest[n++] = v;
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for(int i = 0; i < vals.length; i++) {
+            if(vals[i] != null) {
+                if(sb.length() > 1)
+                    sb.append(", ");
+                sb.append('(').append(keyX(keys[i])).append(',').append(keyY(keys[i]))
+                        .append(")=").append(vals[i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    //--------------------==========--------------------
+    //------------=====Static Functions=====------------
+    //--------------------==========--------------------
+
+    /**
+     * Packs a pair of coordinates into a key.
+     */
+    public static long key(int x, int y) {
+        return ((long)x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Gets the x-coordinate of a key packed by {@link #key(int, int)}.
+     */
+    public static int keyX(long key) {
+        return (int)(key >>> 32);
+    }
+
+    /**
+     * Gets the y-coordinate of a key packed by {@link #key(int, int)}.
+     */
+    public static int keyY(long key) {
+        return (int)key;
+    }
+
+    /**
+     * Finds a key in the given table. This never probes more than the length
+     * of the table, so that it terminates even if the table is being
+     * concurrently modified.
+     */
+    static <V> V probe(long[] keys, Object[] vals, long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for(int n = 0; n <= mask; n++) {
+            Object v = vals[i];
+            if(v == null)
+                return null;
+            if(keys[i] == key)
+                return cast(v);
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Mixes the bits of a key, since packed coordinates have all their
+     * entropy in the low bits of each half. This is the finaliser of
+     * MurmurHash3.
+     */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object o) {
+        return (V)o;
+    }
+
+}
@@ -0,0 +1,403 @@
+package com.stabilise.util.collect;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A fixed-length int array which stores each distinct value it holds only
+ * once, in a palette, and represents each element as a bit-packed index into
+ * that palette. This is ideal for data such as the tiles of a slice, where
+ * the number of distinct values is typically tiny compared to the length of
+ * the array.
+ *
+ * <p>Indices are packed into a {@code long[]} using 0, 1, 2, 4, 8 or 16 bits
+ * per element, such that no index straddles two longs. An array with a
+ * single distinct value needs no packed indices at all. When a value not yet
+ * in the palette is {@link #set(int, int) set} and the palette is full, the
+ * array is repacked: values no longer in use are evicted from the palette,
+ * and the number of bits per element is widened if that still isn't enough.
+ *
+ * <p>This class is not thread-safe, with one exception: {@link #snapshot()}
+ * may be invoked by any thread while another is modifying the array.
+ */
+@NotThreadSafe
+public class PalettedIntArray {
+
+    /** The maximum number of bits per element we will use. */
+    private static final int MAX_BITS = 16;
+    private static final long[] EMPTY_DATA = new long[0];
+
+    /** The length of this array. */
+    private final int length;
+
+    /** log2 of the number of bits used per element; -1 if 0 bits are used. */
+    private int bitsShift = -1;
+    /** The packed palette indices. {@code null} if 0 bits are used. */
+    private long[] data = null;
+    /** The palette. Its length is always 2^bits. */
+    private int[] palette;
+    /** The number of values in the palette. */
+    private int paletteSize = 1;
+    /** The above fields as of the last time the palette gained a value or
+     * the array was repacked, for {@link #snapshot()}. The arrays it refers
+     * to are never reused for another palette or packing, so it never pairs
+     * a palette with packed data of a different width. */
+    private volatile Packed packed;
+
+
+    /**
+     * Creates a new PalettedIntArray, with every element initially set to
+     * 0.
+     *
+     * @param length The length of the array.
+     *
+     * @throws IllegalArgumentException if {@code length < 1}.
+     */
+    public PalettedIntArray(int length) {
+        if(length < 1)
+            throw new IllegalArgumentException("length < 1");
+        this.length = length;
+        this.palette = new int[1];
+        publish();
+    }
+
+    /**
+     * Creates a new PalettedIntArray holding the contents of the given array.
+     *
+     * @throws NullPointerException if {@code values} is {@code null}.
+     * @throws IllegalArgumentException if {@code values} is empty.
+     */
+    public PalettedIntArray(int[] values) {
+        this(values.length);
+        setAll(values);
+    }
+
+    /**
+     * Creates a new PalettedIntArray from its packed representation, as
+     * returned by {@link #getPalette()} and {@link #getPackedData()}. Note
+     * that {@code data} is not copied; it becomes this array's backing array.
+     *
+     * @param length The length of the array.
+     * @param palette The palette.
+     * @param data The packed palette indices.
+     *
+     * @throws NullPointerException if either array is {@code null}.
+     * @throws IllegalArgumentException if {@code length < 1}, or either
+     * {@code palette} or {@code data} are of an invalid length.
+     */
+    public PalettedIntArray(int length, int[] palette, long[] data) {
+        this(length);
+        int shift = bitsShiftFor(palette.length);
+        if(palette.length == 0 || (shift != -1 && (1 << shift) > MAX_BITS))
+            throw new IllegalArgumentException("Invalid palette length " + palette.length);
+        int expectedData = shift == -1 ? 0 : longsFor(shift);
+        if(data.length != expectedData)
+            throw new IllegalArgumentException("Invalid data length " + data.length
+                    + " (expected " + expectedData + ")");
+
+        this.palette = Arrays.copyOf(palette, shift == -1 ? 1 : 1 << (1 << shift));
+        this.paletteSize = palette.length;
+        this.bitsShift = shift;
+        this.data = shift == -1 ? null : data;
+        publish();
+    }
+
+    /**
+     * Returns the length of this array.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Gets the element at the specified index.
+     *
+     * @throws ArrayIndexOutOfBoundsException if {@code i} is out of bounds.
+     * This may not be thrown if this array holds a single distinct value.
+     */
+    public int get(int i) {
+        if(bitsShift == -1)
+            return palette[0];
+        int bits = 1 << bitsShift;
+        int perLongShift = 6 - bitsShift;
+        long word = data[i >>> perLongShift];
+        int offset = (i & ((1 << perLongShift) - 1)) << bitsShift;
+        return palette[(int)(word >>> offset) & ((1 << bits) - 1)];
+    }
+
+    /**
+     * Sets the element at the specified index.
+     *
+     * @throws ArrayIndexOutOfBoundsException if {@code i} is out of bounds.
+     */
+    public void set(int i, int value) {
+        if(i < 0 || i >= length)
+            throw new ArrayIndexOutOfBoundsException(i);
+        int idx = indexOf(value);
+        if(idx == -1) {
+            if(paletteSize == palette.length) {
+                repack(value);
+                idx = indexOf(value);
+            } else {
+                idx = paletteSize++;
+                palette[idx] = value;
+                publish();
+            }
+        }
+        setIndex(i, idx);
+    }
+
+    /**
+     * Sets every element of this array from the given array.
+     *
+     * @throws NullPointerException if {@code values} is {@code null}.
+     * @throws IllegalArgumentException if {@code values.length !=} {@link
+     * #length()}.
+     */
+    public void setAll(int[] values) {
+        if(values.length != length)
+            throw new IllegalArgumentException("Array lengths differ");
+
+        // Build the palette first so that we only pack once.
+        palette = new int[Math.min(length, 16)];
+        paletteSize = 0;
+        for(int v : values) {
+            if(indexOf(v) == -1) {
+                if(paletteSize == palette.length)
+                    palette = Arrays.copyOf(palette, Math.min(length, 2 * paletteSize));
+                palette[paletteSize++] = v;
+            }
+        }
+
+        int[] newPalette = Arrays.copyOf(palette, paletteSize);
+        int shift = bitsShiftFor(newPalette.length);
+        if(shift != -1 && (1 << shift) > MAX_BITS)
+            throw new IllegalArgumentException("Too many distinct values");
+        palette = Arrays.copyOf(newPalette, shift == -1 ? 1 : 1 << (1 << shift));
+        paletteSize = newPalette.length;
+        bitsShift = shift;
+        data = shift == -1 ? null : new long[longsFor(shift)];
+
+        if(shift != -1)
+            for(int i = 0; i < length; i++)
+                setIndex(i, indexOf(values[i]));
+        publish();
+    }
+
+    /**
+     * Fills every element of this array with the given value.
+     */
+    public void fill(int value) {
+        palette = new int[] { value };
+        paletteSize = 1;
+        bitsShift = -1;
+        data = null;
+        publish();
+    }
+
+    /**
+     * Copies the contents of this array into {@code dest}.
+     *
+     * @return {@code dest}
+     * @throws NullPointerException if {@code dest} is {@code null}.
+     * @throws ArrayIndexOutOfBoundsException if {@code dest} is too short.
+     */
+    public int[] toArray(int[] dest) {
+        if(bitsShift == -1)
+            Arrays.fill(dest, 0, length, palette[0]);
+        else
+            for(int i = 0; i < length; i++)
+                dest[i] = get(i);
+        return dest;
+    }
+
+    /**
+     * Returns a new int array holding the contents of this array.
+     */
+    public int[] toArray() {
+        return toArray(new int[length]);
+    }
+
+    /**
+     * Returns a copy of this array.
+     */
+    public PalettedIntArray copy() {
+        PalettedIntArray a = new PalettedIntArray(length);
+        a.bitsShift = bitsShift;
+        a.data = data == null ? null : data.clone();
+        a.palette = palette.clone();
+        a.paletteSize = paletteSize;
+        a.publish();
+        return a;
+    }
+
+    /**
+     * Returns a copy of this array. Unlike {@link #copy()}, this may be
+     * invoked while another thread is modifying this array. The copy is
+     * always a valid array, but any element being set while it is taken may
+     * come out wrong.
+     */
+    public PalettedIntArray snapshot() {
+        Packed p = packed;
+        PalettedIntArray a = new PalettedIntArray(length);
+        a.bitsShift = p.bitsShift;
+        a.data = p.data == null ? null : p.data.clone();
+        a.palette = p.palette.clone();
+        a.paletteSize = p.paletteSize;
+        a.publish();
+        return a;
+    }
+
+    /**
+     * Returns a copy of the palette. Note that this may include values which
+     * are no longer present in the array.
+     *
+     * @see #PalettedIntArray(int, int[], long[])
+     */
+    public int[] getPalette() {
+        return Arrays.copyOf(palette, paletteSize);
+    }
+
+    /**
+     * Returns the packed palette indices. This is the backing array of this
+     * PalettedIntArray, not a copy, and so should not be modified. If the
+     * palette only holds a single value, this is an empty array.
+     *
+     * @see #PalettedIntArray(int, int[], long[])
+     */
+    public long[] getPackedData() {
+        return data == null ? EMPTY_DATA : data;
+    }
+
+    /**
+     * Returns the number of distinct values in the palette. Note that this
+     * may include values which are no longer present in the array.
+     */
+    public int paletteSize() {
+        return paletteSize;
+    }
+
+    /**
+     * Returns the number of bits used to store each element.
+     */
+    public int bitsPerElement() {
+        return bitsShift == -1 ? 0 : 1 << bitsShift;
+    }
+
+    private int indexOf(int value) {
+        for(int i = 0; i < paletteSize; i++)
+            if(palette[i] == value)
+                return i;
+        return -1;
+    }
+
+    private void setIndex(int i, int idx) {
+        if(bitsShift == -1)
+            return; // idx must be 0
+        int bits = 1 << bitsShift;
+        int perLongShift = 6 - bitsShift;
+        int l = i >>> perLongShift;
+        int offset = (i & ((1 << perLongShift) - 1)) << bitsShift;
+        long mask = ((1L << bits) - 1) << offset;
+        data[l] = (data[l] & ~mask) | (((long)idx << offset) & mask);
+    }
+
+    /**
+     * Rebuilds the palette such that it contains only the values currently in
+     * use plus {@code newValue}, widening the number of bits per element if
+     * necessary.
+     */
+    private void repack(int newValue) {
+        int[] values = toArray();
+
+        // Find the values still in use.
+        boolean[] used = new boolean[paletteSize];
+        int numUsed = 0;
+        if(bitsShift == -1) {
+            used[0] = true;
+            numUsed = 1;
+        } else {
+            for(int v : values) {
+                int idx = indexOf(v);
+                if(!used[idx]) {
+                    used[idx] = true;
+                    numUsed++;
+                }
+            }
+        }
+
+        int[] newPalette = new int[numUsed + 1];
+        int n = 0;
+        for(int i = 0; i < paletteSize; i++)
+            if(used[i])
+                newPalette[n++] = palette[i];
+        newPalette[n] = newValue;
+
+        int shift = bitsShiftFor(newPalette.length);
+        if((1 << shift) > MAX_BITS)
+            throw new IllegalStateException("Too many distinct values");
+        palette = Arrays.copyOf(newPalette, 1 << (1 << shift));
+        paletteSize = newPalette.length;
+        // Always repack into a new array, since the old one may still be
+        // being copied by snapshot()
+        data = new long[longsFor(shift)];
+        bitsShift = shift;
+
+        for(int i = 0; i < length; i++)
+            setIndex(i, indexOf(values[i]));
+        publish();
+    }
+
+    /**
+     * Publishes the current palette and packing for {@link #snapshot()}.
+     */
+    private void publish() {
+        packed = new Packed(bitsShift, data, palette, paletteSize);
+    }
+
+    /**
+     * Returns the number of longs required to pack {@link #length} elements
+     * with the given bits shift.
+     */
+    private int longsFor(int shift) {
+        int perLong = 64 >>> shift;
+        return (length + perLong - 1) / perLong;
+    }
+
+    /**
+     * Returns the smallest bits shift (i.e. log2 of the number of bits per
+     * element) able to index a palette of the given size, or -1 if no bits
+     * are needed.
+     */
+    private static int bitsShiftFor(int paletteSize) {
+        if(paletteSize <= 1)
+            return -1;
+        int bits = 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+        int shift = 32 - Integer.numberOfLeadingZeros(bits - 1);
+        return shift;
+    }
+
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+
+    /**
+     * A palette and the data packed against it, as published for {@link
+     * PalettedIntArray#snapshot()}.
+     */
+    private static final class Packed {
+        final int bitsShift;
+        final long[] data;
+        final int[] palette;
+        final int paletteSize;
+
+        Packed(int bitsShift, long[] data, int[] palette, int paletteSize) {
+            this.bitsShift = bitsShift;
+            this.data = data;
+            this.palette = palette;
+            this.paletteSize = paletteSize;
+        }
+    }
+
+}
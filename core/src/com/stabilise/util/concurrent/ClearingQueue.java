@@ -130,10 +130,10 @@ public interface ClearingQueue<E> extends Iterable<E> {
      * 
      * <p>This convenience method is offered to make implementation switching
      * easier in the event that a better/faster implementation than {@link
-     * SynchronizedClearingQueue} is devised.
+     * LockFreeClearingQueue} is devised.
      */
     public static <E> ClearingQueue<E> create() {
-        return new SynchronizedClearingQueue<>();
+        return new LockFreeClearingQueue<>();
     }
     
 }
@@ -0,0 +1,119 @@
+package com.stabilise.util.concurrent;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link ClearingQueue} which never blocks. Elements are pushed onto a
+ * linked stack with a single CAS, and a clearing iteration detaches the
+ * entire stack with a single swap. Iterators walk a reversed copy of the
+ * stack so that elements are iterated over in the order they were added;
+ * published nodes are never modified, so a non-clearing iteration is safe
+ * even while another thread clears the queue.
+ *
+ * <p>This is especially suited to many threads handing elements off to a
+ * single consuming thread, as adding an element never waits on the consumer,
+ * and the consumer never waits on the producers.
+ */
+@ThreadSafe
+public class LockFreeClearingQueue<E> implements ClearingQueue<E> {
+
+    // Node Class -------------------------------------------------------------
+
+    /**
+     * Node class. Each node stores its item and links to the node added
+     * before it.
+     */
+    private static class Node<E> {
+
+        final E item;
+        /** Link to the node added before this one (or after it, in an
+         * iterator's reversed copy). */
+        final Node<E> next;
+
+        Node(E e, Node<E> next) {
+            this.item = e;
+            this.next = next;
+        }
+
+    }
+
+    /** The most recently added node, or null if the queue is empty. */
+    private final AtomicReference<Node<E>> top = new AtomicReference<>();
+
+    @Override
+    public int size() {
+        int size = 0;
+        for(Node<E> n = top.get(); n != null; n = n.next)
+            size++;
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return top.get() == null;
+    }
+
+    @Override
+    public void add(E e) {
+        Node<E> t, n;
+        do {
+            t = top.get();
+            n = new Node<>(e, t);
+        } while(!top.compareAndSet(t, n));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        if(isEmpty())
+            return Collections.emptyIterator();
+        return new Itr(reverse(top.getAndSet(null)));
+    }
+
+    @Override
+    public Iterator<E> nonClearingIterator() {
+        return new Itr(reverse(top.get()));
+    }
+
+    /**
+     * Returns a reversed copy of the stack beginning with {@code n}.
+     */
+    private static <E> Node<E> reverse(Node<E> n) {
+        Node<E> copy = null;
+        for(; n != null; n = n.next)
+            copy = new Node<>(n.item, copy);
+        return copy;
+    }
+
+    // Iterator impl. ---------------------------------------------------------
+
+    private class Itr implements Iterator<E> {
+
+        private Node<E> next;
+
+        /** first may be null */
+        Itr(Node<E> first) {
+            next = first;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if(next == null)
+                throw new NoSuchElementException();
+            final E e = next.item;
+            next = next.next;
+            return e;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.stabilise.util.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream which reads from a ByteBuffer. Reading from this stream
+ * advances the position of the buffer.
+ *
+ * <p>{@link DataInStream} recognises this stream, and reads primitive arrays
+ * from it in bulk via views of the buffer rather than one element at a time.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+
+    /**
+     * Creates a new stream which reads the remaining bytes of the given
+     * buffer.
+     *
+     * @throws NullPointerException if {@code buf} is {@code null}.
+     */
+    public ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+        buf.getClass(); // null check
+    }
+
+    /**
+     * Returns the underlying buffer.
+     */
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0)
+            return 0;
+        if(!buf.hasRemaining())
+            return -1;
+        len = Math.min(len, buf.remaining());
+        buf.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + k);
+        return k;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+
+}
@@ -1,13 +1,19 @@
 package com.stabilise.util.io;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 
 /**
  * An extension of DataInputStream which also provides convenience methods to
- * read strings and int arrays.
+ * read strings and primitive arrays.
+ * 
+ * <p>If the underlying stream is a {@link ByteBufferInputStream}, primitive
+ * arrays are read in bulk straight from its buffer.
  */
 public class DataInStream extends DataInputStream {
     
@@ -36,8 +42,49 @@ public class DataInStream extends DataInputStream {
      * @throws IOException if an i/o error occurs.
      */
     public void readIntArray(int[] arr) throws IOException {
-        for(int i = 0; i < arr.length; i++)
-            arr[i] = readInt();
+        ByteBuffer buf = bulkBuffer(arr.length * 4);
+        if(buf != null) {
+            buf.asIntBuffer().get(arr);
+            buf.position(buf.position() + arr.length * 4);
+        } else {
+            for(int i = 0; i < arr.length; i++)
+                arr[i] = readInt();
+        }
+    }
+    
+    /**
+     * Reads a long array and stores the data in the provided array. The
+     * number of longs read is equal to the length of the array.
+     * 
+     * @throws NullPointerException if {@code arr} is {@code null}.
+     * @throws IOException if an i/o error occurs.
+     */
+    public void readLongArray(long[] arr) throws IOException {
+        ByteBuffer buf = bulkBuffer(arr.length * 8);
+        if(buf != null) {
+            buf.asLongBuffer().get(arr);
+            buf.position(buf.position() + arr.length * 8);
+        } else {
+            for(int i = 0; i < arr.length; i++)
+                arr[i] = readLong();
+        }
+    }
+    
+    /**
+     * Returns the buffer to read {@code bytes} bytes from in bulk, or {@code
+     * null} if we aren't reading from a big-endian buffer.
+     * 
+     * @throws EOFException if the buffer doesn't have that many bytes left.
+     */
+    private ByteBuffer bulkBuffer(int bytes) throws EOFException {
+        if(!(in instanceof ByteBufferInputStream))
+            return null;
+        ByteBuffer buf = ((ByteBufferInputStream) in).buffer();
+        if(buf.order() != ByteOrder.BIG_ENDIAN) // just in case
+            return null;
+        if(buf.remaining() < bytes)
+            throw new EOFException();
+        return buf;
     }
     
 }
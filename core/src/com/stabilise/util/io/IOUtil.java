@@ -4,6 +4,7 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -11,6 +12,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -280,6 +282,75 @@ public class IOUtil {
         safelySaveFile(file, f -> write(f, data, compression));
     }
     
+    /**
+     * Reads a compound of the given format from a stream which is already
+     * decompressed. The returned compound will be in read mode. The stream is
+     * closed once it has been read.
+     * 
+     * @throws NullPointerException if any argument is null.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static DataCompound read(InputStream in, Format format) throws IOException {
+        try(DataInStream dis = new DataInStream(new BufferedInputStream(in))) {
+            return format.read(dis);
+        }
+    }
+    
+    /**
+     * Reads a compound of the given format from the remaining bytes of a
+     * buffer which holds uncompressed data. Primitive arrays are read from
+     * the buffer in bulk. The returned compound will be in read mode.
+     * 
+     * @throws NullPointerException if any argument is null.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static DataCompound read(ByteBuffer buf, Format format) throws IOException {
+        try(DataInStream dis = new DataInStream(new ByteBufferInputStream(buf))) {
+            return format.read(dis);
+        }
+    }
+    
+    /**
+     * Reads a stream to its end into a buffer. The stream is closed once it
+     * has been read.
+     * 
+     * @param in The stream.
+     * @param sizeHint The expected number of bytes; this needn't be exact.
+     * 
+     * @return A heap buffer holding the bytes read, with its position at 0
+     * and its limit at the number of bytes read.
+     * @throws NullPointerException if {@code in} is {@code null}.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static ByteBuffer readFully(InputStream in, int sizeHint) throws IOException {
+        try(InputStream in0 = in) {
+            byte[] buf = new byte[Math.max(sizeHint, 64)];
+            int n = 0, r;
+            while((r = in0.read(buf, n, buf.length - n)) != -1) {
+                n += r;
+                if(n == buf.length)
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            return ByteBuffer.wrap(buf, 0, n);
+        }
+    }
+    
+    /**
+     * Writes a compound to a byte array with the given compression.
+     * 
+     * @throws NullPointerException if any argument is null.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static byte[] toBytes(DataCompound data, Compression compression)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutStream out = new DataOutStream(new BufferedOutputStream(
+                compression.wrap(bytes)))) {
+            data.format().write(out, data);
+        }
+        return bytes.toByteArray();
+    }
+    
     
     /**
      * Counts the number of bytes which would be written by {@code data} in the
@@ -1,60 +1,349 @@
 package com.stabilise.util.io.data;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.io.ByteBufferInputStream;
+import com.stabilise.util.io.IOUtil;
+
 /**
- * An assortment of compression formats.
+ * A compression codec. Every codec has an ID, which is what gets written
+ * alongside compressed data wherever a reader needs to be told how it was
+ * compressed (see e.g. {@code RegionFile}), and codecs are {@link
+ * #register(Compression) registered} under their ID so that such data may be
+ * read back with {@link #byID(int)}.
+ *
+ * <p>IDs are part of the on-disk format, so once an ID has been handed out it
+ * must never be reused for something which writes data differently. The IDs
+ * taken so far are:
+ *
+ * <ul>
+ * <li>0: {@link #UNCOMPRESSED}
+ * <li>1: {@link #GZIP}
+ * <li>2: {@link #ZLIB}
+ * <li>3: {@link #LZ}
+ * <li>4: ZLIB with the slice dictionary; see {@code WorldLoader}.
+ * </ul>
+ *
+ * <p>IDs 0 to 2 are the ordinals of the enum this class used to be, so data
+ * written before codecs were pluggable reads just the same.
+ *
+ * <p>Deflate-based codecs may be {@link #withLevel(int) tuned}; a tuned codec
+ * keeps the ID of the codec it was derived from, since any level of deflate
+ * is read the same way.
  */
-public enum Compression {
-    
-    UNCOMPRESSED {
+@ThreadSafe
+public abstract class Compression {
+
+    /** Registered codecs, indexed by ID. Declared before the built-in codecs
+     * so that it exists by the time they register themselves. */
+    private static final AtomicReferenceArray<Compression> CODECS =
+            new AtomicReferenceArray<>(256);
+
+    /** Doesn't compress at all. */
+    public static final Compression UNCOMPRESSED = register(new Uncompressed());
+    /** The GZIP format, at the default deflate level. */
+    public static final Compression GZIP = register(new Deflate(1, "GZIP", true,
+            Deflater.DEFAULT_COMPRESSION, null));
+    /** The ZLIB format, at the default deflate level. */
+    public static final Compression ZLIB = register(new Deflate(2, "ZLIB", false,
+            Deflater.DEFAULT_COMPRESSION, null));
+    /** A fast LZ77 codec in the style of LZ4. This compresses several times
+     * faster than ZLIB and decompresses many times faster, at the cost of
+     * somewhat larger output. */
+    public static final Compression LZ = register(new LZCompression(3, "LZ"));
+
+
+    private final int id;
+    private final String name;
+
+
+    /**
+     * @param id The ID of this codec, from 0 to 255.
+     * @param name The name of this codec.
+     *
+     * @throws IllegalArgumentException if {@code id} is out of bounds.
+     */
+    protected Compression(int id, String name) {
+        if(id < 0 || id > 255)
+            throw new IllegalArgumentException("Invalid codec ID " + id);
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Returns the ID of this codec.
+     */
+    public final int id() {
+        return id;
+    }
+
+    /**
+     * Returns the name of this codec.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Wraps the given InputStream in a decompressing stream.
+     */
+    public abstract InputStream wrap(InputStream in) throws IOException;
+
+    /**
+     * Wraps the given OutputStream in a compressing stream.
+     */
+    public abstract OutputStream wrap(OutputStream out) throws IOException;
+
+    /**
+     * Decompresses the remaining bytes of a buffer. The default
+     * implementation reads through {@link #wrap(InputStream)}; codecs which
+     * can decompress straight from an array should override this.
+     *
+     * @param src The compressed data.
+     * @param sizeHint The expected size of the decompressed data; this
+     * needn't be exact.
+     *
+     * @return A heap buffer holding the decompressed data between its
+     * position and limit. This may share content with {@code src}.
+     * @throws NullPointerException if {@code src} is {@code null}.
+     * @throws IOException if the data is corrupt.
+     */
+    public ByteBuffer decompress(ByteBuffer src, int sizeHint) throws IOException {
+        return IOUtil.readFully(wrap(new ByteBufferInputStream(src)), sizeHint);
+    }
+
+    /**
+     * Returns a codec which writes the same format as this one at the
+     * specified compression level. The returned codec has the same ID as this
+     * one, and so does not need to be registered. Codecs which have no notion
+     * of a level return themselves.
+     *
+     * @param level The level, from 0 (fastest) to 9 (smallest).
+     *
+     * @throws IllegalArgumentException if {@code level} is out of bounds.
+     */
+    public Compression withLevel(int level) {
+        checkLevel(level);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //--------------------==========--------------------
+    //------------=====Static Functions=====------------
+    //--------------------==========--------------------
+
+    /**
+     * Registers a codec so that data written with it may be read back via
+     * {@link #byID(int)}.
+     *
+     * @return {@code codec}
+     * @throws NullPointerException if {@code codec} is {@code null}.
+     * @throws IllegalArgumentException if a different codec is already
+     * registered under the ID of {@code codec}.
+     */
+    public static <T extends Compression> T register(T codec) {
+        int id = codec.id();
+        if(!CODECS.compareAndSet(id, null, codec) && CODECS.get(id) != codec)
+            throw new IllegalArgumentException("Codec ID " + id
+                    + " is already taken by " + CODECS.get(id));
+        return codec;
+    }
+
+    /**
+     * Gets the codec registered under the given ID.
+     *
+     * @return The codec, or {@code null} if none is registered under that ID
+     * (or the ID is out of bounds).
+     */
+    public static Compression byID(int id) {
+        return id < 0 || id > 255 ? null : CODECS.get(id);
+    }
+
+    /**
+     * Returns every registered codec, in order of ID.
+     */
+    public static List<Compression> registered() {
+        List<Compression> list = new ArrayList<>();
+        for(int i = 0; i < CODECS.length(); i++)
+            if(CODECS.get(i) != null)
+                list.add(CODECS.get(i));
+        return list;
+    }
+
+    /**
+     * Creates a ZLIB codec which primes the compressor with a preset
+     * dictionary. Data which shares content with the dictionary -- e.g., tag
+     * names and common values of a record format -- compresses considerably
+     * smaller, which helps most for small records.
+     *
+     * <p>The returned codec must be {@link #register(Compression) registered}
+     * before anything it writes can be read back. The dictionary is part of
+     * the data format: once anything is written with it, it must never change
+     * for as long as the codec keeps its ID.
+     *
+     * @param id The ID of the codec.
+     * @param name The name of the codec.
+     * @param dictionary The preset dictionary.
+     *
+     * @throws NullPointerException if {@code dictionary} is {@code null}.
+     * @throws IllegalArgumentException if {@code id} is out of bounds.
+     */
+    public static Compression zlibWithDictionary(int id, String name, byte[] dictionary) {
+        return new Deflate(id, name, false, Deflater.DEFAULT_COMPRESSION,
+                dictionary.clone());
+    }
+
+    private static void checkLevel(int level) {
+        if(level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid level " + level);
+    }
+
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+
+    private static class Uncompressed extends Compression {
+
+        Uncompressed() {
+            super(0, "UNCOMPRESSED");
+        }
+
         @Override
-        public InputStream wrap(InputStream in) throws IOException {
+        public InputStream wrap(InputStream in) {
             return in;
         }
-        
+
         @Override
-        public OutputStream wrap(OutputStream out) throws IOException {
+        public OutputStream wrap(OutputStream out) {
             return out;
         }
-    },
-    GZIP {
+
+        @Override
+        public ByteBuffer decompress(ByteBuffer src, int sizeHint) {
+            return src.slice();
+        }
+
+    }
+
+    /**
+     * The GZIP and ZLIB formats, optionally with a preset dictionary (ZLIB
+     * only).
+     */
+    private static class Deflate extends Compression {
+
+        private final boolean gzip;
+        private final int level;
+        private final byte[] dictionary;
+
+
+        Deflate(int id, String name, boolean gzip, int level, byte[] dictionary) {
+            super(id, name);
+            this.gzip = gzip;
+            this.level = level;
+            this.dictionary = dictionary;
+        }
+
         @Override
         public InputStream wrap(InputStream in) throws IOException {
-            return new GZIPInputStream(in);
+            if(gzip)
+                return new GZIPInputStream(in);
+            if(dictionary == null)
+                return new InflaterInputStream(in);
+            // InflaterInputStream treats a stream which needs a dictionary as
+            // being at its end, so we go through decompress() instead.
+            return new ByteBufferInputStream(decompress(IOUtil.readFully(in, 512), 2048));
         }
-        
+
         @Override
         public OutputStream wrap(OutputStream out) throws IOException {
-            return new GZIPOutputStream(out);
+            if(gzip) {
+                return new GZIPOutputStream(out) {
+                    { def.setLevel(level); }
+                };
+            }
+            Deflater def = new Deflater(level);
+            if(dictionary != null)
+                def.setDictionary(dictionary);
+            // We pass our own deflater, so we're responsible for ending it
+            return new DeflaterOutputStream(out, def) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
         }
-    },
-    ZLIB {
+
         @Override
-        public InputStream wrap(InputStream in) throws IOException {
-            return new InflaterInputStream(in);
+        public ByteBuffer decompress(ByteBuffer src, int sizeHint) throws IOException {
+            if(gzip)
+                return super.decompress(src, sizeHint);
+
+            Inflater inf = new Inflater();
+            try {
+                if(src.hasArray())
+                    inf.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+                else {
+                    byte[] b = new byte[src.remaining()];
+                    src.duplicate().get(b);
+                    inf.setInput(b);
+                }
+
+                byte[] out = new byte[Math.max(sizeHint, 64)];
+                int n = 0;
+                while(!inf.finished()) {
+                    if(n == out.length)
+                        out = Arrays.copyOf(out, n * 2);
+                    int r = inf.inflate(out, n, out.length - n);
+                    if(r == 0 && !inf.finished()) {
+                        if(inf.needsDictionary()) {
+                            if(dictionary == null)
+                                throw new IOException(name() + " data needs a dictionary");
+                            inf.setDictionary(dictionary);
+                        } else if(inf.needsInput())
+                            throw new EOFException("Unexpected end of " + name() + " data");
+                    }
+                    n += r;
+                }
+                return ByteBuffer.wrap(out, 0, n);
+            } catch(DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inf.end();
+            }
         }
-        
+
         @Override
-        public OutputStream wrap(OutputStream out) throws IOException {
-            return new DeflaterOutputStream(out);
+        public Compression withLevel(int level) {
+            checkLevel(level);
+            return level == this.level ? this
+                    : new Deflate(id(), name() + "-" + level, gzip, level, dictionary);
         }
-    };
-    
-    /**
-     * Wraps the given InputStream in a compressing stream.
-     */
-    public abstract InputStream wrap(InputStream in) throws IOException;
-    
-    /**
-     * Wraps the given OutputStream in a decompressing stream.
-     */
-    public abstract OutputStream wrap(OutputStream out) throws IOException;
-    
+
+    }
+
 }
@@ -0,0 +1,502 @@
+package com.stabilise.util.io.data;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A byte-oriented LZ77 codec, after the LZ4 block format. There is no entropy
+ * coding stage, which is what makes this much faster than deflate in both
+ * directions.
+ *
+ * <p>Data is split into blocks of at most {@link #BLOCK_SIZE} bytes, each of
+ * which is written as:
+ *
+ * <pre>
+ * int  rawLength     // the length of the block once decompressed
+ * int  storedLength  // the length of the data which follows, or 0 if the
+ *                    // block is stored raw (i.e. it didn't compress)
+ * byte[] data</pre>
+ *
+ * <p>A compressed block is a series of sequences, each of which is a token
+ * byte, followed by a run of literals, followed by a match. The high nibble of
+ * the token is the number of literals and the low nibble is the match length
+ * minus {@link #MIN_MATCH}; a nibble of 15 is followed by extra length bytes,
+ * each of which is added on, until a byte which isn't 255. The match is a
+ * two-byte little-endian offset back into the decompressed data, followed by
+ * any extra match length bytes. The last sequence of a block has no match.
+ */
+class LZCompression extends Compression {
+
+    /** The maximum number of bytes of input compressed as a single block. */
+    static final int BLOCK_SIZE = 1 << 16;
+    private static final int HEADER_BYTES = 8;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    /** The last few bytes of a block are always literals, and a match may not
+     * start in the last {@code MATCH_LIMIT} bytes. */
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_LIMIT = 12;
+
+    private static final int HASH_BITS = 12;
+    /** Once this many positions in a row fail to find a match, we start
+     * skipping ahead faster, since the data probably won't compress. */
+    private static final int SKIP_TRIGGER = 6;
+
+
+    LZCompression(int id, String name) {
+        super(id, name);
+    }
+
+    @Override
+    public InputStream wrap(InputStream in) {
+        return new LZInputStream(in);
+    }
+
+    @Override
+    public OutputStream wrap(OutputStream out) {
+        return new LZOutputStream(out);
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer src, int sizeHint) throws IOException {
+        // We know the decompressed length of every block up front, so size
+        // the output exactly and decompress straight into it.
+        ByteBuffer in = src.slice();
+        int total = 0;
+        for(int p = 0; p < in.limit(); ) {
+            if(in.limit() - p < HEADER_BYTES)
+                throw new EOFException("Truncated " + name() + " block header");
+            int raw = in.getInt(p);
+            int stored = in.getInt(p + 4);
+            if(raw < 0 || raw > BLOCK_SIZE || stored < 0
+                    || (stored == 0 ? raw : stored) > in.limit() - p - HEADER_BYTES)
+                throw new IOException("Corrupt " + name() + " block header");
+            total += raw;
+            p += HEADER_BYTES + (stored == 0 ? raw : stored);
+        }
+
+        byte[] srcArr;
+        int off;
+        if(in.hasArray()) {
+            srcArr = in.array();
+            off = in.arrayOffset();
+        } else {
+            srcArr = new byte[in.limit()];
+            in.get(srcArr);
+            off = 0;
+        }
+
+        byte[] out = new byte[total];
+        int n = 0;
+        for(int p = off, end = off + in.limit(); p < end; ) {
+            int raw = getInt(srcArr, p);
+            int stored = getInt(srcArr, p + 4);
+            p += HEADER_BYTES;
+            if(stored == 0) {
+                System.arraycopy(srcArr, p, out, n, raw);
+                p += raw;
+            } else {
+                decompressBlock(srcArr, p, stored, out, n, raw);
+                p += stored;
+            }
+            n += raw;
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    //--------------------==========--------------------
+    //------------=====Static Functions=====------------
+    //--------------------==========--------------------
+
+    /**
+     * Returns the most bytes {@link #compressBlock} could write for {@code
+     * len} bytes of input.
+     */
+    static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Compresses a block.
+     *
+     * @param src The source array.
+     * @param off The offset of the block in {@code src}.
+     * @param len The length of the block.
+     * @param dst The destination array, which must have space for at least
+     * {@link #maxCompressedLength(int) maxCompressedLength(len)} bytes.
+     * @param dOff The offset in {@code dst} to start writing at.
+     * @param table A hash table of length at least {@code 1 << HASH_BITS}.
+     * Its contents are overwritten.
+     *
+     * @return The number of bytes written to {@code dst}.
+     */
+    static int compressBlock(byte[] src, int off, int len, byte[] dst, int dOff,
+            int[] table) {
+        int end = off + len;
+        int anchor = off; // start of the pending literals
+        int dp = dOff;
+
+        if(len >= MATCH_LIMIT + 1) {
+            // Small blocks get a smaller table, as clearing it would otherwise
+            // cost more than compressing the block.
+            int hashBits = Math.max(8, Math.min(HASH_BITS, 32 - Integer.numberOfLeadingZeros(len)));
+            int shift = 32 - hashBits;
+            Arrays.fill(table, 0, 1 << hashBits, -1);
+            int matchEnd = end - LAST_LITERALS;
+            int limit = end - MATCH_LIMIT;
+            int p = off;
+            int misses = 0;
+
+            while(p < limit) {
+                int v = getInt(src, p);
+                int h = hash(v, shift);
+                int ref = table[h];
+                table[h] = p;
+
+                if(ref < 0 || p - ref > MAX_OFFSET || getInt(src, ref) != v) {
+                    p += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+
+                // Extend the match backwards into the literals, then forwards
+                while(p > anchor && ref > off && src[p - 1] == src[ref - 1]) {
+                    p--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while(p + matchLen < matchEnd && src[p + matchLen] == src[ref + matchLen])
+                    matchLen++;
+
+                dp = writeSequence(src, anchor, p - anchor, p - ref, matchLen, dst, dp);
+                p += matchLen;
+                anchor = p;
+
+                // Make the end of the match findable too
+                if(p < limit)
+                    table[hash(getInt(src, p - 2), shift)] = p - 2;
+            }
+        }
+
+        // Trailing literals
+        int litLen = end - anchor;
+        int token = dp++;
+        dp = writeLength(litLen, dst, dp);
+        dst[token] = (byte)(Math.min(litLen, 15) << 4);
+        System.arraycopy(src, anchor, dst, dp, litLen);
+        return dp + litLen - dOff;
+    }
+
+    private static int writeSequence(byte[] src, int litStart, int litLen,
+            int offset, int matchLen, byte[] dst, int dp) {
+        int token = dp++;
+        dp = writeLength(litLen, dst, dp);
+        System.arraycopy(src, litStart, dst, dp, litLen);
+        dp += litLen;
+        dst[dp++] = (byte)offset;
+        dst[dp++] = (byte)(offset >>> 8);
+        matchLen -= MIN_MATCH;
+        dp = writeLength(matchLen, dst, dp);
+        dst[token] = (byte)((Math.min(litLen, 15) << 4) | Math.min(matchLen, 15));
+        return dp;
+    }
+
+    /**
+     * Writes the extra length bytes for a length of {@code len}, if it
+     * doesn't fit in a token nibble.
+     */
+    private static int writeLength(int len, byte[] dst, int dp) {
+        if(len < 15)
+            return dp;
+        len -= 15;
+        while(len >= 255) {
+            dst[dp++] = (byte)255;
+            len -= 255;
+        }
+        dst[dp++] = (byte)len;
+        return dp;
+    }
+
+    /**
+     * Decompresses a block.
+     *
+     * @param src The source array.
+     * @param off The offset of the compressed block in {@code src}.
+     * @param len The length of the compressed block.
+     * @param dst The destination array.
+     * @param dOff The offset in {@code dst} to start writing at.
+     * @param rawLen The decompressed length of the block.
+     *
+     * @throws IOException if the block is corrupt.
+     */
+    static void decompressBlock(byte[] src, int off, int len, byte[] dst, int dOff,
+            int rawLen) throws IOException {
+        int sp = off, sEnd = off + len;
+        int dp = dOff, dEnd = dOff + rawLen;
+
+        while(true) {
+            if(sp >= sEnd)
+                throw corrupt();
+            int token = src[sp++] & 0xFF;
+
+            int litLen = token >>> 4;
+            if(litLen == 15) {
+                int b;
+                do {
+                    if(sp >= sEnd || litLen > rawLen)
+                        throw corrupt();
+                    litLen += b = src[sp++] & 0xFF;
+                } while(b == 255);
+            }
+            if(litLen > sEnd - sp || litLen > dEnd - dp)
+                throw corrupt();
+            System.arraycopy(src, sp, dst, dp, litLen);
+            sp += litLen;
+            dp += litLen;
+
+            if(sp == sEnd)
+                break; // the last sequence has no match
+
+            if(sEnd - sp < 2)
+                throw corrupt();
+            int offset = (src[sp++] & 0xFF) | ((src[sp++] & 0xFF) << 8);
+            int matchLen = token & 0xF;
+            if(matchLen == 15) {
+                int b;
+                do {
+                    if(sp >= sEnd || matchLen > rawLen)
+                        throw corrupt();
+                    matchLen += b = src[sp++] & 0xFF;
+                } while(b == 255);
+            }
+            matchLen += MIN_MATCH;
+
+            int ref = dp - offset;
+            if(offset == 0 || ref < dOff || matchLen > dEnd - dp)
+                throw corrupt();
+            if(offset >= matchLen)
+                System.arraycopy(dst, ref, dst, dp, matchLen);
+            else {
+                // Overlapping match, i.e. a repeating pattern; this must be
+                // copied a byte at a time.
+                for(int i = 0; i < matchLen; i++)
+                    dst[dp + i] = dst[ref + i];
+            }
+            dp += matchLen;
+        }
+
+        if(dp != dEnd)
+            throw corrupt();
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt LZ block");
+    }
+
+    private static int hash(int v, int shift) {
+        return (v * -1640531535) >>> shift;
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return ((b[i] & 0xFF) << 24) | ((b[i+1] & 0xFF) << 16)
+                | ((b[i+2] & 0xFF) << 8) | (b[i+3] & 0xFF);
+    }
+
+    private static void putInt(byte[] b, int i, int v) {
+        b[i]   = (byte)(v >>> 24);
+        b[i+1] = (byte)(v >>> 16);
+        b[i+2] = (byte)(v >>> 8);
+        b[i+3] = (byte)v;
+    }
+
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+
+    /**
+     * Buffers up a block's worth of data, and compresses it when the block is
+     * full, when flushed, and when closed.
+     */
+    private static class LZOutputStream extends FilterOutputStream {
+
+        /** Grows up to BLOCK_SIZE as needed, since most of what we compress
+         * is far smaller than a block. */
+        private byte[] buf = new byte[1024];
+        private int count = 0;
+        private byte[] block;
+        private final int[] table = new int[1 << HASH_BITS];
+
+
+        LZOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buf.length)
+                makeRoom();
+            buf[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                if(count == buf.length)
+                    makeRoom();
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void makeRoom() throws IOException {
+            if(buf.length < BLOCK_SIZE)
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            else
+                writeBlock();
+        }
+
+        private void writeBlock() throws IOException {
+            if(count == 0)
+                return;
+            int blockLength = HEADER_BYTES + maxCompressedLength(count);
+            if(block == null || block.length < blockLength)
+                block = new byte[blockLength];
+            int stored = compressBlock(buf, 0, count, block, HEADER_BYTES, table);
+            if(stored >= count) {
+                // Didn't compress; store it raw instead
+                putInt(block, 0, count);
+                putInt(block, 4, 0);
+                out.write(block, 0, HEADER_BYTES);
+                out.write(buf, 0, count);
+            } else {
+                putInt(block, 0, count);
+                putInt(block, 4, stored);
+                out.write(block, 0, HEADER_BYTES + stored);
+            }
+            count = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeBlock();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeBlock();
+            } finally {
+                out.close();
+            }
+        }
+
+    }
+
+    /**
+     * Reads and decompresses a block at a time.
+     */
+    private static class LZInputStream extends InputStream {
+
+        private final InputStream in;
+        private final byte[] header = new byte[HEADER_BYTES];
+        private byte[] compressed = new byte[0];
+        private byte[] buf = new byte[0];
+        private int pos = 0, count = 0;
+
+
+        LZInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next block into the buffer.
+         *
+         * @return false if we're at the end of the stream.
+         */
+        private boolean nextBlock() throws IOException {
+            int n = readFully(header, 0, HEADER_BYTES, true);
+            if(n == 0)
+                return false;
+            int raw = getInt(header, 0);
+            int stored = getInt(header, 4);
+            if(raw < 0 || raw > BLOCK_SIZE || stored < 0 || stored > maxCompressedLength(BLOCK_SIZE))
+                throw new IOException("Corrupt LZ block header");
+
+            if(buf.length < raw)
+                buf = new byte[raw];
+            if(stored == 0)
+                readFully(buf, 0, raw, false);
+            else {
+                if(compressed.length < stored)
+                    compressed = new byte[stored];
+                readFully(compressed, 0, stored, false);
+                decompressBlock(compressed, 0, stored, buf, 0, raw);
+            }
+            pos = 0;
+            count = raw;
+            return true;
+        }
+
+        /**
+         * @return the number of bytes read, which is only less than {@code
+         * len} if {@code eofOk} and we're at the end of the stream before
+         * reading any bytes.
+         */
+        private int readFully(byte[] b, int off, int len, boolean eofOk) throws IOException {
+            int n = 0;
+            while(n < len) {
+                int r = in.read(b, off + n, len - n);
+                if(r < 0) {
+                    if(n == 0 && eofOk)
+                        return 0;
+                    throw new EOFException("Unexpected end of LZ stream");
+                }
+                n += r;
+            }
+            return n;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while(pos == count)
+                if(!nextBlock())
+                    return -1;
+            return buf[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0)
+                return 0;
+            while(pos == count)
+                if(!nextBlock())
+                    return -1;
+            int n = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return count - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+}
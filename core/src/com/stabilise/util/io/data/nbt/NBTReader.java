@@ -0,0 +1,287 @@
+package com.stabilise.util.io.data.nbt;
+
+import java.io.IOException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.stabilise.util.io.DataInStream;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.ITag;
+
+/**
+ * Reads NBT data one tag at a time, rather than decoding it all into a tree
+ * of {@link NBTCompound}s and boxed tags. This lets a reader pull the data it
+ * cares about straight into wherever it's going, and skip or materialise
+ * everything else as it sees fit.
+ *
+ * <p>Usage is as follows:
+ *
+ * <pre>
+ * NBTReader r = new NBTReader(in);
+ * r.beginRoot();
+ * while(r.next()) {
+ *     switch(r.name()) {
+ *         case "foo": foo = r.readI32Arr(); break;
+ *         case "bar": bar = r.readCompound(); break;
+ *         default: r.skip(); break;
+ *     }
+ * }</pre>
+ *
+ * <p>After {@link #next()} positions the reader on a tag, exactly one of the
+ * following should be done before {@code next()} is invoked again: one of the
+ * {@code read} methods appropriate to the tag's type is invoked; the tag is
+ * {@link #skip() skipped}; or, for a compound tag, its contents are iterated
+ * over with {@code next()} until it returns {@code false}.
+ */
+@NotThreadSafe
+public class NBTReader {
+
+    private static final byte END = 0;
+
+    private final DataInStream in;
+    /** The type of the current tag. */
+    private byte type = END;
+    /** The name of the current tag. */
+    private String name = null;
+
+
+    /**
+     * Creates a new reader.
+     *
+     * @param in The stream to read from.
+     */
+    public NBTReader(DataInStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the header of the root compound, as written by {@link
+     * com.stabilise.util.io.data.Format#NBT Format.NBT}. Its tags may then be
+     * read via {@link #next()}.
+     *
+     * @throws IOException if an I/O error occurs, or the root tag is not a
+     * compound.
+     */
+    public void beginRoot() throws IOException {
+        if(in.readByte() != NBTType.COMPOUND.id)
+            throw new IOException("Root tag must be a named compound");
+        in.readUTF(); // discard root name
+        type = NBTType.COMPOUND.id;
+    }
+
+    /**
+     * Advances to the next tag of the compound currently being read.
+     *
+     * @return {@code true} if there is a tag; {@code false} if the end of the
+     * compound was reached.
+     * @throws IOException if an I/O error occurs.
+     */
+    public boolean next() throws IOException {
+        type = in.readByte();
+        if(type == END) {
+            name = null;
+            return false;
+        }
+        name = in.readUTF();
+        return true;
+    }
+
+    /**
+     * Returns the type of the current tag, as per {@link NBTType#id}. For an
+     * element of a list, this is the list's element type.
+     */
+    public byte type() {
+        return type;
+    }
+
+    /**
+     * Returns the name of the current tag, or {@code null} if the reader is
+     * on an element of a list.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns {@code true} if the current tag is of the given type.
+     */
+    public boolean is(NBTType t) {
+        return type == t.id;
+    }
+
+    private void expect(NBTType t) throws IOException {
+        if(type != t.id)
+            throw new IOException("Expected " + t + " for \"" + name + "\"; got "
+                    + (type == END ? "END" : NBTType.name(type)));
+    }
+
+    /**
+     * Reads the current tag as a boolean.
+     *
+     * @throws IOException if an I/O error occurs, or the tag is of the wrong
+     * type.
+     */
+    public boolean readBool() throws IOException {
+        expect(NBTType.BOOLEAN);
+        return in.readBoolean();
+    }
+
+    /**
+     * Reads the current tag as an int.
+     *
+     * @throws IOException if an I/O error occurs, or the tag is of the wrong
+     * type.
+     */
+    public int readI32() throws IOException {
+        expect(NBTType.INT);
+        return in.readInt();
+    }
+
+    /**
+     * Reads the current tag as a byte array.
+     *
+     * @throws IOException if an I/O error occurs, or the tag is of the wrong
+     * type.
+     */
+    public byte[] readI8Arr() throws IOException {
+        expect(NBTType.BYTE_ARRAY);
+        byte[] arr = new byte[length()];
+        in.readFully(arr);
+        return arr;
+    }
+
+    /**
+     * Reads the current tag as an int array.
+     *
+     * @throws IOException if an I/O error occurs, or the tag is of the wrong
+     * type.
+     */
+    public int[] readI32Arr() throws IOException {
+        expect(NBTType.INT_ARRAY);
+        int[] arr = new int[length()];
+        in.readIntArray(arr);
+        return arr;
+    }
+
+    /**
+     * Reads the current tag as a long array.
+     *
+     * @throws IOException if an I/O error occurs, or the tag is of the wrong
+     * type.
+     */
+    public long[] readI64Arr() throws IOException {
+        expect(NBTType.LONG_ARRAY);
+        long[] arr = new long[length()];
+        in.readLongArray(arr);
+        return arr;
+    }
+
+    private int length() throws IOException {
+        int len = in.readInt();
+        if(len < 0)
+            throw new IOException("Negative length " + len + " for \"" + name + "\"");
+        return len;
+    }
+
+    /**
+     * Reads the current tag, which must be a compound, into a new {@link
+     * NBTCompound}.
+     *
+     * @throws IOException if an I/O error occurs, or the tag is of the wrong
+     * type.
+     */
+    public DataCompound readCompound() throws IOException {
+        expect(NBTType.COMPOUND);
+        NBTCompound c = new NBTCompound();
+        c.readData(in);
+        return c;
+    }
+
+    /**
+     * Reads the current tag and puts it into the given compound under its
+     * name. This is for tags which a reader isn't interested in itself but
+     * wishes to pass on.
+     *
+     * @throws IOException if an I/O error occurs.
+     * @throws IllegalStateException if the reader is on an element of a list.
+     */
+    public void readInto(NBTCompound c) throws IOException {
+        if(name == null)
+            throw new IllegalStateException("Not on a named tag");
+        ITag tag = NBTType.createTag(type);
+        tag.readData(in);
+        c.putData(name, tag);
+    }
+
+    /**
+     * Reads the header of the current tag, which must be a list. Each of its
+     * elements is then read as if it were the current tag, in turn; i.e., by
+     * invoking an appropriate {@code read} method, {@link #skip()}, or for a
+     * list of compounds, iterating with {@link #next()}.
+     *
+     * @return The number of elements in the list.
+     * @throws IOException if an I/O error occurs, or the tag is of the wrong
+     * type.
+     */
+    public int beginList() throws IOException {
+        expect(NBTType.LIST);
+        byte elemType = in.readByte();
+        int length = length();
+        type = elemType;
+        name = null;
+        return length;
+    }
+
+    /**
+     * Skips over the current tag, without decoding it.
+     *
+     * @throws IOException if an I/O error occurs, or the data is corrupt.
+     */
+    public void skip() throws IOException {
+        skip(type);
+    }
+
+    private void skip(byte t) throws IOException {
+        switch(t) {
+            case 1: case 22: skipBytes(1); break;   // BYTE, BOOLEAN
+            case 2: skipBytes(2); break;            // SHORT
+            case 3: case 5: skipBytes(4); break;    // INT, FLOAT
+            case 4: case 6: skipBytes(8); break;    // LONG, DOUBLE
+            case 7: skipBytes(length()); break;     // BYTE_ARRAY
+            case 8: skipBytes(in.readUnsignedShort()); break; // STRING
+            case 11: case 20: skipBytes(4L * length()); break; // INT/FLOAT_ARRAY
+            case 12: case 21: skipBytes(8L * length()); break; // LONG/DOUBLE_ARRAY
+            case 9: { // LIST
+                byte elemType = in.readByte();
+                int length = length();
+                for(int i = 0; i < length; i++)
+                    skip(elemType);
+                break;
+            }
+            case 10: { // COMPOUND
+                byte child;
+                while((child = in.readByte()) != END) {
+                    skipBytes(in.readUnsignedShort()); // name
+                    skip(child);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown tag type " + t);
+        }
+    }
+
+    private void skipBytes(long n) throws IOException {
+        while(n > 0) {
+            int skipped = in.skipBytes((int)Math.min(n, Integer.MAX_VALUE));
+            if(skipped <= 0) {
+                // skipBytes() is allowed to give up early; make sure we
+                // haven't simply hit the end.
+                in.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.stabilise.util.maths;
+
+import static com.stabilise.util.maths.NoiseTables.GRAD_X;
+import static com.stabilise.util.maths.NoiseTables.GRAD_Y;
+import static com.stabilise.util.maths.NoiseTables.MASK;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Generates Perlin noise, as per {@link PerlinNoise}, but with gradients
+ * looked up from a table rather than generated afresh at every lattice point
+ * (see {@link NoiseTables}). Sampling allocates nothing and touches no
+ * mutable state, so a single instance may be shared between any number of
+ * threads.
+ *
+ * <p>The noise is deterministic for a given seed, but differs from that of a
+ * {@code PerlinNoise} with the same seed.
+ * 
+ * <p>When sampling in bulk, the lattice values or gradients about a cell are
+ * looked up once and reused for every point in a row which falls within that
+ * cell, which at the periods used for terrain is most of them.
+ */
+@Immutable
+public class FastPerlinNoise implements INoise {
+
+    private final int seedHash;
+    /** Maps hashes to gradient indices. */
+    private final byte[] perm;
+
+
+    /**
+     * Creates a new 2-dimensional perlin noise generator.
+     *
+     * @param seed The seed to use for noise generation.
+     */
+    public FastPerlinNoise(long seed) {
+        this.seedHash = NoiseTables.seedHash(seed);
+        this.perm = NoiseTables.permutation(seed);
+    }
+
+    /**
+     * Gets the index of the gradient of the given lattice point.
+     */
+    private int gradient(int x, int y) {
+        return perm[NoiseTables.hash(seedHash, x, y) & MASK] & MASK;
+    }
+
+    @Override
+    public float noise(double x) {
+        int flooredX = Maths.floor(x);
+
+        // As with PerlinNoise, this is technically value noise
+        float dx = (float)(x - flooredX);
+        return PerlinNoise.interp1.apply(value(flooredX), value(flooredX + 1), dx);
+    }
+
+    /**
+     * Gets the value at the given gridpoint, between 0.0 and 1.0.
+     */
+    private float value(int x) {
+        // Use the top 24 bits, as Random.nextFloat() does
+        return (NoiseTables.hash(seedHash, x, 0) >>> 8) * 0x1.0p-24f;
+    }
+
+    @Override
+    public float noise(double x, double y) {
+        int fx = Maths.floor(x);
+        int fy = Maths.floor(y);
+
+        // The position of the point within its cell
+        float px = (float)(x - fx);
+        float py = (float)(y - fy);
+
+        // Dot the gradient at each vertex with the vector from the vertex to
+        // the point
+        int g00 = gradient(fx,   fy);
+        int g01 = gradient(fx,   fy+1);
+        int g10 = gradient(fx+1, fy);
+        int g11 = gradient(fx+1, fy+1);
+        float v00 = GRAD_X[g00] * px      + GRAD_Y[g00] * py;
+        float v01 = GRAD_X[g01] * px      + GRAD_Y[g01] * (py-1f);
+        float v10 = GRAD_X[g10] * (px-1f) + GRAD_Y[g10] * py;
+        float v11 = GRAD_X[g11] * (px-1f) + GRAD_Y[g11] * (py-1f);
+
+        // Interpolate to attain a value
+        return 0.5f + Maths.biInterp(v00, v01, v10, v11, px, py, PerlinNoise.interp1);
+    }
+    
+    @Override
+    public void addNoise(float[] dest, double x, int width, double step,
+            double scale, float weight) {
+        // The same as noise(x), but with the values at either end of the
+        // current cell carried over from the previous point where possible.
+        int cx = 0;
+        float v0 = 0f, v1 = 0f;
+        for(int i = 0; i < width; i++) {
+            double xx = (x + i*step) * scale;
+            int fx = Maths.floor(xx);
+            if(i == 0 || fx != cx) {
+                v0 = i != 0 && fx == cx + 1 ? v1 : value(fx);
+                v1 = value(fx + 1);
+                cx = fx;
+            }
+            float dx = (float)(xx - fx);
+            dest[i] += weight * PerlinNoise.interp1.apply(v0, v1, dx);
+        }
+    }
+    
+    @Override
+    public void addNoise(float[] dest, double x, double y, int width,
+            int height, double step, double scale, float weight) {
+        // The same as noise(x, y), but with the gradients about the current
+        // cell carried over from the previous point in the row where possible.
+        for(int j = 0, k = 0; j < height; j++) {
+            double yy = (y + j*step) * scale;
+            int fy = Maths.floor(yy);
+            float py = (float)(yy - fy);
+            
+            int cx = 0;
+            int g00 = 0, g01 = 0, g10 = 0, g11 = 0;
+            for(int i = 0; i < width; i++, k++) {
+                double xx = (x + i*step) * scale;
+                int fx = Maths.floor(xx);
+                if(i == 0 || fx != cx) {
+                    if(i != 0 && fx == cx + 1) {
+                        g00 = g10;
+                        g01 = g11;
+                    } else {
+                        g00 = gradient(fx, fy);
+                        g01 = gradient(fx, fy+1);
+                    }
+                    g10 = gradient(fx+1, fy);
+                    g11 = gradient(fx+1, fy+1);
+                    cx = fx;
+                }
+                
+                float px = (float)(xx - fx);
+                float v00 = GRAD_X[g00] * px      + GRAD_Y[g00] * py;
+                float v01 = GRAD_X[g01] * px      + GRAD_Y[g01] * (py-1f);
+                float v10 = GRAD_X[g10] * (px-1f) + GRAD_Y[g10] * py;
+                float v11 = GRAD_X[g11] * (px-1f) + GRAD_Y[g11] * (py-1f);
+                dest[k] += weight * (0.5f + Maths.biInterp(v00, v01, v10, v11,
+                        px, py, PerlinNoise.interp1));
+            }
+        }
+    }
+
+}
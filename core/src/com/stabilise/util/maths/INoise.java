@@ -1,7 +1,15 @@
 package com.stabilise.util.maths;
 
+import java.util.Arrays;
+
 /**
  * This interface defines a generator of noise in both 1D and 2D space.
+ * 
+ * <p>As well as sampling single points, noise may be sampled in bulk over a
+ * row or grid of evenly-spaced points, which lets implementations amortise
+ * work shared between neighbouring points. Unless an implementation says
+ * otherwise, the bulk methods give exactly the same values as sampling each
+ * point individually.
  */
 public interface INoise {
     
@@ -15,4 +23,75 @@ public interface INoise {
      */
     float noise(double x, double y);
     
+    /**
+     * Fills {@code dest} with noise values along a row of points, such that
+     * {@code dest[i] = noise(x + i*step)} for {@code 0 <= i < width}.
+     * 
+     * @param dest The array into which to write the noise.
+     * @param x The x-coordinate of the first point.
+     * @param width The number of points.
+     * @param step The distance between adjacent points.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code dest.length < width}.
+     */
+    default void noise(float[] dest, double x, int width, double step) {
+        Arrays.fill(dest, 0, width, 0f);
+        addNoise(dest, x, width, step, 1.0, 1f);
+    }
+    
+    /**
+     * Fills {@code dest} with noise values over a grid of points, in row-major
+     * order, such that {@code dest[j*width + i] = noise(x + i*step, y +
+     * j*step)} for {@code 0 <= i < width} and {@code 0 <= j < height}.
+     * 
+     * @param dest The array into which to write the noise.
+     * @param x The x-coordinate of the first point.
+     * @param y The y-coordinate of the first point.
+     * @param width The number of points in each row.
+     * @param height The number of rows.
+     * @param step The distance between adjacent points.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code dest.length <
+     * width*height}.
+     */
+    default void noise(float[] dest, double x, double y, int width, int height,
+            double step) {
+        Arrays.fill(dest, 0, width*height, 0f);
+        addNoise(dest, x, y, width, height, step, 1.0, 1f);
+    }
+    
+    /**
+     * Adds weighted noise values along a row of points to {@code dest}, such
+     * that {@code dest[i] += weight * noise((x + i*step) * scale)} for {@code
+     * 0 <= i < width}. This is the building block for the bulk {@link
+     * #noise(float[], double, int, double) noise} methods, and exists so that
+     * {@link OctaveNoise} can accumulate its octaves one at a time.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code dest.length < width}.
+     */
+    default void addNoise(float[] dest, double x, int width, double step,
+            double scale, float weight) {
+        for(int i = 0; i < width; i++)
+            dest[i] += weight * noise((x + i*step) * scale);
+    }
+    
+    /**
+     * Adds weighted noise values over a grid of points to {@code dest}, such
+     * that {@code dest[j*width + i] += weight * noise((x + i*step) * scale,
+     * (y + j*step) * scale)} for {@code 0 <= i < width} and {@code 0 <= j <
+     * height}.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if {@code dest.length <
+     * width*height}.
+     * @see #addNoise(float[], double, int, double, double, float)
+     */
+    default void addNoise(float[] dest, double x, double y, int width,
+            int height, double step, double scale, float weight) {
+        for(int j = 0, k = 0; j < height; j++) {
+            double yy = (y + j*step) * scale;
+            for(int i = 0; i < width; i++, k++)
+                dest[k] += weight * noise((x + i*step) * scale, yy);
+        }
+    }
+    
 }
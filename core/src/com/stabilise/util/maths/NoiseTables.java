@@ -0,0 +1,78 @@
+package com.stabilise.util.maths;
+
+import java.util.Random;
+
+/**
+ * Tables and hashing shared by {@link FastPerlinNoise} and {@link
+ * FastSimplexNoise}.
+ *
+ * <p>Rather than seeding an RNG at every lattice point as {@link PerlinNoise}
+ * does, a lattice point is hashed to an integer and the hash is used to look
+ * up one of {@link #SIZE} precomputed gradients. The hash mixes the point's
+ * coordinates with the seed, and then passes the result through a
+ * permutation of the gradients which is shuffled once per seed. Unlike the
+ * classic 256-entry permutation table, the full coordinates go into the hash,
+ * so the noise doesn't repeat every 256 lattice cells.
+ */
+final class NoiseTables {
+
+    private NoiseTables() {} // non-instantiable
+
+    /** The number of gradients. Must be a power of two. */
+    static final int SIZE = 256;
+    static final int MASK = SIZE - 1;
+
+    /** The x and y components of the gradients, which are unit vectors
+     * evenly spaced about the circle. */
+    static final float[] GRAD_X = new float[SIZE], GRAD_Y = new float[SIZE];
+
+    static {
+        for(int i = 0; i < SIZE; i++) {
+            double angle = Maths.TAU * i / SIZE;
+            GRAD_X[i] = (float)Math.cos(angle);
+            GRAD_Y[i] = (float)Math.sin(angle);
+        }
+    }
+
+    /**
+     * Creates a permutation of {@code [0, SIZE)}, shuffled according to the
+     * given seed.
+     */
+    static byte[] permutation(long seed) {
+        byte[] perm = new byte[SIZE];
+        for(int i = 0; i < SIZE; i++)
+            perm[i] = (byte)i;
+        Random rnd = new Random(seed);
+        for(int i = SIZE - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            byte t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+        }
+        return perm;
+    }
+
+    /**
+     * Folds a seed into an int for use with {@link #hash(int, int, int)}.
+     */
+    static int seedHash(long seed) {
+        return (int)OctaveNoise.DEFAULT_SEED_MIXER.applyAsLong(seed);
+    }
+
+    /**
+     * Hashes a lattice point.
+     *
+     * @param seed The {@link #seedHash(long) seed hash}.
+     */
+    static int hash(int seed, int x, int y) {
+        // Multiply each coordinate by a large odd constant, then finish off
+        // with the murmur3 finaliser so that every bit affects the low bits.
+        int h = seed ^ x * 0x27D4EB2D ^ y * 0x165667B1;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.stabilise.util.maths;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.LongFunction;
@@ -11,6 +12,14 @@ import com.stabilise.util.Checks;
 
 /**
  * This class produces noise by superimposing a number of specified octaves.
+ * 
+ * <p>Octaves with a long period barely change between neighbouring points, so
+ * an octave may be {@link #addOctave(float, float, float) added} with a
+ * tolerated error, in which case the bulk {@code noise()} methods sample it
+ * on a coarse lattice and linearly interpolate between lattice points. The
+ * lattice is fixed in noise space, so the result doesn't depend on how an
+ * area is divided up between bulk calls, but it will differ slightly from
+ * sampling points individually.
  */
 public class OctaveNoise implements INoise {
     
@@ -21,8 +30,17 @@ public class OctaveNoise implements INoise {
         return z ^ (z >>> 33);
     };
     
+    /** Measured upper bounds on the second derivative of each type of noise
+     * with a period of 1. */
+    private static final float CURVATURE_SIMPLEX = 40f;
+    private static final float CURVATURE_PERLIN = 14f;
+    
     private final List<Octave> octaves = new ArrayList<>();
     private float invTotalWeight = 1f;
+    /** The curvature of noise from {@link #noiseGen}, used to pick the
+     * lattice spacing for coarsely-sampled octaves. That of simplex noise is
+     * the largest of the noise we have, so it's the default. */
+    private float curvature = CURVATURE_SIMPLEX;
     
     private final LongFunction<INoise> noiseGen;
     private long seed;
@@ -84,15 +102,60 @@ public class OctaveNoise implements INoise {
      * the constructor) produced a null value.
      */
     public OctaveNoise addOctave(float period, float weight) {
+        return addOctave(period, weight, 0f);
+    }
+    
+    /**
+     * Adds an octave which may be sampled on a coarse lattice by the bulk
+     * {@code noise()} methods. The lattice is as coarse as it can be without
+     * the interpolated noise straying further than {@code maxError} from the
+     * true noise of this octave, which ranges from 0 to 1 (the error in the
+     * final noise is thus scaled by the octave's share of the total weight).
+     * The lattice spacing is a power of two, and an octave is only sampled
+     * coarsely if there would be at least two points between lattice points.
+     * 
+     * @param period The period, or "scale" of the noise.
+     * @param weight The weight of this octave. Octaves with greater weight
+     * will contribute more to the final noise.
+     * @param maxError The greatest tolerated error from coarse sampling. 0
+     * means the octave is always sampled exactly.
+     * 
+     * @return This {@code OctaveNoise}, for chaining operations.
+     * @throws IllegalArgumentException if {@code period <= 0 || weight <= 0
+     * || maxError < 0}.
+     * @throws NullPointerException if {@code noiseGen} (which was specified in
+     * the constructor) produced a null value.
+     */
+    public OctaveNoise addOctave(float period, float weight, float maxError) {
+        Checks.testMinExcl(period, 0f);
+        Checks.testMin(maxError, 0f);
         octaves.add(new Octave(
                 Objects.requireNonNull(noiseGen.apply(seed)),
-                1/Checks.testMinExcl(period, 0f),
-                Checks.testMinExcl(weight, 0f)
+                1/period,
+                Checks.testMinExcl(weight, 0f),
+                latticeSpacing(period, maxError)
         ));
         seed = seedMixer.applyAsLong(seed);
         return this;
     }
     
+    /**
+     * Gets the spacing of the lattice on which to sample an octave, or 0 if
+     * it should be sampled exactly.
+     */
+    private double latticeSpacing(float period, float maxError) {
+        if(maxError == 0f)
+            return 0;
+        // Linearly interpolating a function whose second derivative is at
+        // most c between points a distance h apart gives an error of at most
+        // c*h^2/8. Past a quarter of a period we can't trust the curvature
+        // bound to hold, so go no further than that.
+        double h = Math.min(Math.sqrt(8 * maxError / curvature), 0.25) * period;
+        if(h < 2)
+            return 0;
+        return Math.scalb(1.0, Maths.floor(Math.log(h) / Math.log(2)));
+    }
+    
     /**
      * {@inheritDoc}
      * 
@@ -123,6 +186,49 @@ public class OctaveNoise implements INoise {
         return noise * invTotalWeight;
     }
     
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The octaves are evaluated one at a time over the whole row, so each
+     * octave's noise generator gets to amortise its work between adjacent
+     * points. Octaves added with a tolerated error may be sampled coarsely.
+     */
+    @Override
+    public void noise(float[] dest, double x, int width, double step) {
+        Arrays.fill(dest, 0, width, 0f);
+        for(int i = 0; i < octaves.size(); i++)
+            octaves.get(i).addNoise(dest, x, width, step);
+        normalise(dest, width);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The octaves are evaluated one at a time over the whole grid, so each
+     * octave's noise generator gets to amortise its work between adjacent
+     * points. Octaves added with a tolerated error may be sampled coarsely.
+     */
+    @Override
+    public void noise(float[] dest, double x, double y, int width, int height,
+            double step) {
+        int len = width*height;
+        Arrays.fill(dest, 0, len, 0f);
+        for(int i = 0; i < octaves.size(); i++)
+            octaves.get(i).addNoise(dest, x, y, width, height, step);
+        normalise(dest, len);
+    }
+    
+    /**
+     * Rescales the first {@code len} values of {@code dest} by {@link
+     * #invTotalWeight}.
+     */
+    private void normalise(float[] dest, int len) {
+        // Multiplying by 1 changes nothing, so don't bother
+        if(invTotalWeight != 1f)
+            for(int i = 0; i < len; i++)
+                dest[i] *= invTotalWeight;
+    }
+    
     /**
      * Gets noise from only a single octave. Octaves are labelled from 0 to
      * numOctaves-1. 
@@ -150,21 +256,23 @@ public class OctaveNoise implements INoise {
     //--------------------==========--------------------
     
     /**
-     * Creates Perlin octave noise.
+     * Creates Perlin octave noise, using {@link FastPerlinNoise}.
      * 
      * @param seed The seed for this noise.
      */
     public static OctaveNoise perlin(long seed) {
-        return new OctaveNoise(seed, s -> new PerlinNoise(s));
+        OctaveNoise noise = new OctaveNoise(seed, s -> new FastPerlinNoise(s));
+        noise.curvature = CURVATURE_PERLIN;
+        return noise;
     }
     
     /**
-     * Creates Simplex octave noise.
+     * Creates Simplex octave noise, using {@link FastSimplexNoise}.
      * 
      * @param seed The seed for this noise.
      */
     public static OctaveNoise simplex(long seed) {
-        return new OctaveNoise(seed, s -> new SimplexNoise(s));
+        return new OctaveNoise(seed, s -> new FastSimplexNoise(s));
     }
     
     //--------------------==========--------------------
@@ -175,10 +283,14 @@ public class OctaveNoise implements INoise {
         private final INoise noise;
         private final double freq;
         private final float weight;
-        private Octave(INoise noise, double freq, float weight) {
+        /** The spacing of the lattice on which to sample this octave in
+         * bulk, or 0 if it is to be sampled exactly. */
+        private final double spacing;
+        private Octave(INoise noise, double freq, float weight, double spacing) {
             this.noise = noise;
             this.freq = freq;
             this.weight = weight;
+            this.spacing = spacing;
         }
         @Override public float noise(double x) {
             return weight * noise.noise(x*freq);
@@ -186,6 +298,75 @@ public class OctaveNoise implements INoise {
         @Override public float noise(double x, double y) {
             return weight * noise.noise(x*freq, y*freq);
         }
+        
+        /**
+         * Adds this octave's noise along a row of points to dest.
+         */
+        private void addNoise(float[] dest, double x, int width, double step) {
+            if(!(step > 0) || spacing < 2*step) {
+                noise.addNoise(dest, x, width, step, freq, weight);
+                return;
+            }
+            
+            // Sample the lattice points either side of the row...
+            int k0 = Maths.floor(x / spacing);
+            int n = Maths.floor((x + (width-1)*step) / spacing) - k0 + 2;
+            float[] lattice = new float[n];
+            noise.addNoise(lattice, k0*spacing, n, spacing, freq, 1f);
+            
+            // ...and interpolate between them. The spacing is a power of two,
+            // so dividing by it is exact.
+            for(int i = 0; i < width; i++) {
+                double px = (x + i*step) / spacing;
+                int k = Maths.floor(px);
+                dest[i] += weight * Interpolation.LINEAR.apply(
+                        lattice[k-k0], lattice[k-k0+1], (float)(px - k));
+            }
+        }
+        
+        /**
+         * Adds this octave's noise over a grid of points to dest.
+         */
+        private void addNoise(float[] dest, double x, double y, int width,
+                int height, double step) {
+            if(!(step > 0) || spacing < 2*step) {
+                noise.addNoise(dest, x, y, width, height, step, freq, weight);
+                return;
+            }
+            
+            int kx0 = Maths.floor(x / spacing);
+            int ky0 = Maths.floor(y / spacing);
+            int cols = Maths.floor((x + (width-1)*step) / spacing) - kx0 + 2;
+            int rows = Maths.floor((y + (height-1)*step) / spacing) - ky0 + 2;
+            float[] lattice = new float[cols*rows];
+            noise.addNoise(lattice, kx0*spacing, ky0*spacing, cols, rows,
+                    spacing, freq, 1f);
+            
+            // Each column falls in the same lattice cell in every row
+            int[] cellX = new int[width];
+            float[] cellDX = new float[width];
+            for(int i = 0; i < width; i++) {
+                double px = (x + i*step) / spacing;
+                int k = Maths.floor(px);
+                cellX[i] = k - kx0;
+                cellDX[i] = (float)(px - k);
+            }
+            
+            for(int j = 0, k = 0; j < height; j++) {
+                double py = (y + j*step) / spacing;
+                int ky = Maths.floor(py);
+                float dy = (float)(py - ky);
+                int row0 = (ky - ky0) * cols;
+                int row1 = row0 + cols;
+                for(int i = 0; i < width; i++, k++) {
+                    int c = cellX[i];
+                    dest[k] += weight * Maths.biInterp(
+                            lattice[row0+c], lattice[row1+c],
+                            lattice[row0+c+1], lattice[row1+c+1],
+                            cellDX[i], dy, Interpolation.LINEAR);
+                }
+            }
+        }
     }
     
 }
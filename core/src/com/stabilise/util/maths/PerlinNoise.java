@@ -9,6 +9,9 @@ import com.badlogic.gdx.math.Vector2;
 
 /**
  * A utility class which generates Perlin noise.
+ * 
+ * <p>This generates each gradient afresh from a seeded RNG, which is slow;
+ * {@link FastPerlinNoise} should generally be preferred.
  */
 @NotThreadSafe
 public class PerlinNoise implements INoise {
@@ -17,6 +17,9 @@ import com.badlogic.gdx.math.Vector2;
  * Based on example code by Stefan Gustavson (stegu@itn.liu.se).<br>
  * Optimisations by Peter Eastman (peastman@drizzle.stanford.edu).<br>
  * Better rank ordering method by Stefan Gustavson in 2012.<br>
+ * 
+ * <p>This generates each gradient afresh from a seeded RNG, which is slow;
+ * {@link FastSimplexNoise} should generally be preferred.
  */
 @NotThreadSafe
 public class SimplexNoise implements INoise {
@@ -68,6 +68,8 @@ public class HostWorld extends AbstractWorld {
                     dimension.info.name + ") (" + e.getMessage() + ")" , e);
         }
     	
+    	regions.loader.openJournal();
+    	regions.loader.convertLegacyRegions();
     	dimension.addLoaders(regions.loader, multiverse.info);
     	dimension.addGenerators(regions.generator);
     	
@@ -130,10 +132,6 @@ public class HostWorld extends AbstractWorld {
         profiler.start("regions"); // root.update.game.world.regions
         regions.update();
         
-        // Uncache any regions which may have been cached during this tick.
-        // TODO: Once a tick might be too often, since this can be expensive.
-        regions.uncacheAll();
-        
         profiler.end(); // root.update.game.world
     }
     
@@ -185,6 +183,32 @@ public class HostWorld extends AbstractWorld {
         );
     }
     
+    @Override
+    public boolean prefetchSlice(int x, int y) {
+        return regions.prefetchRegion(
+                regionCoordFromSliceCoord(x),
+                regionCoordFromSliceCoord(y)
+        );
+    }
+    
+    @Override
+    public void cancelPrefetchSlice(int x, int y) {
+        regions.cancelPrefetch(
+                regionCoordFromSliceCoord(x),
+                regionCoordFromSliceCoord(y)
+        );
+    }
+    
+    @Override
+    public void setAnchorCentre(Object anchorer, int x, int y) {
+        regions.scheduler.setAnchor(anchorer, x, y);
+    }
+    
+    @Override
+    public void removeAnchorCentre(Object anchorer) {
+        regions.scheduler.removeAnchor(anchorer);
+    }
+    
     @Override
     public Slice getSliceAt(int x, int y) {
         return getRegionFromSliceCoords(x, y).getSliceAt(
@@ -193,6 +217,17 @@ public class HostWorld extends AbstractWorld {
         );
     }
     
+    @Override
+    public Tile getTileAt(Position pos) {
+        return Tile.getTile(getTileIDAt(pos));
+    }
+    
+    @Override
+    public int getTileIDAt(Position pos) {
+        // Go through the region directly; this saves us a slice lookup
+        return getRegionAt(pos.rx(), pos.ry()).getTileID(pos.rtx(), pos.rty());
+    }
+    
     /*
     @Override
     public Slice getSliceAtTile(int x, int y) {
@@ -355,9 +390,6 @@ public class HostWorld extends AbstractWorld {
     private void save(boolean unload) {
         log.postInfo("Saving dimension...");
         
-        if(unload) // just in case
-            regions.uncacheAll();
-        
         regions.saveAll();
         
         multiverse.getExecutor().execute(() -> {
@@ -380,6 +412,7 @@ public class HostWorld extends AbstractWorld {
     @Override
     public void blockUntilClosed() {
         regions.waitUntilDone();
+        regions.loader.close();
         
         log.postDebug(stats.toString());
     }
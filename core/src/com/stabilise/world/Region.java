@@ -2,6 +2,8 @@ package com.stabilise.world;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Consumer;
 import java.util.function.IntBinaryOperator;
 
@@ -10,11 +12,13 @@ import com.stabilise.entity.Position;
 import com.stabilise.util.annotation.ThreadSafeMethod;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.collect.LongMap;
 import com.stabilise.util.concurrent.ClearingQueue;
 import com.stabilise.util.maths.Maths;
 import com.stabilise.util.maths.Point;
 import com.stabilise.util.maths.PointFactory;
 import com.stabilise.world.gen.action.Action;
+import com.stabilise.world.tile.Tile;
 
 /**
  * This class represents a region of the world, which contains 16x16 slices,
@@ -38,6 +42,8 @@ public class Region {
     public static final int REGION_SIZE_MINUS_ONE = REGION_SIZE - 1;
     /** The power of 2 of {@link REGION_SIZE}; minor optimisation purposes. */
     public static final int REGION_SIZE_SHIFT = Maths.log2(REGION_SIZE);
+    /** The number of slices in a region. */
+    public static final int SLICES_PER_REGION = REGION_SIZE * REGION_SIZE;
     /** The length of an edge of the square of tiles in a region. */
     public static final int REGION_SIZE_IN_TILES = Slice.SLICE_SIZE * REGION_SIZE;
     /** {@link REGION_SIZE_IN_TILES} - 1; minor optimisation purposes. */
@@ -69,14 +75,16 @@ public class Region {
     //--------------------==========--------------------
     
     /** The slices contained by this region.
-     * <i>Note slices are indexed in the form <b>[y][x]</b>; {@link
-     * #getSliceAt(int, int)} provides such an accessor.</i> */
-    public final Slice[][] slices = new Slice[REGION_SIZE][REGION_SIZE];
+     * <i>Note slices are indexed in the form <b>y * REGION_SIZE + x</b>;
+     * {@link #getSliceAt(int, int)} provides such an accessor.</i> */
+    public final Slice[] slices = new Slice[SLICES_PER_REGION];
     
     /** The region's location, whose components are in region-lengths. This
      * should be used as this region's key in any map implementation. This
      * object is always created by {@link #createImmutableLoc(int, int)}. */
     public final Point loc;
+    /** This region's key in a {@link LongMap}; see {@link #key(int, int)}. */
+    public final long key;
     
     /** The coordinate offsets on the x and y-axes due to the coordinates of
      * the region, in slice-lengths. */
@@ -86,6 +94,15 @@ public class Region {
     public final RegionState state = new RegionState();
     
     
+    /** One bit per slice, indexed as per {@link #slices}, which is set if
+     * that slice has been modified since this region was last saved. */
+    private final AtomicLongArray dirtySlices =
+            new AtomicLongArray((SLICES_PER_REGION + 63) / 64);
+    /** Whether this region's own data (i.e., anything saved other than its
+     * slices, such as queued actions and structures) has been modified since
+     * this region was last saved. */
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    
     /** Actions to perform when added to the world. */
     public List<Action> queuedActions = null;
     /** The slices to send to clients once the region has finished generating. */
@@ -104,12 +121,28 @@ public class Region {
      * @param y The region's y-coordinate, in region-lengths.
      */
     Region(int x, int y) {
+        this(x, y, null);
+        initSlices();
+    }
+    
+    /**
+     * Creates a region which holds the given slices. This is used to hold the
+     * slices of a {@link WorldSnapshot} for saving.
+     * 
+     * @param x The region's x-coordinate, in region-lengths.
+     * @param y The region's y-coordinate, in region-lengths.
+     * @param slices The slices, indexed as per {@link #slices}. These are
+     * copied into {@link #slices}; if {@code null}, they are left unset.
+     */
+    Region(int x, int y, Slice[] slices) {
         loc = createImmutableLoc(x, y);
+        key = key(x, y);
         
         offsetX = x * REGION_SIZE;
         offsetY = y * REGION_SIZE;
         
-        initSlices();
+        if(slices != null)
+            System.arraycopy(slices, 0, this.slices, 0, SLICES_PER_REGION);
     }
     
     /**
@@ -118,9 +151,12 @@ public class Region {
     public void initSlices() {
         for(int y = 0; y < REGION_SIZE; y++) {
             for(int x = 0; x < REGION_SIZE; x++) {
-                slices[y][x] = new Slice(x + offsetX, y + offsetY);
+                Slice s = new Slice(x + offsetX, y + offsetY);
+                s.setOwner(this);
+                slices[sliceIndex(x, y)] = s;
             }
         }
+        markAllDirty();
     }
     
     /**
@@ -161,18 +197,192 @@ public class Region {
      * are less than 0 or greater than 15.
      */
     public Slice getSliceAt(int x, int y) {
-        return slices[y][x];
+        return slices[sliceIndex(x, y)];
+    }
+    
+    /**
+     * Sets the slice at the specified coordinates.
+     * 
+     * @param x The x-coordinate of the slice relative to the region, in slice
+     * lengths.
+     * @param y The y-coordinate of the slice relative to the region, in slice
+     * lengths.
+     * @param slice The slice.
+     * 
+     * @throws NullPointerException if {@code slice} is {@code null}.
+     * @throws ArrayIndexOutOfBoundsException if either {@code x} or {@code y}
+     * are less than 0 or greater than 15.
+     */
+    public void setSliceAt(int x, int y, Slice slice) {
+        slice.setOwner(this);
+        slices[sliceIndex(x, y)] = slice;
+    }
+    
+    /**
+     * Gets the ID of the tile at the specified coordinates. This is
+     * equivalent to, but cheaper than, {@code getSliceAt(tx / SLICE_SIZE, ty
+     * / SLICE_SIZE).getTileIDAt(tx % SLICE_SIZE, ty % SLICE_SIZE)}.
+     * 
+     * @param tx The x-coordinate of the tile relative to the region, in
+     * tile-lengths.
+     * @param ty The y-coordinate of the tile relative to the region, in
+     * tile-lengths.
+     * 
+     * @return The ID of the tile. The result is undefined if either {@code
+     * tx} or {@code ty} are less than 0 or greater than 255.
+     */
+    public int getTileID(int tx, int ty) {
+        return slices[sliceIndexFromTile(tx, ty)].tiles.get(tileIndex(tx, ty));
+    }
+    
+    /**
+     * Gets the tile at the specified coordinates.
+     * 
+     * @see #getTileID(int, int)
+     */
+    public Tile getTileAt(int tx, int ty) {
+        return Tile.getTile(getTileID(tx, ty));
+    }
+    
+    /**
+     * Gets the ID of the wall at the specified coordinates.
+     * 
+     * @see #getTileID(int, int)
+     */
+    public int getWallID(int tx, int ty) {
+        return slices[sliceIndexFromTile(tx, ty)].walls.get(tileIndex(tx, ty));
+    }
+    
+    /**
+     * Gets the light level at the specified coordinates.
+     * 
+     * @see #getTileID(int, int)
+     */
+    public byte getLight(int tx, int ty) {
+        return slices[sliceIndexFromTile(tx, ty)].light[tileIndex(tx, ty)];
+    }
+    
+    /**
+     * Flags the slice at the specified coordinates as modified, such that it
+     * will be rewritten the next time this region is saved. A slice held by
+     * this region invokes this itself whenever it is modified.
+     * 
+     * @param x The x-coordinate of the slice relative to the region, in slice
+     * lengths.
+     * @param y The y-coordinate of the slice relative to the region, in slice
+     * lengths.
+     */
+    @ThreadSafeMethod
+    public void markSliceDirty(int x, int y) {
+        int i = sliceIndex(x, y);
+        long bit = 1L << i;
+        // Most writes hit a slice which is already dirty, so check first
+        // rather than contend on the word every time
+        if((dirtySlices.get(i >>> 6) & bit) == 0)
+            dirtySlices.accumulateAndGet(i >>> 6, bit, (a, b) -> a | b);
+    }
+    
+    /**
+     * Clears the modified flag of the slice at the specified coordinates.
+     * 
+     * @return {@code true} if the slice was flagged as modified.
+     * @see #markSliceDirty(int, int)
+     */
+    @ThreadSafeMethod
+    public boolean takeSliceDirty(int x, int y) {
+        int i = sliceIndex(x, y);
+        long bit = 1L << i;
+        return (dirtySlices.getAndAccumulate(i >>> 6, ~bit, (a, b) -> a & b) & bit) != 0;
+    }
+    
+    /**
+     * Flags this region's own data (i.e., anything other than its slices) as
+     * modified.
+     */
+    @ThreadSafeMethod
+    public void markDirty() {
+        dirty.set(true);
     }
     
+    /**
+     * Clears the modified flag of this region's own data.
+     * 
+     * @return {@code true} if the data was flagged as modified.
+     * @see #markDirty()
+     */
+    @ThreadSafeMethod
+    public boolean takeDirty() {
+        return dirty.getAndSet(false);
+    }
+    
+    /**
+     * Flags this region and all of its slices as modified.
+     */
+    @ThreadSafeMethod
+    public void markAllDirty() {
+        for(int i = 0; i < dirtySlices.length(); i++)
+            dirtySlices.set(i, -1L);
+        dirty.set(true);
+    }
+    
+    /**
+     * Clears the modified flags of this region and all of its slices. This
+     * should be invoked once this region has been loaded.
+     */
+    @ThreadSafeMethod
+    public void markClean() {
+        for(int i = 0; i < dirtySlices.length(); i++)
+            dirtySlices.set(i, 0L);
+        dirty.set(false);
+    }
+    
+    /**
+     * Returns {@code true} if this region needs to be saved, i.e. if it or
+     * any of its slices have been modified since it was last saved.
+     * 
+     * <p>Note that slices holding tile entities count as modified, since a
+     * tile entity's state may change without going through the world.
+     */
+    @ThreadSafeMethod
+    public boolean isDirty() {
+        if(dirty.get())
+            return true;
+        for(int i = 0; i < dirtySlices.length(); i++)
+            if(dirtySlices.get(i) != 0)
+                return true;
+        for(Slice s : slices)
+            if(s.tileEntities != null)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns a rough estimate of the number of bytes of memory taken up by
+     * this region's slices. This doesn't account for tile entities or any
+     * structures and actions queued in this region.
+     */
+    @UserThread("Any")
+    public long estimateSize() {
+        long size = 0;
+        for(Slice s : slices) {
+            size += 64 // object headers and fields
+                    + 8L * s.tiles.getPackedData().length + 4L * s.tiles.paletteSize()
+                    + 8L * s.walls.getPackedData().length + 4L * s.walls.paletteSize()
+                    + s.light.length;
+            if(s.tileEntities != null)
+                size += 4L * s.tileEntities.length;
+        }
+        return size;
+    }
+
     /**
      * Performs the specified task on every slice in this region.
      * 
      * @throws NullPointerException if {@code task} is {@code null}.
      */
     public void forEachSlice(Consumer<Slice> task) {
-        for(int y = 0; y < REGION_SIZE; y++)
-            for(int x = 0; x < REGION_SIZE; x++)
-                task.accept(slices[y][x]);
+        for(Slice s : slices)
+            task.accept(s);
     }
     
     /**
@@ -183,6 +393,7 @@ public class Region {
     @ThreadSafeMethod
     public void addStructure(QueuedStructure struct) {
         structures.add(Objects.requireNonNull(struct));
+        markDirty();
     }
     
     private void doAddStructure(QueuedStructure s, RegionStore regionStore) {
@@ -211,8 +422,11 @@ public class Region {
      */
     @ThreadUnsafeMethod
     public void implantStructures(RegionStore cache) {
+        if(!hasQueuedStructures())
+            return;
         for(QueuedStructure s : structures) // clears the queue since ClearingQueue
             doAddStructure(s, cache);
+        markDirty();
     }
     
     /**
@@ -235,6 +449,7 @@ public class Region {
             for(Action a : queuedActions)
                 a.apply(world, this);
             queuedActions = null;
+            markDirty();
         }
         
         // Stitch this region to all adjacent loaded regions
@@ -306,7 +521,9 @@ public class Region {
     /**
      * @param world This region's parent world.
      * 
-     * @return This region's file.
+     * @return This region's file in the legacy (version 1) world format. As
+     * of version 2, regions are stored in {@link
+     * com.stabilise.world.loader.RegionFile region files}.
      */
     public FileHandle getFile(HostWorld world) {
         return world.getWorldDir().child("r_" + x() + "_" + y() + ".region");
@@ -365,6 +582,31 @@ public class Region {
     //------------=====Static Functions=====------------
     //--------------------==========--------------------
     
+    /**
+     * Gets the index of the slice at the specified coordinates, in
+     * slice-lengths relative to a region, in {@link #slices}.
+     */
+    private static int sliceIndex(int x, int y) {
+        return (y << REGION_SIZE_SHIFT) | x;
+    }
+    
+    /**
+     * Gets the index in {@link #slices} of the slice containing the tile at
+     * the specified coordinates, in tile-lengths relative to a region.
+     */
+    private static int sliceIndexFromTile(int tx, int ty) {
+        return ((ty >> Slice.SLICE_SIZE_SHIFT) << REGION_SIZE_SHIFT)
+                | (tx >> Slice.SLICE_SIZE_SHIFT);
+    }
+    
+    /**
+     * Gets the index of the tile at the specified coordinates, in tile-lengths
+     * relative to a region, in its slice's arrays.
+     */
+    private static int tileIndex(int tx, int ty) {
+        return Slice.index(tx & Slice.SLICE_SIZE_MINUS_ONE, ty & Slice.SLICE_SIZE_MINUS_ONE);
+    }
+    
     /**
      * Creates a {@code Point} object equivalent to a region with identical
      * coordinates' {@link #loc} member.
@@ -374,14 +616,12 @@ public class Region {
     }
     
     /**
-     * Creates a mutable variant of a point returned by {@link
-     * #createImmutableLoc(int, int)}. This method should not be invoked
-     * carelessly as the sole purpose of creating mutable points should be to
-     * avoid needless object creation in scenarios where thread safety is
-     * guaranteed.
+     * Gets the key of the region at the given coordinates, in region-lengths,
+     * for use in a {@link LongMap}. This is equal to that region's {@link
+     * #key} member.
      */
-    public static Point createMutableLoc() {
-        return LOC_FACTORY.newMutablePoint();
+    public static long key(int x, int y) {
+        return LongMap.key(x, y);
     }
     
     //--------------------==========--------------------
@@ -446,6 +686,21 @@ public class Region {
             return Slice.DUMMY_SLICE;
         }
         
+        @Override
+        public int getTileID(int tx, int ty) {
+            return Slice.DUMMY_SLICE.getTileIDAt(0, 0);
+        }
+        
+        @Override
+        public int getWallID(int tx, int ty) {
+            return Slice.DUMMY_SLICE.getWallIDAt(0, 0);
+        }
+        
+        @Override
+        public byte getLight(int tx, int ty) {
+            return Slice.DUMMY_SLICE.getLightAt(0, 0);
+        }
+        
         @Override
         public boolean isDummy() {
             return true;
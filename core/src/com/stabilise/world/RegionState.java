@@ -2,7 +2,6 @@ package com.stabilise.world;
 
 import static com.stabilise.core.Constants.REGION_UNLOAD_TICK_BUFFER;
 
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -49,21 +48,17 @@ public class RegionState {
      * <p>A region (and its neighbours) can only be anchored on the main
      * thread, so we don't need to be careful with synchronisation. */
     private int anchoredNeighbours = 0;
-    /** Number of adjacent regions which are 'prepared'. A region is considered
-     * active if it is anchored and prepared, and all its neighbours are
-     * prepared. */
-    private AtomicInteger preparedNeighbours = new AtomicInteger();
+    /** Number of adjacent regions which are 'prepared' (i.e., in primary
+     * storage). A region is considered active if it is anchored and prepared,
+     * and all its neighbours are prepared.
+     * 
+     * <p>Regions are only ever moved in and out of primary storage on the
+     * main thread, so we don't need to be careful with synchronisation. */
+    private int preparedNeighbours = 0;
     /** true if all this region's neighbours are prepared. A region is
      * considered active if it is anchored and prepared, and all its neighbours
-     * are prepared.
-     * 
-     * <p>This value is cached as to avoid reading from an AtomicInteger on a
-     * per-tick basis. Since this is not volatile, the correct value is updated
-     * in the main thread by establishing a happens-before using the
-     * ConcurrentMap in RegionStore. (TODO: not actually airtight -- will 
-     * backfire on me when I use this to assume all neighbouring regions are
-     * definitely present in the region store. Ah well, I'll deal with it when
-     * I get the first NPE.) */
+     * are prepared. Like {@link #preparedNeighbours}, this is only touched on
+     * the main thread. */
     private boolean allNeighboursPrepared = false;
     
     /** Whether a region's contents have been imported into the world.
@@ -71,6 +66,12 @@ public class RegionState {
      * world. */
     private boolean imported = false;
     
+    /** true if the region is being prepared (or has been prepared) only
+     * because an anchorer is expected to move towards it, and hasn't been
+     * anchored since. This is set and cleared by the RegionStore on the main
+     * thread, but read by the RegionTaskScheduler on worker threads. */
+    private volatile boolean prefetched = false;
+    
     /** The number of ticks until the region should be unloaded.  */
     private int ticksToUnload = REGION_UNLOAD_TICK_BUFFER;
     
@@ -157,13 +158,33 @@ public class RegionState {
         return anchoredNeighbours > 0;
     }
     
+    /**
+     * Returns {@code true} if the region has been prefetched and not since
+     * anchored.
+     * 
+     * @see RegionStore#prefetchRegion(int, int)
+     */
+    @UserThread("Any")
+    public boolean isPrefetched() {
+        return prefetched;
+    }
+    
+    /**
+     * Sets whether the region is prefetched. Called by RegionStore.
+     */
+    @UserThread("MainThread")
+    void setPrefetched(boolean prefetched) {
+        this.prefetched = prefetched;
+    }
+    
     /**
      * Informs the region that is has a prepared neighbour. This is called by
      * RegionStore.
      */
-    @UserThread("Any")
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
     public void addPreparedNeighbour() {
-        if(preparedNeighbours.incrementAndGet() == 8) // 8 neighbours; don't count self
+        if(++preparedNeighbours == 8) // 8 neighbours; don't count self
             allNeighboursPrepared = true;
     }
     
@@ -171,9 +192,10 @@ public class RegionState {
      * Informs the region that one of its neighbours has been removed from the
      * world. This is called by RegionStore.
      */
-    @UserThread("Any")
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
     public void removePreparedNeighbour() {
-        preparedNeighbours.getAndDecrement();
+        preparedNeighbours--;
         allNeighboursPrepared = false;
     }
     
@@ -283,6 +305,20 @@ public class RegionState {
         throw Checks.badAssert();
     }
     
+    /**
+     * Folds any save requested while the region was waiting to be saved into
+     * the current save. This should be invoked by the saver right before it
+     * begins writing the region, since whatever it writes will be at least as
+     * recent as what any such request was made for.
+     */
+    @UserThread("WorkerThread")
+    public synchronized void coalesceQueuedSaves() {
+        // ^^^^^^^^^^^^ Synchronised; also establishes a happens-before with
+        // whoever requested the save.
+        if(saveState == SaveState.SAVE_QUEUED)
+            saveState = SaveState.SAVING;
+    }
+
     /**
      * This is called when a save operation is completed.
      *
@@ -311,7 +347,13 @@ public class RegionState {
      * @return true if the region should be unloaded
      */
     public boolean tickDown() {
-        return --ticksToUnload == 0;
+        if(--ticksToUnload == 0) {
+            // Reset the countdown in case the region is brought back from the
+            // RegionStore's cache of unloaded regions.
+            ticksToUnload = REGION_UNLOAD_TICK_BUFFER;
+            return true;
+        }
+        return false;
     }
     
     /**
@@ -1,9 +1,12 @@
 package com.stabilise.world;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -13,13 +16,16 @@ import java.util.function.IntBinaryOperator;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import com.stabilise.core.Constants;
 import com.stabilise.util.Checks;
 import com.stabilise.util.Log;
+import com.stabilise.util.annotation.ThreadSafeMethod;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.collect.ConcurrentLongMap;
+import com.stabilise.util.concurrent.ClearingQueue;
 import com.stabilise.util.concurrent.Striper;
 import com.stabilise.util.maths.Maths;
-import com.stabilise.util.maths.Point;
 import com.stabilise.world.gen.WorldGenerator;
 import com.stabilise.world.loader.WorldLoader;
 
@@ -51,6 +57,15 @@ import com.stabilise.world.loader.WorldLoader;
  * finished loading and generating. When a region is unloaded, it is moved
  * from primary storage to the cache, saved, and then removed from the cache.
  * 
+ * <p>Primary storage is only ever modified on the main thread. A worker
+ * thread which finishes preparing a region hands it off through a lock-free
+ * queue, which the main thread drains at the start of every {@link #update()
+ * update tick}. Until then, the region stays in the cache, so it can be found
+ * by anyone who asks for it in the meantime. Since the main thread is the only
+ * one to add regions to or remove regions from primary storage, it also does
+ * all the bookkeeping of which of a region's neighbours are prepared, without
+ * needing any locks.
+ * 
  * <h3>Cache Storage</h3>
  * 
  * <p>Cache storage is a secondary storage which holds regions which are loaded
@@ -65,18 +80,25 @@ import com.stabilise.world.loader.WorldLoader;
  * being saved as part of the unload process.
  * 
  * <p>Regions may also be manually cached. To cache a region (or retrieve a
- * cached region), one uses {@link #cache(int, int)}. This class does track how
- * many times {@link #cache(int, int)} is invoked for a particular region, so
- * different parts of the code may invoke it as many times as they so please.
- * There is as such no associated {@code uncache()} method for a single region.
- * Instead, this class tracks cached regions on a per-thread basis. Therefore,
- * a thread <em>must</em> invoke {@link #uncacheAll()} when it is done with all
- * the regions it has cached. Failing to do so will leave them perpetually in
- * the cache.
+ * cached region), one uses {@link #cache(int, int)}, which returns a {@link
+ * Lease} on the region. The region stays cached until every lease on it has
+ * been {@link Lease#release() released}, so different parts of the code may
+ * cache the same region as many times as they so please. A lease which is
+ * never released leaves its region perpetually in the cache. When run with
+ * the system property {@code stabilise.trackLeases} set to {@code true},
+ * such leaked leases are reported (and released) once they are garbage
+ * collected.
  * 
  * <p>Cache storage is thread-safe, and interacts with primary storage in a
  * consistent thread-safe manner.
  * 
+ * <h3>Unloaded Regions</h3>
+ * 
+ * <p>Once a region has been unloaded and saved, it is held in a memory-bounded
+ * cache of recently unloaded regions for a while (see {@link
+ * UnloadedRegionCache}). If the region is needed again before it is evicted,
+ * it is taken from there rather than being loaded from disk.
+ * 
  * <h3>Save Policy</h3>
  * 
  * As part of their natural lifecycle, regions are saved immediately after
@@ -87,7 +109,8 @@ import com.stabilise.world.loader.WorldLoader;
  * <p>A region can also be manually saved (rather, currently, all regions in
  * primary storage may be saved via {@link #saveAll()}) - however, the onus
  * lies on the caller to ensure that concurrency issues won't arise (e.g., by
- * saving only while the game is paused).
+ * saving only while the game is paused). A {@link WorldSnapshot} may instead
+ * be taken to save a consistent copy of the world while it keeps running.
  * 
  * <h3>Region Lifecycle</h3>
  * 
@@ -95,7 +118,8 @@ import com.stabilise.world.loader.WorldLoader;
  * 
  * <pre>
  * (On anchor): PUT IN CACHE -> LOAD -> GENERATE -> SAVE -> MOVE TO PRIMARY
- * (On unload): MOVE TO CACHE -> SAVE -> REMOVE FROM CACHE
+ * (On unload): MOVE TO CACHE -> SAVE -> REMOVE FROM CACHE -> UNLOADED CACHE
+ * (On anchor, if recently unloaded): MOVE TO PRIMARY
  * (Cached region): PUT IN CACHE -> (LOAD IF NECESSARY) -> UNCACHE
  * </pre>
  * 
@@ -118,31 +142,46 @@ public class RegionStore {
     /** Reference to the world. */
     private final HostWorld world;
     
+    /** Schedules region loads and generation, nearest to an anchor
+     * first. */
+    public final RegionTaskScheduler scheduler;
     public final WorldLoader loader;
     public final WorldGenerator generator;
     
     
-    /** Primary storage. Contains all prepared regions. Maps region.loc ->
+    /** Primary storage. Contains all prepared regions. Maps region.key ->
      * region. */
-    private final ConcurrentMap<Point, Region> regions =
-            new ConcurrentHashMap<>();
+    private final ConcurrentLongMap<Region> regions =
+            new ConcurrentLongMap<>();
+    
+    /** The map of cached regions. Maps region.key -> region. */
+    private final ConcurrentLongMap<CachedRegion> cache =
+            new ConcurrentLongMap<>();
     
-    /** The map of cached regions. Maps region.loc -> region. */
-    private final ConcurrentMap<Point, CachedRegion> cache =
-            new ConcurrentHashMap<>();
+    /** Regions which have been prepared for primary storage by other
+     * threads, and are waiting for the main thread to put them there. Every
+     * region in here is still in the cache, flagged as {@link
+     * CachedRegion#handedOff handed off}. */
+    private final ClearingQueue<Region> preparedRegions = ClearingQueue.create();
     
-    /** Regions which have been cached by the current thread. */
-    private final ThreadLocal<Map<Point, Region>> localCachedRegions =
-            ThreadLocal.withInitial(HashMap::new);
+    /** Regions which have recently been unloaded. Every region in here has
+     * been saved, and is in neither primary storage nor the cache. */
+    private final UnloadedRegionCache unloadedRegions;
     
-    /** Locks for everything. The locks are Point objects for convenience in
-     * {@link #moveToPrimary(Region)} and {@link #removeFromPrimary(Region)}. */
-    private final Striper<Point> locks = 
-            new Striper<>(STRIPE_FACTOR, Region::createMutableLoc);
+    /** Whether to track leases so that leaked ones may be reported. This
+     * costs a stack trace and a phantom reference per lease, so it is off
+     * unless asked for with {@code -Dstabilise.trackLeases=true}. */
+    private static final boolean TRACK_LEAKS = Boolean.getBoolean("stabilise.trackLeases");
+    /** Trackers of unreleased leases, which must be kept reachable for their
+     * leases to be enqueued on {@link #leakedLeases}. Unused if {@link
+     * #TRACK_LEAKS} is false. */
+    private final Set<LeaseTracker> leaseTrackers = ConcurrentHashMap.newKeySet();
+    /** Trackers of leases which were garbage collected unreleased. */
+    private final ReferenceQueue<Lease> leakedLeases = new ReferenceQueue<>();
     
-    /** Dummy key for {@link #regions} whose mutability may be abused for
-     * convenience, but ONLY on the main thread. */
-    private final Point unguardedDummyLoc = Region.createMutableLoc();
+    /** Locks for everything. */
+    private final Striper<Object> locks = 
+            new Striper<>(STRIPE_FACTOR, Object::new);
     
     // Tracker for determining when all the regions are loaded.
     public final WorldLoadTracker loadTracker = new WorldLoadTracker();
@@ -161,8 +200,11 @@ public class RegionStore {
     RegionStore(HostWorld world) {
         this.world = world;
         
-        this.loader = new WorldLoader(world);
-        this.generator = new WorldGenerator(world, this);
+        this.scheduler = new RegionTaskScheduler(world.multiverse().getExecutor());
+        this.loader = new WorldLoader(world, scheduler);
+        this.generator = new WorldGenerator(world, this, scheduler);
+        this.unloadedRegions = new UnloadedRegionCache(
+                Constants.UNLOADED_REGION_CACHE_BUDGET, world.stats.unloadedCache);
         
         log = Log.getAgent(world.getDimensionName() + "_RegionStore");
     }
@@ -173,10 +215,10 @@ public class RegionStore {
      * @return The region, or {@code null} if no such region exists in primary
      * storage.
      */
-    @UserThread("MainThread")
-    @ThreadUnsafeMethod
+    @UserThread("Any")
+    @ThreadSafeMethod
     public Region getRegion(int x, int y) {
-        return regions.get(unguardedDummyLoc.set(x, y));
+        return regions.get(Region.key(x, y));
     }
     
     /**
@@ -194,13 +236,14 @@ public class RegionStore {
     @ThreadUnsafeMethod
     private Region getRegionTryCache(int x, int y) {
         // Try primary
-        Region r = regions.get(unguardedDummyLoc.set(x, y));
+        long key = Region.key(x, y);
+        Region r = regions.get(key);
         if(r != null)
             return r;
         
         // Try cache
         // No sync nor mark -- be careful!
-        CachedRegion cr = cache.get(unguardedDummyLoc);
+        CachedRegion cr = cache.get(key);
         return cr == null ? null : cr.region;
     }
     
@@ -211,15 +254,22 @@ public class RegionStore {
      * <b>Note:</b> the returned region might not be loaded nor generated, so
      * be careful with what you do with it.
      * 
+     * @param prefetch true if the region is being prefetched. If this is
+     * false and the region was prefetched, it stops being treated as such.
+     * 
      * @return The region. Never null.
      */
     @UserThread("MainThread")
     @ThreadUnsafeMethod
-    private Region loadRegion(int x, int y) {
+    private Region loadRegion(int x, int y, boolean prefetch) {
         // Get the region if it is already in primary storage.
-        Region r = regions.get(unguardedDummyLoc.set(x, y));
-        if(r != null)
+        long key = Region.key(x, y);
+        Region r = regions.get(key);
+        if(r != null) {
+            if(!prefetch)
+                claimPrefetched(r);
             return r;
+        }
         
         // Unfortunately due to checking the cache and trying prepareRegion()
         // this method has a fair bit of overhead if it's not yet in primary
@@ -229,18 +279,26 @@ public class RegionStore {
         
         // Try the cache next. Synchronised to make the put-if-absent atomic.
         synchronized(getLock(x, y)) {
-            // To avoid a race condition we'll want to try primary storage
-            // again while synchronised on the lock just to be safe (see e.g.,
-            // moveToPrimary()).
-            r = regions.get(unguardedDummyLoc);
-            if(r != null)
-                return r;
-            
-            CachedRegion cr = cache.get(unguardedDummyLoc);
+            // No need to check primary storage again; only the main thread
+            // puts regions in there. A region that's been prepared but not
+            // yet put there is still in the cache.
+            CachedRegion cr = cache.get(key);
             if(cr == null) {
+                // If the region was unloaded recently enough we can put it
+                // straight back into primary storage. It's still prepared,
+                // and has been saved.
+                r = unloadedRegions.take(key);
+                if(r != null) {
+                    loadTracker.startLoadOp(); // op is ended in moveToPrimary()
+                    if(prefetch)
+                        markPrefetched(r);
+                    moveToPrimary(r);
+                    return r;
+                }
+                
                 r = new Region(x, y);
                 cr = new CachedRegion(r);
-                cache.put(r.loc, cr);
+                cache.put(r.key, cr);
             } else
                 r = cr.region;
             
@@ -255,12 +313,52 @@ public class RegionStore {
         // Initiate the prepare outside of the synchronized block
         if(tryPrepare) {
         	loadTracker.startLoadOp(); // op is ended in moveToPrimary()
+            // Flag the region before its tasks are scheduled so that they
+            // are given the right priority.
+            if(prefetch)
+                markPrefetched(r);
             prepareRegion(r, true);
-        }
+        } else if(!prefetch)
+            claimPrefetched(r);
         
         return r;
     }
     
+    /**
+     * Flags a region as prefetched.
+     */
+    @UserThread("MainThread")
+    private void markPrefetched(Region r) {
+        r.state.setPrefetched(true);
+        world.stats.prefetch.issued.increment();
+    }
+    
+    /**
+     * If a region was prefetched, stops treating it as such, and counts a
+     * successful prefetch. Its tasks, if it has any left, get their usual
+     * priority.
+     */
+    @UserThread("MainThread")
+    private void claimPrefetched(Region r) {
+        if(r.state.isPrefetched()) {
+            r.state.setPrefetched(false);
+            world.stats.prefetch.hits.increment();
+            scheduler.invalidatePriorities();
+        }
+    }
+    
+    /**
+     * If a region was prefetched, stops treating it as such, and counts a
+     * wasted prefetch.
+     */
+    @UserThread("MainThread")
+    private void dropPrefetched(Region r) {
+        if(r.state.isPrefetched()) {
+            r.state.setPrefetched(false);
+            world.stats.prefetch.wasted.increment();
+        }
+    }
+    
     /**
      * Loads and optionally generates a region. Nothing is done if the region
      * is already loaded/generated, or if loading/generating is already taking
@@ -294,22 +392,41 @@ public class RegionStore {
         
         boolean generate;
         boolean save = false;
+        boolean abandon = false;
+        List<RegionCallback> callbacks = null;
         
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
             
-            generate = cr.prepareForPrimary; // = "please also generate me"
+            // = "please also generate me"
+            generate = cr.prepareForPrimary || cr.generate;
+            if(!success)
+                callbacks = cr.takeCallbacks();
             
-            if(generate) {
+            if(!generate && isAbandonable(cr)) {
+                // The region was being prepared for primary, but it's no
+                // longer wanted (see cancelPrepare()). Nothing has touched it
+                // since we loaded it, so we can just drop it.
+                cache.remove(r.key);
+                abandon = true;
+            } else if(generate) {
                 if(!r.state.getGenerationPermit()) {
                     // It's already generated (or some other thread snuck in
                     // and stole generating rights from us in-between the load
                     // finishing and now).
                     generate = false;
-                    if(cr.unmark())
+                    // If it was generated already, it was on disk that way,
+                    // so anyone pregenerating it is done.
+                    if(callbacks == null && r.state.isPrepared())
+                        callbacks = cr.takeCallbacks();
+                    if(cr.unmark()) {
                         // The region is no longer needed in the cache for
                         // anything else!
-                        moveToPrimary(r);
+                        if(cr.prepareForPrimary)
+                            handOff(cr);
+                        else
+                            cache.remove(r.key);
+                    }
                 }
                 // There is a subtle downside to what we've done here. If the
                 // region has already been generated (so that we don't get the
@@ -345,6 +462,10 @@ public class RegionStore {
         // In both cases we continue on using the same thread, outside of the
         // synchronised block.
         
+        if(abandon)
+            world.stats.gen.aborted.increment();
+        runCallbacks(callbacks, r, success);
+        
         if(generate)
             generator.generate(r, true, this::finishGenerate);
         else if(save)
@@ -362,9 +483,12 @@ public class RegionStore {
             return;
         
         boolean save = false;
+        List<RegionCallback> callbacks = null;
         
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
+            if(!success)
+                callbacks = cr.takeCallbacks();
             
             // Save if nothing else has the region cached for other purposes
             if(cr.unmark()) { // remove the "generate" mark
@@ -380,6 +504,7 @@ public class RegionStore {
         
         // Save on the same thread, outside of the synchronised block
         
+        runCallbacks(callbacks, r, false);
         if(save)
             loader.saveRegion(r, true, this::finishSave);
         else
@@ -394,8 +519,13 @@ public class RegionStore {
         if(!success && handleFailure())
             return;
         
+        List<RegionCallback> callbacks = null;
+        
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
+            
+            if(r.state.isPrepared())
+                callbacks = cr.takeCallbacks();
             
             if(cr.unmark()) {
                 // If the region is slated to be added to the world and it has
@@ -411,19 +541,32 @@ public class RegionStore {
             	// having just been removed -- when and only when the region is
             	// prepared.
                 if(cr.prepareForPrimary) // && r.state.isPrepared())
-                    moveToPrimary(r);
+                    handOff(cr);
                 // Otherwise, the save occurred after the region was cached for
-                // some other purpose, we simply remove it from the cache.
-                else
-                    cache.remove(r.loc);
+                // some other purpose (or the region is being unloaded), so we
+                // simply remove it from the cache. If it's been saved, we hold
+                // on to it in case it's needed again soon.
+                else {
+                    cache.remove(r.key);
+                    if(success && r.state.isPrepared())
+                        unloadedRegions.put(r);
+                }
             }
         }
         
+        runCallbacks(callbacks, r, success);
         notifyWaiters();
     }
     
+    private static void runCallbacks(List<RegionCallback> callbacks, Region r,
+            boolean success) {
+        if(callbacks != null)
+            for(RegionCallback c : callbacks)
+                c.accept(r, success);
+    }
+    
     /**
-     * Called by {@link #uncacheAll()} for each region cached by a thread, and
+     * Called when a {@link Lease} is released, and
      * by {@link #prepareRegion(Region, boolean)} if it is unable to secure a
      * loading or generation permit. Performs all the necessary uncaching
      * cleanup.
@@ -436,14 +579,17 @@ public class RegionStore {
         boolean save = false;
         
         synchronized(getLock(r)) {
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
             
             if(cr.unmark()) { // remove the mark keeping us in here
                 // If the region is in primary storage, simply remove it from
-                // the cache; it'll be saved in due course. If not, then save
-                // it.
-                if(regions.containsKey(r.loc))
-                    cache.remove(r.loc);
+                // the cache; it'll be saved in due course. If it's on its way
+                // there, the main thread will remove it from the cache. If
+                // neither, then save it.
+                if(regions.containsKey(r.key))
+                    cache.remove(r.key);
+                else if(cr.handedOff)
+                    ; // nothing to do
                 else if(saveIfAble && r.state.getSavePermit()) {
                     cr.mark(); // add the "save" mark
                     save = true;
@@ -458,43 +604,72 @@ public class RegionStore {
     }
     
     /**
-     * Moves a region from the cache to primary storage. This is invoked after
-     * a region has been appropriately loaded/generated. This is invoked while
-     * the appropriate lock is held (see {@link #locks}).
+     * Hands a region which has been prepared off to the main thread, which
+     * will move it from the cache to primary storage during the next update
+     * tick. This is invoked while the appropriate lock is held (see {@link
+     * #locks}).
      */
-    @UserThread("WorkerThread")
+    @UserThread("Any")
     @GuardedBy("getLock()")
-    private void moveToPrimary(Region r) {
+    private void handOff(CachedRegion cr) {
+        Region r = cr.region;
         if(!r.state.isPrepared())
             Checks.badAssert("Tried to move " + r.toStringDebug() + " from "
                     + "cache to primary storage, but it was not prepared?");
         
-        cache.remove(r.loc); // out of cache
+        cr.handedOff = true;
+        preparedRegions.add(r);
+    }
+    
+    /**
+     * Moves every region which has been {@link #handOff(CachedRegion) handed
+     * off} into primary storage.
+     */
+    @UserThread("MainThread")
+    private void drainPreparedRegions() {
+        if(preparedRegions.isEmpty())
+            return;
         
-        // Synchronise over this RegionStore to make the "put into primary then
-        // notify adjacent regions that were already in primary" atomic.
-        // It's unfortunate that we can't use a striped lock here, so this may
-        // cause some hitches.
-        synchronized(this) {
-            if(regions.put(r.loc, r) != null) { // into primary
-                log.postWarning("Adding " + r + " to primary storage, but it's already there?");
-                return;
+        preparedRegions.consume(r -> {
+            synchronized(getLock(r)) {
+                CachedRegion cr = cache.get(r.key);
+                cr.handedOff = false;
+                // If someone cached the region in the meantime, it stays in
+                // the cache until they're done with it (see finishGeneric()).
+                if(cr.timesCached == 0)
+                    cache.remove(r.key);
+                moveToPrimary(r);
             }
-            
-            // Notify neighbouring regions that this region is prepared and
-            // vice-versa.
-            int x = r.x(), y = r.y();
-            Point loc = getLock(x, y); // safe to use since we're synced on it
-            
-            for(int u = x-1; u <= x+1; u++) {
-                for(int v = y-1; v <= y+1; v++) {
-                    if(u == x && v == y) continue; // don't do it if other == r
-                    
-                    Region other = regions.get(loc.set(u, v));
-                    if(other != null) {
-                        r.state.addPreparedNeighbour();
-                        other.state.addPreparedNeighbour();
-                    }
+        });
+        
+        notifyWaiters();
+    }
+    
+    /**
+     * Puts a region into primary storage, and notifies it and its neighbours
+     * of each other. The region should have been appropriately
+     * loaded/generated, and should already be out of the cache or on its way
+     * out.
+     */
+    @UserThread("MainThread")
+    private void moveToPrimary(Region r) {
+        if(regions.put(r.key, r) != null) { // into primary
+            log.postWarning("Adding " + r + " to primary storage, but it's already there?");
+            return;
+        }
+        
+        // Notify neighbouring regions that this region is prepared and
+        // vice-versa. Nothing but the main thread modifies primary storage,
+        // so this needs no further synchronisation.
+        int x = r.x(), y = r.y();
+        for(int u = x-1; u <= x+1; u++) {
+            for(int v = y-1; v <= y+1; v++) {
+                if(u == x && v == y) continue; // don't do it if other == r
+                
+                Region other = regions.get(Region.key(u, v));
+                if(other != null) {
+                    r.state.addPreparedNeighbour();
+                    other.state.addPreparedNeighbour();
                 }
             }
         }
@@ -510,26 +685,19 @@ public class RegionStore {
     @UserThread("MainThread")
     @GuardedBy("getLock()")
     private void removeFromPrimary(Region r) {
-        // Synchronise over this RegionStore to make the "remove from primary
-        // then notify adjacent regions in primary" atomic.
-        // It's unfortunate that we can't use a striped lock here, so this may
-        // cause some hitches.
-        synchronized(this) {
-            regions.remove(r.loc); // out of primary
-            
-            // Notify neighbouring regions that this region is being removed
-            int x = r.x(), y = r.y();
-            Point loc = getLock(x, y); // safe to use since we're synced on it
-            
-            for(int u = x-1; u <= x+1; u++) {
-                for(int v = y-1; v <= y+1; v++) {
-                    if(u == x && v == y) continue; // don't do it if other == r
-                    
-                    Region other = regions.get(loc.set(u, v));
-                    if(other != null) {
-                        r.state.removePreparedNeighbour(); // could do all at once, but I cbf
-                        other.state.removePreparedNeighbour();
-                    }
+        regions.remove(r.key); // out of primary
+        
+        // Notify neighbouring regions that this region is being removed. As
+        // in moveToPrimary(), this needs no further synchronisation.
+        int x = r.x(), y = r.y();
+        for(int u = x-1; u <= x+1; u++) {
+            for(int v = y-1; v <= y+1; v++) {
+                if(u == x && v == y) continue; // don't do it if other == r
+                
+                Region other = regions.get(Region.key(u, v));
+                if(other != null) {
+                    r.state.removePreparedNeighbour(); // could do all at once, but I cbf
+                    other.state.removePreparedNeighbour();
                 }
             }
         }
@@ -551,7 +719,11 @@ public class RegionStore {
      */
     @UserThread("MainThread")
     void update() {
-        regions.values().forEach(r -> {
+        drainPreparedRegions();
+        if(TRACK_LEAKS)
+            releaseLeakedLeases();
+        
+        regions.forEach(r -> {
             RegionState s = r.state;
             
             r.importToWorld(world, this);
@@ -560,14 +732,15 @@ public class RegionStore {
                 r.update(world);
                 r.implantStructures(this); // implant structures
             } else if(!s.isAnchored() && !s.hasAnchoredNeighbours() && s.tickDown()) {
+                // A prefetched region which goes unused ends up here.
+                dropPrefetched(r);
+                
                 // Perform any operations needed for proper unloading first.
                 r.exportFromWorld(world);
                 
                 // We save the region and remove it from primary storage.
-                // It's probably poor style to have the region removed while
-                // we're iterating over them (normally this would give a
-                // ConcurrentModificationException), but since regions is a
-                // ConcurrentHashMap I'm not *too* concerned.
+                // Removing it while we're iterating is fine, as
+                // ConcurrentLongMap.forEach() runs over a snapshot.
                 saveRegion(r, true);
             } else
                 r.implantStructures(this); // implant structures even if not active
@@ -581,7 +754,7 @@ public class RegionStore {
      */
     @UserThread("MainThread")
     public void forEach(Consumer<Region> action) {
-        regions.values().forEach(action);
+        regions.forEach(action);
     }
     
     /**
@@ -596,14 +769,14 @@ public class RegionStore {
      */
     @UserThread("MainThread")
     void anchorRegion(int x, int y) {
-        Region r = loadRegion(x, y);
+        Region r = loadRegion(x, y, false);
         
         if(r.state.anchor()) {
             // Load and notify all regions adjacent to r
             for(int u = x-1; u <= x+1; u++) {
                 for(int v = y-1; v <= y+1; v++) {
                     if(u != x || v != y)
-                        loadRegion(u, v).state.addAnchoredNeighbour();
+                        loadRegion(u, v, false).state.addAnchoredNeighbour();
                 }
             }
         }
@@ -636,43 +809,201 @@ public class RegionStore {
                         getRegionTryCache(u, v).state.removeAnchoredNeighbour();
                 }
             }
+            
+            // Any of these regions which are still being prepared may no
+            // longer need to be.
+            for(int u = x-1; u <= x+1; u++)
+                for(int v = y-1; v <= y+1; v++)
+                    cancelPrepare(getRegionTryCache(u, v));
         }
     }
     
     /**
-     * Caches a region for usage by the current thread. If the region is not
-     * already loaded into memory, this method initiates a load, but does <b>
-     * not</b> generate the region. Since the region may either be a) loading
-     * or generating on another thread, or b) acting as part of the world in
-     * primary storage, no guarantees are made as to the state of the returned
-     * region. One should assumed that any interactions with it are not
-     * thread-safe. 
+     * Prefetches a region, i.e., prepares it for primary storage ahead of an
+     * anchorer which is expected to move towards it. Prefetched regions are
+     * loaded and generated only once there is nothing to do for the regions
+     * which are actually anchored. A prefetched region stops being treated as
+     * such once it is {@link #anchorRegion(int, int) anchored} (or neighbours
+     * an anchored region); if that never happens, it is unloaded in the usual
+     * way, or its preparation can be cancelled via {@link
+     * #cancelPrefetch(int, int)}.
      * 
-     * <p>The caller does not need to keep track of each cached region so to
-     * later uncache them. Instead, you should call {@link #uncacheAll()} once
-     * you are done working with any cached regions to dispose of all of them.
+     * <p>The outcomes of prefetches are recorded in the world's {@link
+     * WorldStatistics#prefetch prefetch statistics}.
      * 
      * @param x The x-coordinate of the region, in region-lengths.
      * @param y The y-coordinate of the region, in region-lengths.
      * 
-     * @return The region. Never null.
+     * @return {@code true} if the region is being prefetched; {@code false}
+     * if it is already in primary storage, or is already being prepared for
+     * primary storage for some other reason.
      */
-    @UserThread("Any")
-    public Region cache(int x, int y) {
-        // If the region is already locally cached by this thread, use it.
-        Map<Point, Region> localMap = localCachedRegions.get();
-        Point loc = Region.createImmutableLoc(x, y);
-        Region r = localMap.get(loc);
+    @UserThread("MainThread")
+    boolean prefetchRegion(int x, int y) {
+        // The common case is that the region is already there.
+        Region r = regions.get(Region.key(x, y));
         if(r != null)
-            return r;
+            return r.state.isPrefetched();
+        return loadRegion(x, y, true).state.isPrefetched();
+    }
+    
+    /**
+     * Cancels the preparation of a region which was {@link
+     * #prefetchRegion(int, int) prefetched}, if it has not yet been moved
+     * into primary storage nor been anchored. Does nothing otherwise.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     */
+    @UserThread("MainThread")
+    void cancelPrefetch(int x, int y) {
+        Region r = getRegionTryCache(x, y);
+        if(r != null && r.state.isPrefetched())
+            cancelPrepare(r);
+    }
+    
+    /**
+     * Cancels the preparation of a region for primary storage if it is
+     * neither anchored nor has any anchored neighbours. If its load or
+     * generation hasn't yet started, it will be abandoned (see {@link
+     * #abandonIfUnwanted(Region)}); otherwise, it will be dropped or saved as
+     * usual once done instead of being moved to primary storage.
+     */
+    @UserThread("MainThread")
+    private void cancelPrepare(Region r) {
+        if(r.state.isAnchored() || r.state.hasAnchoredNeighbours())
+            return;
+        
+        synchronized(getLock(r)) {
+            CachedRegion cr = cache.get(r.key);
+            // A region which has been handed off is as good as in primary.
+            if(cr == null || !cr.prepareForPrimary || cr.handedOff
+                    || regions.containsKey(r.key))
+                return;
+            cr.prepareForPrimary = false;
+        }
+        
+        dropPrefetched(r);
+        // If the region is wanted again, loadRegion() will start a new op.
+        loadTracker.endLoadOp(); // op is started in loadRegion()
+    }
+    
+    /**
+     * Abandons a region if its preparation for primary storage has been
+     * cancelled and nothing else needs it. This is invoked by the WorldLoader
+     * and WorldGenerator right before loading or generating a region. If this
+     * returns {@code true}, the region has been removed from the cache, and
+     * the caller should drop it without invoking its callback.
+     */
+    @UserThread("WorkerThread")
+    public boolean abandonIfUnwanted(Region r) {
+        synchronized(getLock(r)) {
+            CachedRegion cr = cache.get(r.key);
+            if(cr == null || cr.prepareForPrimary || !isAbandonable(cr))
+                return false;
+            cache.remove(r.key);
+        }
+        notifyWaiters();
+        return true;
+    }
+    
+    /**
+     * Returns {@code true} if the only thing keeping the region in the cache
+     * is the mark for its preparation, and it was never manually cached (in
+     * which case it may have been modified) nor is being pregenerated.
+     */
+    @GuardedBy("getLock()")
+    private boolean isAbandonable(CachedRegion cr) {
+        return cr.timesCached == 1 && !cr.manuallyCached && !cr.generate
+                && !regions.containsKey(cr.region.key);
+    }
+    
+    /**
+     * Loads, generates and saves a region without putting it into primary
+     * storage. This is for generating regions ahead of time, when nothing in
+     * the world wants them yet; once done, the region is disposed of as if it
+     * had been {@link #cache(int, int) cached} and then released.
+     * 
+     * <p>The callback is invoked once the region has been generated and saved
+     * (or, if the region is already in use, once it has been generated; it
+     * will then be saved in the usual way). Its second argument is {@code
+     * false} if the region could not be loaded, generated or saved. If the
+     * region is already generated, the callback is invoked right away on the
+     * current thread.
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * @param callback The callback.
+     * 
+     * @throws NullPointerException if {@code callback} is {@code null}.
+     */
+    @UserThread("Any")
+    public void pregenerateRegion(int x, int y, RegionCallback callback) {
+        Objects.requireNonNull(callback);
+        long key = Region.key(x, y);
+        Region r;
+        boolean done;
         
-        // Otherwise, we cache the region (unless it is already cached) and
-        // then locally cache it.
+        synchronized(getLock(x, y)) {
+            CachedRegion cr = cache.get(key);
+            if(cr == null) {
+                // A region in primary storage, or which was unloaded from
+                // there recently, is as generated as it gets.
+                r = regions.get(key);
+                if(r == null)
+                    r = unloadedRegions.peek(key);
+                if(r == null) {
+                    r = new Region(x, y);
+                    cr = new CachedRegion(r);
+                    cache.put(key, cr);
+                }
+            } else
+                r = cr.region;
+            
+            done = r.state.isPrepared();
+            if(!done) {
+                cr.mark();
+                cr.generate = true;
+                cr.addCallback(callback);
+            }
+        }
         
+        if(done)
+            callback.accept(r, true);
+        else
+            prepareRegion(r, true);
+    }
+    
+    /**
+     * Caches a region. If the region is not already loaded into memory, this
+     * method initiates a load, but does <b>not</b> generate the region. Since
+     * the region may either be a) loading or generating on another thread, or
+     * b) acting as part of the world in primary storage, no guarantees are
+     * made as to the state of the returned region. One should assumed that
+     * any interactions with it are not thread-safe.
+     * 
+     * <p>The region stays cached until the returned lease is {@link
+     * Lease#release() released}, which should be done as soon as the caller
+     * is done with the region, e.g.:
+     * 
+     * <pre>
+     * try(RegionStore.Lease lease = regions.cache(x, y)) {
+     *     doStuffWith(lease.region);
+     * }</pre>
+     * 
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * 
+     * @return A lease on the region. Never null.
+     */
+    @UserThread("Any")
+    public Lease cache(int x, int y) {
+        long key = Region.key(x, y);
+        Region r;
         boolean needsLoad = false;
         
         synchronized(getLock(x, y)) {
-            CachedRegion cr = cache.get(loc);
+            CachedRegion cr = cache.get(key);
             
             // If the region isn't in the cache, we check primary storage
             if(cr == null) {
@@ -680,13 +1011,17 @@ public class RegionStore {
                 // isn't, we create the region in the cache. If the region is
                 // in primary storage, it must already be loaded; if not, we'll
                 // have to load it ourselves.
-                r = regions.get(loc);
+                r = regions.get(key);
                 if(r == null) {
-                    r = new Region(x, y);
-                    needsLoad = true;
+                    // A recently-unloaded region is as good as loaded.
+                    r = unloadedRegions.take(key);
+                    if(r == null) {
+                        r = new Region(x, y);
+                        needsLoad = true;
+                    }
                 }
                 cr = new CachedRegion(r);
-                cache.put(r.loc, cr);
+                cache.put(r.key, cr);
             } else {
                 r = cr.region;
                 // Even if the region isn't loaded yet, whoever cached it
@@ -695,6 +1030,7 @@ public class RegionStore {
             }
             
             cr.mark();
+            cr.manuallyCached = true;
             // If the region needs loading, we slap another mark on cr, which
             // will be removed when the loading completes. This is probably the
             // easiest way of ensuring our mark placed above isn't erroneously
@@ -703,24 +1039,27 @@ public class RegionStore {
                 cr.mark();
         }
         
-        localMap.put(loc, r);
+        Lease lease = new Lease(r);
         
         if(needsLoad)
             prepareRegion(r, false);
         
-        return r;
+        return lease;
     }
     
     /**
-     * Uncaches any regions which have been cached by this thread. It is okay
-     * to defensively invoke this method, as this does nothing if no regions
-     * have been cached.
+     * Releases the lease of every tracked lease which was garbage collected
+     * without being released, and complains about it.
      */
-    @UserThread("Any")
-    public void uncacheAll() {
-        Map<Point, Region> localRegions = localCachedRegions.get();
-        localRegions.values().forEach(r -> finishGeneric(r, true));
-        localRegions.clear();
+    @UserThread("MainThread")
+    private void releaseLeakedLeases() {
+        LeaseTracker t;
+        while((t = (LeaseTracker)leakedLeases.poll()) != null) {
+            if(leaseTrackers.remove(t)) {
+                log.postWarning("Lease on " + t.region + " was never released!", t.origin);
+                finishGeneric(t.region, true);
+            }
+        }
     }
     
     /**
@@ -752,11 +1091,11 @@ public class RegionStore {
             if(!hasPermit)
                 return;
             
-            CachedRegion cr = cache.get(r.loc);
+            CachedRegion cr = cache.get(r.key);
             // If the region isn't already in the cache, stick it in.
             if(cr == null) {
                 cr = new CachedRegion(r);
-                cache.put(r.loc, cr);
+                cache.put(r.key, cr);
             }
             
             cr.mark();
@@ -765,18 +1104,46 @@ public class RegionStore {
         loader.saveRegion(r, false, this::finishSave);
     }
     
+    /**
+     * Sets the maximum estimated number of bytes of recently unloaded regions
+     * to hold on to. The default is {@link
+     * Constants#UNLOADED_REGION_CACHE_BUDGET}.
+     */
+    @UserThread("Any")
+    public void setUnloadedCacheBudget(long bytes) {
+        unloadedRegions.setBudget(bytes);
+    }
+    
     /**
      * Saves all regions in primary storage.
      */
     void saveAll() {
-        regions.values().forEach(r -> saveRegion(r, false));
+        regions.forEach(r -> saveRegion(r, false));
+    }
+    
+    /**
+     * Performs the given action for every prepared region in memory which
+     * isn't being worked on by a loader or generator -- that is, every region
+     * in primary storage, and every prepared region in the cache (e.g., those
+     * being saved as they're unloaded). This is used to take a {@link
+     * WorldSnapshot}.
+     */
+    @UserThread("MainThread")
+    void forEachPreparedRegion(Consumer<Region> action) {
+        regions.forEach(action);
+        cache.forEach(cr -> {
+            Region r = cr.region;
+            // Skip anything in primary storage we've already been through
+            if(r.state.isPrepared() && regions.get(r.key) != r)
+                action.accept(r);
+        });
     }
     
-    private Point getLock(int x, int y) {
+    private Object getLock(int x, int y) {
         return locks.get(STRIPE_HASHER.applyAsInt(x, y));
     }
     
-    private Point getLock(Region r) {
+    private Object getLock(Region r) {
     	return getLock(r.x(), r.y());
     }
     
@@ -797,11 +1164,12 @@ public class RegionStore {
     }
     
     /**
-     * If the cache is empty, notifies any threads that may be waiting in
-     * {@link #waitUntilDone()}.
+     * If the cache is empty, or there are regions waiting to be moved out of
+     * it, notifies any threads that may be waiting in {@link
+     * #waitUntilDone()}.
      */
     private void notifyWaiters() {
-        if(cache.isEmpty()) {
+        if(cache.isEmpty() || !preparedRegions.isEmpty()) {
             doneLock.lock();
             try {
                 emptyCondition.signalAll();
@@ -815,9 +1183,13 @@ public class RegionStore {
      * Blocks the current thread until all regions have finished saving and all
      * cached regions have been uncached.
      */
+    @UserThread("MainThread")
     void waitUntilDone() {
     	doneLock.lock();
         try {
+            // Regions handed off to us won't leave the cache until we take
+            // them, so we do so whenever we wake up.
+            drainPreparedRegions();
             // TODO: only use cache size for now. Upgrade to checking primary too
         	// when I get primary to be completely flushed when the world is
         	// forcefully unloaded (e.g., when the game is closed.)
@@ -827,6 +1199,7 @@ public class RegionStore {
             
             while(prevNumRegions > 0) {
             	long nanosRemaining = emptyCondition.awaitNanos(waitTime);
+            	drainPreparedRegions();
             	if(nanosRemaining <= 0) { // timeout elapsed
             		int numRegions = cache.size();
             		if(numRegions < prevNumRegions) {
@@ -837,10 +1210,8 @@ public class RegionStore {
             			StringBuilder sb = new StringBuilder();
                         sb.append("Regions too long to finish saving! "
                                 + "Here are our offenders:");
-                        for(CachedRegion c : cache.values()) {
-                            sb.append("\n    > ");
-                            sb.append(c.region.toStringDebug());
-                        }
+                        cache.forEach(c -> sb.append("\n    > ")
+                                .append(c.region.toStringDebug()));
                         log.postWarning(sb.toString());
                         return;
             		}
@@ -879,10 +1250,10 @@ public class RegionStore {
         sb.append("(note that the following printout may not be accurate due to");
         sb.append(" obvious concurrency reasons)\n");
         sb.append("    PRIMARY STORAGE: {\n");
-        regions.values().forEach(r -> sb.append("        ").append(r.toStringDebug()).append('\n'));
+        regions.forEach(r -> sb.append("        ").append(r.toStringDebug()).append('\n'));
         sb.append("    },\n");
         sb.append("    CACHE: {\n");
-        cache.values().forEach(cr -> sb.append("        ").append(cr.region.toStringDebug()).append('\n'));
+        cache.forEach(cr -> sb.append("        ").append(cr.region.toStringDebug()).append('\n'));
         sb.append("    }\n");
         sb.append("}");
         return sb.toString();
@@ -892,6 +1263,77 @@ public class RegionStore {
     //-------------=====Nested Classes=====-------------
     //--------------------==========--------------------
     
+    /**
+     * A lease on a region which has been {@link RegionStore#cache(int, int)
+     * cached}. The region stays cached until the lease is released.
+     */
+    public final class Lease implements AutoCloseable {
+        
+        /** The leased region. */
+        public final Region region;
+        /** Tracks this lease for leaks; null if not tracking. */
+        private final LeaseTracker tracker;
+        @GuardedBy("getLock()") private boolean released = false;
+        
+        
+        private Lease(Region region) {
+            this.region = region;
+            if(TRACK_LEAKS) {
+                tracker = new LeaseTracker(this, leakedLeases);
+                leaseTrackers.add(tracker);
+            } else
+                tracker = null;
+        }
+        
+        /**
+         * Releases this lease. If nothing else needs the region, it is saved
+         * and removed from the cache. Does nothing if this lease has already
+         * been released.
+         */
+        @UserThread("Any")
+        public void release() {
+            synchronized(getLock(region)) {
+                if(released)
+                    return;
+                released = true;
+            }
+            if(tracker != null) {
+                leaseTrackers.remove(tracker);
+                tracker.clear();
+            }
+            finishGeneric(region, true);
+        }
+        
+        /**
+         * Releases this lease; equivalent to {@link #release()}.
+         */
+        @Override
+        public void close() {
+            release();
+        }
+        
+    }
+    
+    /**
+     * Tracks a {@link Lease} which has yet to be released, so that it can be
+     * released in its stead should it be garbage collected. This must not
+     * refer to the lease itself.
+     */
+    private static class LeaseTracker extends PhantomReference<Lease> {
+        
+        private final Region region;
+        /** Where the lease was taken out. */
+        private final Throwable origin;
+        
+        
+        private LeaseTracker(Lease lease, ReferenceQueue<Lease> queue) {
+            super(lease, queue);
+            this.region = lease.region;
+            this.origin = new Throwable("Lease taken out here");
+        }
+        
+    }
+    
     /**
      * Container class for cached regions.
      * 
@@ -908,12 +1350,43 @@ public class RegionStore {
          * prepared. This also indicates that the region should be generated
          * after it's loaded. Default: false. */
         private boolean prepareForPrimary = false;
+        /** true if the region has been cached via {@link
+         * RegionStore#cache(int, int)}. Such a region is never abandoned. */
+        private boolean manuallyCached = false;
+        /** true if the region has been prepared and handed off to the main
+         * thread to be moved into primary storage, but hasn't been moved
+         * yet. */
+        private boolean handedOff = false;
+        /** true if the region should be generated after it's loaded even if
+         * it isn't being prepared for primary storage; see {@link
+         * RegionStore#pregenerateRegion(int, int, RegionCallback)}. Such a
+         * region is never abandoned. */
+        private boolean generate = false;
+        /** Callbacks to invoke once the region is generated and saved, or
+         * null if there are none. */
+        private List<RegionCallback> callbacks = null;
         
         
         private CachedRegion(Region region) {
             this.region = region;
         }
         
+        private void addCallback(RegionCallback callback) {
+            if(callbacks == null)
+                callbacks = new ArrayList<>(1);
+            callbacks.add(callback);
+        }
+        
+        /**
+         * Returns and removes this region's callbacks. Returns null if there
+         * are none.
+         */
+        private List<RegionCallback> takeCallbacks() {
+            List<RegionCallback> c = callbacks;
+            callbacks = null;
+            return c;
+        }
+        
         /**
          * Marks the region. A region will not be removed from the cache while
          * it is marked.
@@ -0,0 +1,214 @@
+package com.stabilise.world;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.annotation.ThreadUnsafeMethod;
+import com.stabilise.util.annotation.UserThread;
+
+/**
+ * Schedules the loading and generation of a world's regions such that the
+ * regions closest to an anchorer (i.e., an entity with a slice anchorer
+ * component, such as a player) are prepared first.
+ *
+ * <p>Tasks are not submitted to the underlying executor directly. Instead,
+ * each submitted task puts a runner on the executor which, when it runs,
+ * picks out and runs whichever pending task of this scheduler is currently
+ * closest to an anchorer. This lets us prioritise tasks without caring about
+ * how the executor (which is shared by every world of a multiverse) orders
+ * its own work.
+ *
+ * <p>A task's priority is the squared distance, in slice-lengths, between the
+ * centre of its region and the nearest anchorer. Whenever an anchorer is
+ * moved, every pending task is reprioritised before the next one is picked.
+ * Tasks of equal priority (e.g., when there are no anchorers) run in the
+ * order they were submitted.
+ *
+ * <p>Tasks for {@link RegionState#isPrefetched() prefetched} regions run only
+ * once there are no tasks left for regions which are actually wanted, however
+ * close they are.
+ */
+@ThreadSafe
+public class RegionTaskScheduler {
+
+    /** Added to the priority of prefetched regions. This exceeds the squared
+     * distance to any region within 2<sup>24</sup> slices of an anchorer. */
+    private static final long PREFETCH_PENALTY = 1L << 48;
+
+    private final Executor executor;
+
+    /** Pending tasks, lowest priority value first. */
+    @GuardedBy("this") private PriorityQueue<Task> tasks = new PriorityQueue<>();
+    /** The sequence number to give the next task. */
+    @GuardedBy("this") private long nextSeq = 0;
+    /** The value of {@link #anchorsVersion} when the tasks were last
+     * prioritised. */
+    @GuardedBy("this") private int tasksVersion = 0;
+
+    /** Maps anchorer -> centre, as packed slice coordinates. */
+    private final Map<Object, Long> anchors = new HashMap<>();
+    /** Snapshot of the values of {@link #anchors}, as (x,y) pairs. */
+    private volatile int[] anchorCentres = new int[0];
+    /** Incremented whenever {@link #anchorCentres} is updated, or the tasks
+     * otherwise need reprioritising. */
+    private final AtomicInteger anchorsVersion = new AtomicInteger();
+
+
+    /**
+     * @param executor The executor on which to run tasks.
+     */
+    public RegionTaskScheduler(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Schedules a task which loads or generates a region.
+     *
+     * @param r The region the task is for.
+     * @param task The task.
+     *
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    @UserThread("Any")
+    public void execute(Region r, Runnable task) {
+        synchronized(this) {
+            // Prioritise against the current anchors. If they've moved since
+            // the queue was last prioritised, anchorsVersion is still ahead of
+            // tasksVersion, so runNext() recomputes this task's priority
+            // along with the rest.
+            int[] centres = anchorCentres;
+            tasks.add(new Task(r, task, priorityOf(r, centres), nextSeq++));
+        }
+        executor.execute(this::runNext);
+    }
+
+    /**
+     * Runs the highest priority task. Each task submitted to the executor
+     * invokes this once, so there is always a task to run.
+     */
+    @UserThread("WorkerThread")
+    private void runNext() {
+        Task t;
+        synchronized(this) {
+            int version = anchorsVersion.get();
+            if(version != tasksVersion) {
+                tasksVersion = version;
+                reprioritise(anchorCentres);
+            }
+            t = tasks.poll();
+        }
+        if(t != null)
+            t.task.run();
+    }
+
+    @GuardedBy("this")
+    private void reprioritise(int[] centres) {
+        List<Task> list = new ArrayList<>(tasks);
+        for(Task t : list)
+            t.priority = priorityOf(t.region, centres);
+        tasks = new PriorityQueue<>(list);
+    }
+
+    private static long priorityOf(Region r, int[] centres) {
+        long penalty = r.state.isPrefetched() ? PREFETCH_PENALTY : 0;
+        if(centres.length == 0)
+            return penalty;
+        long x = r.x() * Region.REGION_SIZE + Region.REGION_SIZE / 2;
+        long y = r.y() * Region.REGION_SIZE + Region.REGION_SIZE / 2;
+        long best = Long.MAX_VALUE;
+        for(int i = 0; i < centres.length; i += 2) {
+            long dx = centres[i] - x;
+            long dy = centres[i+1] - y;
+            best = Math.min(best, dx*dx + dy*dy);
+        }
+        return best + penalty;
+    }
+
+    /**
+     * Returns the number of tasks waiting to be run.
+     */
+    @UserThread("Any")
+    public synchronized int pending() {
+        return tasks.size();
+    }
+
+    /**
+     * Sets the centre of an anchorer, adding it if it isn't already present.
+     *
+     * @param anchorer The anchorer.
+     * @param x The x-coordinate of the centre, in slice-lengths.
+     * @param y The y-coordinate of the centre, in slice-lengths.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    public void setAnchor(Object anchorer, int x, int y) {
+        anchors.put(anchorer, ((long)x << 32) | (y & 0xFFFFFFFFL));
+        publishAnchors();
+    }
+
+    /**
+     * Removes an anchorer. Does nothing if it isn't present.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    public void removeAnchor(Object anchorer) {
+        if(anchors.remove(anchorer) != null)
+            publishAnchors();
+    }
+
+    /**
+     * Has every pending task reprioritised before the next one is picked. This
+     * should be invoked when a region stops being {@link
+     * RegionState#isPrefetched() prefetched}.
+     */
+    @UserThread("Any")
+    public void invalidatePriorities() {
+        anchorsVersion.incrementAndGet();
+    }
+
+    private void publishAnchors() {
+        int[] centres = new int[anchors.size() * 2];
+        int i = 0;
+        for(long c : anchors.values()) {
+            centres[i++] = (int)(c >> 32);
+            centres[i++] = (int)c;
+        }
+        anchorCentres = centres;
+        anchorsVersion.incrementAndGet();
+    }
+
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+
+    private static class Task implements Comparable<Task> {
+
+        final Region region;
+        final Runnable task;
+        long priority;
+        final long seq;
+
+        Task(Region region, Runnable task, long priority, long seq) {
+            this.region = region;
+            this.task = task;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            int c = Long.compare(priority, o.priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+
+    }
+
+}
@@ -1,6 +1,10 @@
 package com.stabilise.world;
 
 import com.stabilise.entity.Position;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.collect.PalettedIntArray;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.Format;
 import com.stabilise.util.maths.Maths;
 import com.stabilise.world.tile.Tile;
 import com.stabilise.world.tile.Tiles;
@@ -22,6 +26,8 @@ public class Slice {
     public static final int SLICE_SIZE_MINUS_ONE = SLICE_SIZE - 1;
     /** The power of 2 of {@link SLICE_SIZE}; minor optimisation purposes. */
     public static final int SLICE_SIZE_SHIFT = Maths.log2(SLICE_SIZE);
+    /** The number of tiles in a slice. */
+    public static final int TILES_PER_SLICE = SLICE_SIZE * SLICE_SIZE;
     /** See {@link Position#tileCoordRelativeToSliceFromTileCoordFree(double)}. */
     public static final double SLICE_SIZE_MINUS_EPSd = 15.9999995d; // TODO: calculate better epsilon
     /** See {@link Position#tileCoordRelativeToSliceFromTileCoordFree2(float)}. */
@@ -39,21 +45,31 @@ public class Slice {
     public final int x, y;
     
     /** The tiles within this slice. This is visible for convenience purposes.
-     * <br>Tiles are indexed in the form [y][x]. */
-    public final int[][] tiles;
+     * <br>Tiles are stored in a palette, since most slices only contain a
+     * handful of distinct tiles, and are indexed in the form {@code y *
+     * SLICE_SIZE + x}. */
+    public final PalettedIntArray tiles;
     /** The walls within this slice. Visible for convenience purposes.
-     * <br>Indexed in the form [y][x]. */
-    public final int[][] walls;
+     * <br>Stored and indexed in the same manner as {@link #tiles}. */
+    public final PalettedIntArray walls;
     /** The light levels within this slice.
-     * <br>Indexed in the form [y][x]. */
-    public final byte[][] light;
+     * <br>Indexed in the same manner as {@link #tiles}. */
+    public final byte[] light;
     
     /** The tile entities within the slice. This is public for convenience
      * purposes, but should generally not be interacted with.
-     * <br>Tile entities are indexed in the form [y][x].
+     * <br>Indexed in the same manner as {@link #tiles}.
      * <br>This is lazily initialised - that is, {@code null} until a tile
      * entity is added to this slice. */
-    public TileEntity[][] tileEntities;
+    public TileEntity[] tileEntities;
+    
+    /** The snapshot which is waiting on a copy of this slice as it was when
+     * the snapshot was taken, if any. See {@link WorldSnapshot}. */
+    private volatile WorldSnapshot.FrozenRegion snapshot = null;
+    /** The region which holds this slice, and which is told whenever this
+     * slice is modified so that it gets saved. {@code null} until this slice
+     * has been placed in a region. */
+    private volatile Region owner = null;
     
     
     /**
@@ -63,31 +79,33 @@ public class Slice {
      * @param y The y-coordinate of the slice, in slice-lengths.
      */
     public Slice(int x, int y) {
-        this(x, y, new int[SLICE_SIZE][SLICE_SIZE], new int[SLICE_SIZE][SLICE_SIZE],
-                new byte[SLICE_SIZE][SLICE_SIZE]);
+        this.x = x;
+        this.y = y;
+        this.tiles = new PalettedIntArray(TILES_PER_SLICE);
+        this.walls = new PalettedIntArray(TILES_PER_SLICE);
+        this.light = new byte[TILES_PER_SLICE];
     }
     
     /**
-     * Creates a new slice. It is implicitly trusted that the given arrays are
-     * legal.
+     * Creates a new slice. The given tile and wall arrays are packed into
+     * their respective storage formats; {@code light} is not copied.
      * 
      * @param x The x-coordinate of the slice, in slice-lengths.
      * @param y The y-coordinate of the slice, in slice-lengths.
      * @param tiles The slice's tiles.
      * @param walls The slice's walls.
      * @param light The slice's light values.
+     * 
+     * @throws NullPointerException if any array is {@code null}.
+     * @throws IllegalArgumentException if any array is of the wrong length.
      */
-    public Slice(int x, int y, int[][] tiles, int[][] walls, byte[][] light) {
-        this.x = x;
-        this.y = y;
-        this.tiles = tiles;
-        this.walls = walls;
-        this.light = light;
+    public Slice(int x, int y, int[] tiles, int[] walls, byte[] light) {
+        this(x, y, new PalettedIntArray(tiles), new PalettedIntArray(walls), light);
     }
     
     /**
-     * Creates a new slice. The given arrays are unpacked into their respective
-     * 2D arrays.
+     * Creates a new slice which uses the given arrays as its storage; they are
+     * not copied.
      * 
      * @param x The x-coordinate of the slice, in slice-lengths.
      * @param y The y-coordinate of the slice, in slice-lengths.
@@ -95,10 +113,19 @@ public class Slice {
      * @param walls The slice's walls.
      * @param light The slice's light values.
      * 
-     * @throws NullPointerException if {@code tiles} is {@code null}.
+     * @throws NullPointerException if any argument is {@code null}.
+     * @throws IllegalArgumentException if any argument is of the wrong length.
      */
-    public Slice(int x, int y, int[] tiles, int[] walls, byte[] light) {
-        this(x, y, to2DArray(tiles), to2DArray(walls), to2DArray(light));
+    public Slice(int x, int y, PalettedIntArray tiles, PalettedIntArray walls,
+            byte[] light) {
+        if(tiles.length() != TILES_PER_SLICE || walls.length() != TILES_PER_SLICE
+                || light.length != TILES_PER_SLICE)
+            throw new IllegalArgumentException("Invalid slice array length");
+        this.x = x;
+        this.y = y;
+        this.tiles = tiles;
+        this.walls = walls;
+        this.light = light;
     }
     
     /**
@@ -114,7 +141,7 @@ public class Slice {
      * >= }{@link SLICE_SIZE}.
      */
     public Tile getTileAt(int x, int y) {
-        return Tile.getTile(tiles[y][x]);
+        return Tile.getTile(getTileIDAt(x, y));
     }
     
     /**
@@ -126,12 +153,11 @@ public class Slice {
      * @param y The y-coordinate of the tile relative to this slice, in
      * tile-lengths.
      * 
-     * @return The ID of the tile at the specified coordinates.
-     * @throws ArrayIndexOutOfBoundsException if either x or y is {@code < 0 ||
-     * >= }{@link SLICE_SIZE}.
+     * @return The ID of the tile at the specified coordinates. The result is
+     * undefined if either x or y is {@code < 0 || >= }{@link SLICE_SIZE}.
      */
     public int getTileIDAt(int x, int y) {
-        return tiles[y][x];
+        return tiles.get(index(x, y));
     }
     
     /**
@@ -164,7 +190,9 @@ public class Slice {
      * >= }{@link SLICE_SIZE}.
      */
     public void setTileIDAt(int x, int y, int tileID) {
-        tiles[y][x] = tileID;
+        beforeWrite();
+        tiles.set(index(x, y), tileID);
+        afterWrite();
     }
     
     public Tile getWallAt(int x, int y) {
@@ -172,7 +200,7 @@ public class Slice {
     }
     
     public int getWallIDAt(int x, int y) {
-        return walls[y][x];
+        return walls.get(index(x, y));
     }
     
     public void setWallAt(int x, int y, Tile tile) {
@@ -180,15 +208,98 @@ public class Slice {
     }
     
     public void setWallIDAt(int x, int y, int tileID) {
-        walls[y][x] = tileID;
+        beforeWrite();
+        walls.set(index(x, y), tileID);
+        afterWrite();
+    }
+    
+    /**
+     * Sets every tile in a rectangle of this slice. This is equivalent to, but
+     * faster than, invoking {@link #setTileIDAt(int, int, int)} for each tile
+     * in the rectangle.
+     * 
+     * @param x The x-coordinate of the left of the rectangle relative to the
+     * slice, in tile-lengths.
+     * @param y The y-coordinate of the bottom of the rectangle relative to the
+     * slice, in tile-lengths.
+     * @param width The width of the rectangle, in tile-lengths.
+     * @param height The height of the rectangle, in tile-lengths.
+     * @param tileID The ID of the tile.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if the rectangle doesn't lie
+     * within the slice.
+     */
+    public void fillTiles(int x, int y, int width, int height, int tileID) {
+        fill(tiles, x, y, width, height, tileID);
+    }
+    
+    /**
+     * Sets every wall in a rectangle of this slice.
+     * 
+     * @see #fillTiles(int, int, int, int, int)
+     */
+    public void fillWalls(int x, int y, int width, int height, int tileID) {
+        fill(walls, x, y, width, height, tileID);
+    }
+    
+    /**
+     * Sets the tiles and walls of this slice from arrays of IDs, indexed as
+     * per {@link #index(int, int)}. This is equivalent to, but faster than,
+     * setting each tile and wall in turn; an array which sets every element
+     * is packed in one go.
+     * 
+     * @param tileIDs The IDs of the tiles. May be {@code null} to leave the
+     * tiles as they are, and any element may be {@link
+     * WorldProvider#NO_CHANGE} to leave that tile as it is.
+     * @param wallIDs The IDs of the walls, as per {@code tileIDs}.
+     * 
+     * @throws IllegalArgumentException if either array is not of length
+     * {@link #TILES_PER_SLICE}.
+     */
+    public void setTiles(int[] tileIDs, int[] wallIDs) {
+        if((tileIDs != null && tileIDs.length != TILES_PER_SLICE)
+                || (wallIDs != null && wallIDs.length != TILES_PER_SLICE))
+            throw new IllegalArgumentException("Invalid slice array length");
+        beforeWrite();
+        if(tileIDs != null)
+            setAll(tiles, tileIDs);
+        if(wallIDs != null)
+            setAll(walls, wallIDs);
+        afterWrite();
+    }
+    
+    private static void setAll(PalettedIntArray arr, int[] ids) {
+        for(int id : ids) {
+            if(id == WorldProvider.NO_CHANGE) {
+                for(int i = 0; i < TILES_PER_SLICE; i++)
+                    if(ids[i] != WorldProvider.NO_CHANGE)
+                        arr.set(i, ids[i]);
+                return;
+            }
+        }
+        arr.setAll(ids);
+    }
+    
+    private void fill(PalettedIntArray arr, int x, int y, int width, int height, int id) {
+        beforeWrite();
+        if(width == SLICE_SIZE && height == SLICE_SIZE) {
+            arr.fill(id); // drops the packed data entirely
+        } else {
+            for(int ty = y; ty < y + height; ty++)
+                for(int tx = x; tx < x + width; tx++)
+                    arr.set(index(tx, ty), id);
+        }
+        afterWrite();
     }
     
     public byte getLightAt(int x, int y) {
-        return light[y][x];
+        return light[index(x, y)];
     }
     
     public void setLightAt(int x, int y, byte level) {
-        light[y][x] = level;
+        beforeWrite();
+        light[index(x, y)] = level;
+        afterWrite();
     }
     
     public void updateLight(int x, int y) {
@@ -230,7 +341,7 @@ public class Slice {
      * greater than 15.
      */
     public TileEntity getTileEntityAt(int x, int y) {
-        return tileEntities == null ? null : tileEntities[y][x];
+        return tileEntities == null ? null : tileEntities[index(x, y)];
     }
     
     /**
@@ -247,41 +358,29 @@ public class Slice {
      * greater than 15.
      */
     public void setTileEntityAt(int x, int y, TileEntity tileEntity) {
+        beforeWrite();
         if(tileEntity != null)
             initTileEntities();
-        tileEntities[y][x] = tileEntity;
-    }
-    
-    public static int[] to1DArray(int[][] sliceData) {
-        int[] arr = new int[SLICE_SIZE * SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData[r], 0, arr, r * SLICE_SIZE, SLICE_SIZE);
-        return arr;
-    }
-    
-    public static byte[] to1DArray(byte[][] sliceData) {
-        byte[] arr = new byte[SLICE_SIZE * SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData[r], 0, arr, r * SLICE_SIZE, SLICE_SIZE);
-        return arr;
+        if(tileEntities != null)
+            tileEntities[index(x, y)] = tileEntity;
+        afterWrite();
     }
     
     /**
-     * Converts the specified int array into the 2D int array format used to
-     * store tiles.
+     * Gets the index of the tile at the specified coordinates relative to a
+     * slice in {@link #tiles}, {@link #walls}, {@link #light} and {@link
+     * #tileEntities}.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if either x or y is {@code < 0 ||
+     * >= }{@link SLICE_SIZE}.
      */
-    private static int[][] to2DArray(int[] sliceData) {
-        int[][] arr = new int[SLICE_SIZE][SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData, r*SLICE_SIZE, arr[r], 0, SLICE_SIZE);
-        return arr;
-    }
-    
-    private static byte[][] to2DArray(byte[] sliceData) {
-        byte[][] arr = new byte[SLICE_SIZE][SLICE_SIZE];
-        for(int r = 0; r < SLICE_SIZE; r++)
-            System.arraycopy(sliceData, r*SLICE_SIZE, arr[r], 0, SLICE_SIZE);
-        return arr;
+    public static int index(int x, int y) {
+        // Without this, coordinates out of range would silently alias another
+        // tile rather than throwing as the accessors promise
+        if(((x | y) & ~SLICE_SIZE_MINUS_ONE) != 0)
+            throw new ArrayIndexOutOfBoundsException("Tile " + x + "," + y
+                    + " is not in a slice");
+        return (y << SLICE_SIZE_SHIFT) | x;
     }
     
     /**
@@ -289,7 +388,7 @@ public class Slice {
      */
     public void initTileEntities() {
         if(tileEntities == null)
-            tileEntities = new TileEntity[SLICE_SIZE][SLICE_SIZE];
+            tileEntities = new TileEntity[TILES_PER_SLICE];
     }
     
     /**
@@ -305,12 +404,10 @@ public class Slice {
     void importTileEntities(AbstractWorld world) {
         if(tileEntities == null)
             return;
-        for(int r = 0; r < SLICE_SIZE; r++) {
-            for(int c = 0; c < SLICE_SIZE; c++) {
-                if(tileEntities[r][c] != null) {
-                    tileEntities[r][c].handleAdd(world);
-                    world.addTileEntityToUpdateList(tileEntities[r][c]);
-                }
+        for(TileEntity t : tileEntities) {
+            if(t != null) {
+                t.handleAdd(world);
+                world.addTileEntityToUpdateList(t);
             }
         }
     }
@@ -346,6 +443,103 @@ public class Slice {
         if(y < SLICE_SIZE-1) spreadLightTo(x  , y+1, level, false);
     }
     
+    /**
+     * Returns a deep copy of this slice. Tile entities are copied by exporting
+     * and reimporting them.
+     */
+    public Slice copy() {
+        Slice s = new Slice(x, y, tiles.copy(), walls.copy(), light.clone());
+        if(tileEntities != null) {
+            for(TileEntity t : tileEntities) {
+                if(t != null) {
+                    DataCompound c = Format.NBT.newCompound();
+                    t.exportToCompound(c);
+                    TileEntity te = TileEntity.createFromCompound(c);
+                    s.setTileEntityAt(te.pos.ltx(), te.pos.lty(), te);
+                }
+            }
+        }
+        return s;
+    }
+    
+    /**
+     * Returns a copy of this slice's tiles, walls and light, without its tile
+     * entities. Unlike {@link #copy()}, this may be invoked while another
+     * thread is modifying this slice (see {@link PalettedIntArray#snapshot()}).
+     * A tile being set while the copy is taken may come out wrong, but since
+     * a write flags this slice as modified only once it is done, the next
+     * save of the region corrects it.
+     */
+    @UserThread("Any")
+    public Slice copyTerrain() {
+        return new Slice(x, y, tiles.snapshot(), walls.snapshot(), light.clone());
+    }
+    
+    /**
+     * Invoked before this slice is modified, so that a snapshot still waiting
+     * on this slice gets it as it was.
+     */
+    private void beforeWrite() {
+        // snapshot stays set until the copy has been handed over, so a write
+        // racing with freeze() sees it and waits on the lock for the copy.
+        if(snapshot != null)
+            freeze();
+    }
+    
+    /**
+     * Invoked once this slice has been modified, so that the region holding
+     * it knows to save it. This comes after the write so that a save which
+     * copies this slice mid-write is always followed by another.
+     */
+    private void afterWrite() {
+        Region r = owner;
+        if(r != null)
+            r.markSliceDirty(x - r.offsetX, y - r.offsetY);
+    }
+    
+    /**
+     * Sets the region which holds this slice. Modifications made through this
+     * slice from then on flag it as modified in that region.
+     */
+    void setOwner(Region r) {
+        owner = r;
+    }
+    
+    /**
+     * Marks this slice as awaited by the given snapshot. Until {@link
+     * #freeze()} is invoked, the first modification to this slice hands the
+     * snapshot a copy of it.
+     */
+    @UserThread("MainThread")
+    void awaitSnapshot(WorldSnapshot.FrozenRegion s) {
+        snapshot = s;
+    }
+    
+    /**
+     * Hands a copy of this slice to the snapshot waiting on it, if there is
+     * one. A modification racing with this waits until the copy is made.
+     */
+    @UserThread("Any")
+    synchronized void freeze() {
+        WorldSnapshot.FrozenRegion s = snapshot;
+        if(s != null) {
+            try {
+                s.setFrozen(this, copy());
+            } finally {
+                snapshot = null;
+            }
+        }
+    }
+    
+    /**
+     * Stops the given snapshot from waiting on this slice.
+     */
+    @UserThread("Any")
+    synchronized void releaseSnapshot(WorldSnapshot.FrozenRegion s) {
+        if(snapshot == s)
+            snapshot = null;
+    }
+    
     @Override
     public String toString() {
         return "Slice[" + x + "," + y + "]";
@@ -362,21 +556,17 @@ public class Slice {
     private static class DummySlice extends Slice {
         
         public DummySlice() {
-            super(0, 0, new int[SLICE_SIZE][SLICE_SIZE],
-                    new int[SLICE_SIZE][SLICE_SIZE],
-                    new byte[SLICE_SIZE][SLICE_SIZE]);
-            
-            for(int y = 0; y < SLICE_SIZE; y++) {
-                for(int x = 0; x < SLICE_SIZE; x++) {
-                    tiles[y][x] = Tiles.barrier.getID();
-                }
-            }
+            super(0, 0);
+            tiles.fill(Tiles.barrier.getID());
         }
         
         @Override public int  getTileIDAt(int x, int y) { return 0; }
         @Override public void setTileIDAt(int x, int y, int tileID) {}
         @Override public int  getWallIDAt(int x, int y) { return 0; }
         @Override public void setWallIDAt(int x, int y, int tileID) {}
+        @Override public void fillTiles(int x, int y, int w, int h, int tileID) {}
+        @Override public void fillWalls(int x, int y, int w, int h, int tileID) {}
+        @Override public void setTiles(int[] tileIDs, int[] wallIDs) {}
         @Override public byte getLightAt(int x, int y) { return 0; }
         @Override public void setLightAt(int x, int y, byte level) {}
         @Override public TileEntity getTileEntityAt(int x, int y) { return null; }
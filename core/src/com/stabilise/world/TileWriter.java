@@ -0,0 +1,155 @@
+package com.stabilise.world;
+
+import static com.stabilise.world.Slice.SLICE_SIZE;
+import static com.stabilise.world.WorldProvider.NO_CHANGE;
+
+import java.util.NoSuchElementException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.stabilise.entity.Position;
+
+/**
+ * A cursor which writes tiles and walls by ID over a rectangle of the world,
+ * one tile at a time. The cursor starts at the bottom-left of the rectangle
+ * and moves along each row from left to right, then up to the next row.
+ * 
+ * <p>The cursor only looks up a slice when it crosses into it, so writing
+ * through one is much cheaper than setting each tile through a {@link
+ * Position}. As with {@link WorldProvider#fill(Position, int, int, int, int)
+ * fill()}, tiles aren't notified of being placed or removed. Writes go
+ * straight to the slices, which flag themselves as modified in their region
+ * so that they are saved.
+ * 
+ * @see WorldProvider#writer(Position, int, int)
+ */
+@NotThreadSafe
+public final class TileWriter {
+    
+    private final WorldProvider w;
+    private final int width, height;
+    /** The slice and local x-coordinates of the left of the rectangle. */
+    private final int startSX, startLX;
+    
+    /** The position of the cursor relative to the bottom-left of the
+     * rectangle. */
+    private int x = 0, y = 0;
+    /** The slice and local coordinates of the cursor. */
+    private int sx, sy, lx, ly;
+    /** The slice the cursor is in. null once the rectangle is done. */
+    private Slice slice;
+    
+    
+    /**
+     * Creates a new writer.
+     * 
+     * @param w The provider to write to.
+     * @param origin The bottom-left of the rectangle. This must be {@link
+     * Position#align() aligned}.
+     * @param width The width of the rectangle, in tile-lengths.
+     * @param height The height of the rectangle, in tile-lengths.
+     * 
+     * @throws NullPointerException if either {@code w} or {@code origin} is
+     * null.
+     * @throws IllegalArgumentException if {@code width < 0 || height < 0}.
+     */
+    public TileWriter(WorldProvider w, Position origin, int width, int height) {
+        if(width < 0 || height < 0)
+            throw new IllegalArgumentException("Negative dimensions");
+        this.w = w;
+        this.width = width;
+        this.height = height;
+        
+        sx = startSX = origin.sx();
+        lx = startLX = origin.ltx();
+        sy = origin.sy();
+        ly = origin.lty();
+        slice = width == 0 || height == 0 ? null : w.getSliceAt(sx, sy);
+    }
+    
+    /**
+     * Returns {@code true} if the cursor hasn't yet moved past the end of the
+     * rectangle.
+     */
+    public boolean hasNext() {
+        return slice != null;
+    }
+    
+    /**
+     * Gets the x-coordinate of the cursor, relative to the left of the
+     * rectangle.
+     */
+    public int x() {
+        return x;
+    }
+    
+    /**
+     * Gets the y-coordinate of the cursor, relative to the bottom of the
+     * rectangle.
+     */
+    public int y() {
+        return y;
+    }
+    
+    /**
+     * Sets the tile and wall at the cursor, and moves the cursor on.
+     * 
+     * @param tileID The ID of the tile, or {@link WorldProvider#NO_CHANGE} to
+     * leave the tile as it is.
+     * @param wallID The ID of the wall, or {@code NO_CHANGE} to leave the
+     * wall as it is.
+     * 
+     * @return This writer.
+     * @throws NoSuchElementException if the whole rectangle has already been
+     * written.
+     */
+    public TileWriter put(int tileID, int wallID) {
+        if(slice == null)
+            throw new NoSuchElementException();
+        if(tileID != NO_CHANGE)
+            slice.setTileIDAt(lx, ly, tileID);
+        if(wallID != NO_CHANGE)
+            slice.setWallIDAt(lx, ly, wallID);
+        advance();
+        return this;
+    }
+    
+    /**
+     * Moves the cursor on, leaving the tile and wall it was on as they are.
+     * 
+     * @return This writer.
+     * @throws NoSuchElementException if the whole rectangle has already been
+     * written.
+     */
+    public TileWriter skip() {
+        if(slice == null)
+            throw new NoSuchElementException();
+        advance();
+        return this;
+    }
+    
+    private void advance() {
+        if(++x < width) {
+            if(++lx == SLICE_SIZE) {
+                lx = 0;
+                slice = w.getSliceAt(++sx, sy);
+            }
+            return;
+        }
+        
+        // Next row
+        x = 0;
+        if(++y == height) {
+            slice = null;
+            return;
+        }
+        sx = startSX;
+        lx = startLX;
+        if(++ly == SLICE_SIZE) {
+            ly = 0;
+            sy++;
+        }
+        slice = w.getSliceAt(sx, sy);
+    }
+    
+}
@@ -0,0 +1,139 @@
+package com.stabilise.world;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.annotation.UserThread;
+
+/**
+ * Holds on to regions which have recently been unloaded and saved, so that a
+ * region which is needed again shortly after being unloaded -- e.g., when a
+ * player wanders back and forth across a region boundary -- can be put back
+ * into the world without reading it back from disk.
+ *
+ * <p>Regions are kept in least-recently-unloaded order. Once the estimated
+ * size of the regions held exceeds the byte budget, the oldest regions are
+ * evicted until it no longer does.
+ *
+ * <p>A region taken from this cache is removed from it, so that there is never
+ * more than one live copy of a region.
+ */
+@ThreadSafe
+class UnloadedRegionCache {
+
+    /** Maps region.key -> entry. Iteration order is the order in which the
+     * regions were put. */
+    @GuardedBy("this") private final Map<Long, Entry> regions = new LinkedHashMap<>();
+    /** The estimated total size of all regions in {@link #regions}. */
+    @GuardedBy("this") private long size = 0;
+    @GuardedBy("this") private long budget;
+
+    private final WorldStatistics.CacheStats stats;
+
+
+    /**
+     * @param budget The maximum estimated size, in bytes, of all regions held.
+     * @param stats The stats to record hits and misses to.
+     */
+    UnloadedRegionCache(long budget, WorldStatistics.CacheStats stats) {
+        this.budget = budget;
+        this.stats = stats;
+    }
+
+    /**
+     * Puts a region in this cache. The region should have just been saved
+     * and removed from the RegionStore. If this would put us over budget,
+     * older regions are evicted; if the region on its own is over budget, it
+     * is not put in at all.
+     */
+    @UserThread("Any")
+    synchronized void put(Region r) {
+        long rSize = r.estimateSize();
+        if(rSize > budget) {
+            stats.evictions.increment();
+            return;
+        }
+
+        Entry old = regions.put(r.key, new Entry(r, rSize));
+        if(old != null)
+            size -= old.size;
+        size += rSize;
+        trim();
+    }
+
+    /**
+     * Removes and returns the region with the given {@link Region#key key},
+     * and counts a hit or miss as appropriate.
+     *
+     * @return The region, or {@code null} if it isn't in this cache.
+     */
+    @UserThread("Any")
+    synchronized Region take(long key) {
+        Entry e = regions.remove(key);
+        if(e == null) {
+            stats.misses.increment();
+            return null;
+        }
+        stats.hits.increment();
+        size -= e.size;
+        return e.region;
+    }
+
+    /**
+     * Returns the region with the given {@link Region#key key} without
+     * removing it, and without counting a hit or miss.
+     *
+     * @return The region, or {@code null} if it isn't in this cache.
+     */
+    @UserThread("Any")
+    synchronized Region peek(long key) {
+        Entry e = regions.get(key);
+        return e == null ? null : e.region;
+    }
+
+    /**
+     * Sets the byte budget of this cache, evicting regions if necessary.
+     */
+    @UserThread("Any")
+    synchronized void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    /**
+     * Evicts every region.
+     */
+    @UserThread("Any")
+    synchronized void clear() {
+        stats.evictions.add(regions.size());
+        regions.clear();
+        size = 0;
+    }
+
+    @GuardedBy("this")
+    private void trim() {
+        Iterator<Entry> itr = regions.values().iterator();
+        while(size > budget && itr.hasNext()) {
+            size -= itr.next().size;
+            itr.remove();
+            stats.evictions.increment();
+        }
+    }
+
+    private static class Entry {
+
+        final Region region;
+        final long size;
+
+        Entry(Region region, long size) {
+            this.region = region;
+            this.size = size;
+        }
+
+    }
+
+}
@@ -239,6 +239,57 @@ public interface World extends WorldProvider {
     @ThreadUnsafeMethod
     void deanchorSlice(int x, int y);
     
+    /**
+     * Hints that a slice is likely to be anchored soon, e.g. because an
+     * anchorer is moving towards it. For a {@link HostWorld}, this will
+     * attempt to load and generate the slice's parent region once the
+     * regions of anchored slices have been taken care of, so that it is
+     * ready by the time it is anchored. Unlike an anchor, a prefetch doesn't
+     * need to be removed; if the slice is never anchored, its region is
+     * unloaded in due course.
+     * 
+     * @param x The x-coordinate of the slice, in slice lengths.
+     * @param y The y-coordinate of the slice, in slice lengths.
+     * 
+     * @return {@code true} if the slice is being prefetched; {@code false} if
+     * it has no need to be (e.g., it is already loaded).
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    boolean prefetchSlice(int x, int y);
+    
+    /**
+     * Cancels a prefetch made via {@link #prefetchSlice(int, int)}, if the
+     * slice isn't already loaded nor anchored.
+     * 
+     * @param x The x-coordinate of the slice, in slice lengths.
+     * @param y The y-coordinate of the slice, in slice lengths.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    void cancelPrefetchSlice(int x, int y);
+    
+    /**
+     * Sets the centre of the slices anchored by an anchorer. For a {@link
+     * HostWorld}, regions nearest to an anchorer are loaded and generated
+     * first.
+     * 
+     * @param anchorer The anchorer; typically a slice anchorer component.
+     * @param x The x-coordinate of the centre, in slice lengths.
+     * @param y The y-coordinate of the centre, in slice lengths.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    void setAnchorCentre(Object anchorer, int x, int y);
+    
+    /**
+     * Removes an anchorer whose centre was set via {@link
+     * #setAnchorCentre(Object, int, int)}.
+     */
+    @UserThread("MainThread")
+    @ThreadUnsafeMethod
+    void removeAnchorCentre(Object anchorer);
+    
     // ========== Time delta stuff ==========
     
     /**
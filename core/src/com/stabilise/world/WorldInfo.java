@@ -84,7 +84,14 @@ public class WorldInfo implements Comparable<WorldInfo> {
      */
     public void save() throws IOException {
         lastPlayedDate = System.currentTimeMillis();
-        
+        IOUtil.writeSafe(getFile(), toCompound(), Compression.GZIP);
+    }
+    
+    /**
+     * Exports this world info to a new compound, in the form in which it is
+     * {@link #save() saved}.
+     */
+    public DataCompound toCompound() {
         DataCompound infoTag = Format.NBT.newCompound();
         
         infoTag.put("worldName", name);
@@ -94,9 +101,9 @@ public class WorldInfo implements Comparable<WorldInfo> {
         infoTag.put("creationDate", creationDate);
         infoTag.put("lastPlayed", lastPlayedDate);
         
-        infoTag.put("format", worldFormat);
+        infoTag.put("format", worldFormat.copy());
         
-        IOUtil.writeSafe(getFile(), infoTag, Compression.GZIP);
+        return infoTag;
     }
     
     /**
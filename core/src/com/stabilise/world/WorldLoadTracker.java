@@ -25,6 +25,13 @@ public class WorldLoadTracker {
         total++;
     }
     
+    /**
+     * Indicates that a number of new loading operations have begun.
+     */
+    public synchronized void startLoadOps(long n) {
+        total += n;
+    }
+    
     /**
      * Indicates that a loading operation has ended.
      */
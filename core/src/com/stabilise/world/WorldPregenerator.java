@@ -0,0 +1,277 @@
+package com.stabilise.world;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.Checks;
+import com.stabilise.util.Log;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.io.IOUtil;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.Format;
+
+/**
+ * Generates a rectangle of regions of a world ahead of time, e.g. around the
+ * spawn before opening a server, without needing anything in the world to
+ * anchor them.
+ *
+ * <p>Regions are generated in rings outward from the centre of the
+ * rectangle, on the world's worker threads, with at most a fixed number of
+ * them in flight at a time so as not to flood memory. Each region is saved as
+ * soon as it is done, and not kept around; see {@link
+ * RegionStore#pregenerateRegion(int, int, RegionStore.RegionCallback)}.
+ * Progress is reported through {@link #tracker}.
+ *
+ * <p>Which regions are done is periodically written to a checkpoint file in
+ * the world's directory, so that if pregeneration is stopped or the process
+ * dies, running it again for the same rectangle picks up where it left off.
+ * The checkpoint is deleted once every region is done.
+ */
+@ThreadSafe
+public class WorldPregenerator {
+
+    /** The name of the checkpoint file in the world's directory. */
+    private static final String FILE_CHECKPOINT = "pregen";
+    /** Number of regions completed between each checkpoint. */
+    private static final int CHECKPOINT_INTERVAL = 64;
+
+    private final HostWorld world;
+    private final int minX, minY, width, height;
+    private final int maxInFlight;
+
+    /** Bounds the number of regions in flight. */
+    private final Semaphore inFlight;
+    /** Bit {@code y * width + x} is set iff the region at {@code (minX + x,
+     * minY + y)} is done. */
+    @GuardedBy("done") private final BitSet done;
+    @GuardedBy("done") private int sinceCheckpoint = 0;
+    private final AtomicInteger failed = new AtomicInteger();
+    @GuardedBy("done") private boolean started = false;
+    private volatile boolean stopped = false;
+
+    /** Tracks the regions this pregenerator has yet to generate. */
+    public final WorldLoadTracker tracker = new WorldLoadTracker();
+
+    private final Log log;
+
+
+    /**
+     * Creates a new pregenerator for the given rectangle of regions, which
+     * has at most twice as many regions in flight as there are processors.
+     *
+     * @param world The world.
+     * @param minX The x-coordinate of the leftmost column of regions, in
+     * region-lengths.
+     * @param minY The y-coordinate of the bottom row of regions, in
+     * region-lengths.
+     * @param maxX The x-coordinate of the rightmost column of regions,
+     * inclusive.
+     * @param maxY The y-coordinate of the top row of regions, inclusive.
+     *
+     * @throws NullPointerException if {@code world} is {@code null}.
+     * @throws IllegalArgumentException if {@code maxX < minX}, {@code maxY <
+     * minY}, or the rectangle has more than {@code Integer.MAX_VALUE}
+     * regions.
+     */
+    public WorldPregenerator(HostWorld world, int minX, int minY, int maxX, int maxY) {
+        this(world, minX, minY, maxX, maxY,
+                2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new pregenerator for the given rectangle of regions.
+     *
+     * @param maxInFlight The maximum number of regions to have loading,
+     * generating or saving at once.
+     *
+     * @throws IllegalArgumentException if {@code maxInFlight < 1}, or
+     * otherwise as per {@link #WorldPregenerator(HostWorld, int, int, int,
+     * int)}.
+     * @see #WorldPregenerator(HostWorld, int, int, int, int)
+     */
+    public WorldPregenerator(HostWorld world, int minX, int minY, int maxX,
+            int maxY, int maxInFlight) {
+        this.world = world;
+        this.minX = minX;
+        this.minY = minY;
+        long w = (long)maxX - minX + 1;
+        long h = (long)maxY - minY + 1;
+        if(w < 1 || h < 1 || w * h > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Bad rectangle: (" + minX + ","
+                    + minY + ") to (" + maxX + "," + maxY + ")");
+        this.width = (int)w;
+        this.height = (int)h;
+        this.maxInFlight = Checks.testMin(maxInFlight, 1);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.done = new BitSet(width * height);
+
+        log = Log.getAgent(world.getDimensionName() + "_Pregenerator");
+    }
+
+    /**
+     * Pregenerates every region not already done, blocking until they are
+     * all done or this pregenerator is {@link #stop() stopped}.
+     *
+     * @return {@code true} if every region is done; {@code false} if this
+     * pregenerator was stopped first, or some regions failed to generate (in
+     * which case they will be retried if this is run again).
+     * @throws IllegalStateException if this has already been run.
+     * @throws InterruptedException if the current thread was interrupted
+     * while waiting on regions. The checkpoint is still written.
+     */
+    @UserThread("Any")
+    public boolean run() throws InterruptedException {
+        // The world's loaders and generators are set up by its preload job,
+        // which may still be running.
+        world.preloadJob.run();
+
+        synchronized(done) {
+            if(started)
+                throw new IllegalStateException("Already run");
+            started = true;
+            readCheckpoint();
+        }
+
+        int[] order = pendingRegions();
+        tracker.startLoadOps(order.length);
+        log.postInfo("Pregenerating " + order.length + " of " + width * height
+                + " regions...");
+
+        RegionStore store = world.regions;
+        try {
+            for(int i = 0; i < order.length && !stopped; i++) {
+                inFlight.acquire();
+                final int idx = order[i];
+                store.pregenerateRegion(minX + idx % width, minY + idx / width,
+                        (r, success) -> finish(idx, success));
+            }
+        } finally {
+            // Wait for whatever's in flight to land
+            inFlight.acquireUninterruptibly(maxInFlight);
+            inFlight.release(maxInFlight);
+            writeCheckpoint();
+        }
+
+        boolean complete;
+        synchronized(done) {
+            complete = done.cardinality() == width * height;
+        }
+        if(complete)
+            world.getWorldDir().child(FILE_CHECKPOINT).delete();
+        log.postInfo("Pregeneration " + (complete ? "complete" : "stopped")
+                + " (" + tracker.numDone() + "/" + order.length + " regions, "
+                + failed.get() + " failed)");
+        return complete;
+    }
+
+    /**
+     * Indices of the regions which aren't done, in square rings outward from
+     * the centre of the rectangle.
+     */
+    private int[] pendingRegions() {
+        long[] pending; // ring in the top 32 bits, index in the bottom
+        int n = 0;
+        synchronized(done) {
+            pending = new long[width * height - done.cardinality()];
+            for(int i = done.nextClearBit(0); i < width * height; i = done.nextClearBit(i + 1)) {
+                // Doubled offsets from the centre, to keep to integers
+                long dx = Math.abs(2L * (i % width) - (width - 1));
+                long dy = Math.abs(2L * (i / width) - (height - 1));
+                pending[n++] = ((Math.max(dx, dy) >> 1) << 32) | i;
+            }
+        }
+        Arrays.sort(pending);
+        int[] order = new int[n];
+        for(int i = 0; i < n; i++)
+            order[i] = (int)pending[i];
+        return order;
+    }
+
+    @UserThread("WorkerThread")
+    private void finish(int idx, boolean success) {
+        boolean checkpoint = false;
+        if(success) {
+            synchronized(done) {
+                done.set(idx);
+                if(++sinceCheckpoint >= CHECKPOINT_INTERVAL)
+                    checkpoint = true;
+            }
+        } else
+            failed.incrementAndGet();
+
+        if(checkpoint)
+            writeCheckpoint();
+
+        tracker.endLoadOp();
+        inFlight.release();
+    }
+
+    /**
+     * Stops pregeneration. {@link #run()} will return once the regions
+     * currently in flight are done.
+     */
+    @UserThread("Any")
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Reads the checkpoint, if there is one for our rectangle.
+     */
+    @GuardedBy("done")
+    private void readCheckpoint() {
+        FileHandle file = world.getWorldDir().child(FILE_CHECKPOINT);
+        if(!file.exists())
+            return;
+        try {
+            DataCompound c = IOUtil.read(file, Format.NBT, Compression.GZIP);
+            if(c.getI32("minX") != minX || c.getI32("minY") != minY
+                    || c.getI32("width") != width || c.getI32("height") != height) {
+                log.postInfo("Ignoring checkpoint for a different rectangle");
+                return;
+            }
+            done.or(BitSet.valueOf(c.getI64Arr("done")));
+            // Anything past the end would be garbage
+            done.clear(width * height, Math.max(done.length(), width * height));
+            log.postInfo("Resuming from checkpoint with " + done.cardinality()
+                    + " regions done");
+        } catch(IOException e) {
+            log.postWarning("Could not read checkpoint; starting over", e);
+        }
+    }
+
+    /**
+     * Writes the checkpoint.
+     */
+    private void writeCheckpoint() {
+        // Checkpoints may be written by several threads at once; serialise
+        // them so that an older one never overwrites a newer one.
+        synchronized(this) {
+            DataCompound c = Format.NBT.newCompound();
+            c.put("minX", minX);
+            c.put("minY", minY);
+            c.put("width", width);
+            c.put("height", height);
+            synchronized(done) {
+                c.put("done", done.toLongArray());
+                sinceCheckpoint = 0;
+            }
+
+            try {
+                IOUtil.writeSafe(world.getWorldDir().child(FILE_CHECKPOINT), c,
+                        Compression.GZIP);
+            } catch(IOException e) {
+                log.postWarning("Could not write checkpoint", e);
+            }
+        }
+    }
+
+}
@@ -15,6 +15,10 @@ import com.stabilise.world.tile.tileentity.TileEntity;
  */
 public interface WorldProvider {
     
+    /** Passed as a tile or wall ID to the bulk write methods to leave the
+     * tile or wall as it is. */
+    public static final int NO_CHANGE = -1;
+    
     /**
      * Adds an entity to the world. The entity's ID is assigned automatically.
      * 
@@ -180,6 +184,72 @@ public interface WorldProvider {
      */
     void removeTileEntityAt(Position pos);
     
+    // ========== Bulk Operations ==========
+    
+    /**
+     * Sets every tile and wall in a rectangle. This is much faster than
+     * setting each tile in turn, but unlike {@link #setTileAt(Position, Tile)}
+     * tiles aren't notified of being placed or removed, so this shouldn't be
+     * used to place or remove tiles with tile entities. The slices written to
+     * are flagged as modified in their regions, and so are saved as with any
+     * other change.
+     * 
+     * @param origin The bottom-left of the rectangle. This must be {@link
+     * Position#align() aligned}.
+     * @param width The width of the rectangle, in tile-lengths.
+     * @param height The height of the rectangle, in tile-lengths.
+     * @param tileID The ID of the tile to set, or {@link #NO_CHANGE}.
+     * @param wallID The ID of the wall to set, or {@link #NO_CHANGE}.
+     * 
+     * @throws NullPointerException if {@code origin} is {@code null}.
+     * @throws IllegalArgumentException if {@code width < 0 || height < 0}.
+     */
+    default void fill(Position origin, int width, int height, int tileID, int wallID) {
+        TileWriter writer = writer(origin, width, height);
+        while(writer.hasNext())
+            writer.put(tileID, wallID);
+    }
+    
+    /**
+     * Sets every tile and wall in a column, going up from {@code origin}.
+     * 
+     * @see #fill(Position, int, int, int, int)
+     */
+    default void setColumn(Position origin, int height, int tileID, int wallID) {
+        fill(origin, 1, height, tileID, wallID);
+    }
+    
+    /**
+     * Sets the tiles and walls in a rectangle from arrays of IDs, in which
+     * the tile {@code x} along and {@code y} up from {@code origin} is at
+     * index {@code y*width + x}.
+     * 
+     * @param tileIDs The IDs of the tiles. May be {@code null} to leave the
+     * tiles as they are, and any element may be {@link #NO_CHANGE}.
+     * @param wallIDs The IDs of the walls, as per {@code tileIDs}.
+     * 
+     * @throws ArrayIndexOutOfBoundsException if an array is shorter than
+     * {@code width*height}.
+     * @see #fill(Position, int, int, int, int)
+     */
+    default void setTiles(Position origin, int width, int height, int[] tileIDs,
+            int[] wallIDs) {
+        TileWriter writer = writer(origin, width, height);
+        for(int i = 0; writer.hasNext(); i++)
+            writer.put(tileIDs == null ? NO_CHANGE : tileIDs[i],
+                       wallIDs == null ? NO_CHANGE : wallIDs[i]);
+    }
+    
+    /**
+     * Creates a cursor with which to write tiles and walls over a rectangle.
+     * 
+     * @see TileWriter
+     * @see #fill(Position, int, int, int, int)
+     */
+    default TileWriter writer(Position origin, int width, int height) {
+        return new TileWriter(this, origin, width, height);
+    }
+    
     // ========== Utility Methods ==========
     
     /**
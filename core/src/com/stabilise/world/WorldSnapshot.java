@@ -0,0 +1,346 @@
+package com.stabilise.world;
+
+import static com.stabilise.world.Region.REGION_SIZE_MINUS_ONE;
+import static com.stabilise.world.Region.REGION_SIZE_SHIFT;
+import static com.stabilise.world.Region.SLICES_PER_REGION;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.Log;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.io.IOUtil;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.world.loader.WorldLoader;
+import com.stabilise.world.multiverse.HostMultiverse;
+
+/**
+ * A consistent, point-in-time copy of a world, written to another directory
+ * while the world keeps running. Snapshots are ordinarily taken via {@link
+ * HostMultiverse#snapshot(FileHandle)}.
+ *
+ * <p>A snapshot is {@link #take() taken} on the main thread between ticks,
+ * and doing so takes time proportional to the number of regions in memory,
+ * not to their size. Each region's own record (queued actions and the like)
+ * is saved then and there, as it is tiny, but its slices are only marked as
+ * awaited by the snapshot. From then on slices are copied on write: the
+ * first time a marked slice is modified, it hands the snapshot a copy of
+ * itself as it was. Meanwhile, the snapshot's own thread copies every marked
+ * slice which it gets to first, and writes each region once it has all of
+ * its slices. Slices with tile entities are copied straight away, however,
+ * since tile entities are modified without going through their slice.
+ *
+ * <p>Regions which aren't in memory are copied from the world's region files
+ * as they are. Should the world overwrite such a region before the snapshot
+ * gets to it, the region is first copied as it was.
+ *
+ * <p>Only one snapshot of a dimension may be written at a time.
+ */
+@ThreadSafe
+public class WorldSnapshot {
+
+    /** The directory the snapshot is written to. */
+    public final FileHandle dir;
+
+    /** Files to write other than region files, by their path relative to
+     * {@link #dir}. Only touched by the main thread before the snapshot is
+     * taken, and by the snapshot thread after. */
+    private final Map<String, DataCompound> files = new LinkedHashMap<>();
+    /** The dimensions to snapshot. As with {@link #files}. */
+    private final List<DimensionSnapshot> dimensions = new ArrayList<>();
+    private boolean taken = false;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean success = false;
+
+    private final Log log = Log.getAgent("Snapshot");
+
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param dir The directory to write the snapshot to.
+     *
+     * @throws NullPointerException if {@code dir} is {@code null}.
+     */
+    public WorldSnapshot(FileHandle dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Adds a file to the snapshot.
+     *
+     * @param path The file's path relative to the snapshot's directory.
+     * @param data The file's contents. This should not be modified
+     * afterwards.
+     *
+     * @throws IllegalStateException if the snapshot has been taken.
+     */
+    @UserThread("MainThread")
+    public void addFile(String path, DataCompound data) {
+        checkNotTaken();
+        files.put(path, data);
+    }
+
+    /**
+     * Adds a dimension to the snapshot.
+     *
+     * @param world The dimension.
+     * @param path The path of the dimension's directory relative to the
+     * snapshot's directory.
+     *
+     * @throws IllegalStateException if the snapshot has been taken.
+     */
+    @UserThread("MainThread")
+    public void addWorld(HostWorld world, String path) {
+        checkNotTaken();
+        dimensions.add(new DimensionSnapshot(world, path));
+    }
+
+    private void checkNotTaken() {
+        if(taken)
+            throw new IllegalStateException("Snapshot already taken");
+    }
+
+    /**
+     * Takes the snapshot, and starts writing it in the background. This
+     * should be invoked between ticks.
+     *
+     * @throws IllegalStateException if the snapshot has already been taken,
+     * or a snapshot of one of its dimensions is still being written.
+     */
+    @UserThread("MainThread")
+    public void take() {
+        checkNotTaken();
+        for(DimensionSnapshot d : dimensions)
+            if(d.world.regions.loader.isSnapshotInProgress())
+                throw new IllegalStateException("A snapshot of "
+                        + d.world.getDimensionName() + " is still being written");
+        taken = true;
+
+        long start = System.nanoTime();
+        int regions = 0;
+        for(DimensionSnapshot d : dimensions)
+            regions += d.capture();
+        log.postInfo("Took snapshot of " + regions + " regions in "
+                + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + "us");
+
+        Thread t = new Thread(this::write, "WorldSnapshot");
+        t.setUncaughtExceptionHandler((th, e) -> {
+            log.postSevere("Snapshot thread died!", e);
+            done.countDown();
+        });
+        t.start();
+    }
+
+    @UserThread("SnapshotThread")
+    private void write() {
+        long start = System.nanoTime();
+        boolean ok = true;
+
+        for(DimensionSnapshot d : dimensions)
+            ok &= d.write();
+
+        for(Map.Entry<String, DataCompound> e : files.entrySet()) {
+            try {
+                IOUtil.writeSafe(dir.child(e.getKey()), e.getValue(), Compression.GZIP);
+            } catch(IOException ex) {
+                log.postSevere("Could not write " + e.getKey(), ex);
+                ok = false;
+            }
+        }
+
+        success = ok;
+        done.countDown();
+        log.postInfo("Snapshot " + (ok ? "written" : "failed") + " after "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    /**
+     * Returns {@code true} if this snapshot has been written, or failed to
+     * be.
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Waits until this snapshot has been written.
+     *
+     * @return {@code true} if it was written successfully.
+     * @throws InterruptedException if the current thread was interrupted
+     * while waiting.
+     */
+    @UserThread("Any")
+    public boolean awaitDone() throws InterruptedException {
+        done.await();
+        return success;
+    }
+
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+
+    /**
+     * The part of a snapshot for a single dimension.
+     */
+    private class DimensionSnapshot {
+
+        final HostWorld world;
+        final String path;
+        /** The regions which were in memory. Each is dropped once written. */
+        private FrozenRegion[] regions;
+
+
+        DimensionSnapshot(HostWorld world, String path) {
+            this.world = world;
+            this.path = path;
+        }
+
+        /**
+         * Captures the dimension as it is now.
+         *
+         * @return The number of regions captured.
+         */
+        @UserThread("MainThread")
+        int capture() {
+            WorldLoader loader = world.regions.loader;
+            List<FrozenRegion> list = new ArrayList<>();
+            world.regions.forEachPreparedRegion(r ->
+                    list.add(new FrozenRegion(r, loader.saveRegionRecord(r))));
+            regions = list.toArray(new FrozenRegion[list.size()]);
+
+            long[] keys = new long[regions.length];
+            for(int i = 0; i < regions.length; i++) {
+                keys[i] = regions[i].key;
+                regions[i].awaitSlices();
+            }
+            loader.beginSnapshot(dir.child(path), keys);
+
+            files.put(path + World.FILE_INFO, world.dimension.exportData());
+            return regions.length;
+        }
+
+        /**
+         * Writes the dimension.
+         *
+         * @return {@code true} if successful.
+         */
+        @UserThread("SnapshotThread")
+        boolean write() {
+            WorldLoader loader = world.regions.loader;
+            boolean ok = true;
+            int i = 0;
+            try {
+                for(; i < regions.length; i++) {
+                    FrozenRegion r = regions[i];
+                    loader.writeSnapshotRegion(r.freeze(), r.generated, r.record);
+                    regions[i] = null;
+                }
+            } catch(Throwable t) {
+                log.postSevere("Could not write region " + regions[i] + " of "
+                        + world.getDimensionName(), t);
+                ok = false;
+                // Don't leave slices copying themselves for nothing
+                for(; i < regions.length; i++)
+                    regions[i].release();
+            }
+
+            try {
+                loader.finishSnapshot(ok);
+            } catch(IOException e) {
+                log.postSevere("Could not copy the regions of "
+                        + world.getDimensionName(), e);
+                ok = false;
+            }
+            return ok;
+        }
+
+    }
+
+    /**
+     * A region as it was when a snapshot was taken.
+     */
+    static class FrozenRegion {
+
+        final int x, y;
+        final long key;
+        final boolean generated;
+        /** The region's own record. */
+        final DataCompound record;
+        /** The region's slices. */
+        private final Slice[] live;
+        /** Copies of the slices, as they were when the snapshot was taken.
+         * Each element is guarded by the lock of the corresponding element of
+         * {@link #live}. */
+        private final Slice[] frozen = new Slice[SLICES_PER_REGION];
+
+
+        FrozenRegion(Region r, DataCompound record) {
+            x = r.x();
+            y = r.y();
+            key = r.key;
+            generated = r.state.isGenerated();
+            this.record = record;
+            live = r.slices.clone();
+        }
+
+        /**
+         * Marks each slice as awaited by the snapshot.
+         */
+        @UserThread("MainThread")
+        void awaitSlices() {
+            for(int i = 0; i < SLICES_PER_REGION; i++) {
+                Slice s = live[i];
+                if(s.tileEntities != null)
+                    frozen[i] = s.copy();
+                else
+                    s.awaitSnapshot(this);
+            }
+        }
+
+        /**
+         * Invoked by a slice to hand over a copy of itself.
+         */
+        @UserThread("Any")
+        void setFrozen(Slice s, Slice copy) {
+            frozen[((s.y & REGION_SIZE_MINUS_ONE) << REGION_SIZE_SHIFT)
+                    | (s.x & REGION_SIZE_MINUS_ONE)] = copy;
+        }
+
+        /**
+         * Gets a copy of every slice which has yet to be handed over, and
+         * returns the region as it was.
+         */
+        @UserThread("SnapshotThread")
+        Region freeze() {
+            for(Slice s : live)
+                s.freeze();
+            return new Region(x, y, frozen);
+        }
+
+        /**
+         * Stops waiting on the region's slices.
+         */
+        void release() {
+            for(Slice s : live)
+                s.releaseSnapshot(this);
+        }
+
+        @Override
+        public String toString() {
+            return "Region[" + x + "," + y + "]";
+        }
+
+    }
+
+}
@@ -16,6 +16,13 @@ public class WorldStatistics {
     public final ProcessStats load = new ProcessStats("LoadStats");
     public final ProcessStats save = new ProcessStats("SaveStats");
     
+    // Region store
+    
+    /** Stats for the RegionStore's cache of recently unloaded regions. */
+    public final CacheStats unloadedCache = new CacheStats("UnloadCache");
+    /** Stats for regions prefetched ahead of moving anchorers. */
+    public final PrefetchStats prefetch = new PrefetchStats("Prefetch");
+    
     
     
     @Override
@@ -25,6 +32,8 @@ public class WorldStatistics {
         append(sb, gen);
         append(sb, load);
         append(sb, save);
+        append(sb, unloadedCache);
+        append(sb, prefetch);
         sb.append('}');
         return sb.toString();
     }
@@ -43,7 +52,8 @@ public class WorldStatistics {
                 started = new LongAdder(),
                 aborted = new LongAdder(),
                 completed = new LongAdder(),
-                failed = new LongAdder();
+                failed = new LongAdder(),
+                skipped = new LongAdder();
         
         @Override
         public String toString() {
@@ -53,7 +63,62 @@ public class WorldStatistics {
                     +   "started:" + String.format("%4d", started.sum())   + ", "
                     +   "aborted:" + String.format("%4d", aborted.sum())   + ", "
                     + "completed:" + String.format("%4d", completed.sum()) + ", "
-                    +    "failed:" + String.format("%4d", failed.sum())
+                    +    "failed:" + String.format("%4d", failed.sum())    + ", "
+                    +   "skipped:" + String.format("%4d", skipped.sum())
+                    + "}";
+        }
+        
+    }
+    
+    public static class CacheStats {
+        
+        private final String name;
+        private CacheStats(String name) { this.name = name; }
+        
+        public final LongAdder hits = new LongAdder(),
+                misses = new LongAdder(),
+                evictions = new LongAdder();
+        
+        @Override
+        public String toString() {
+            return String.format("%10s", name) + "{"
+                    +      "hits:" + String.format("%4d", hits.sum())      + ", "
+                    +    "misses:" + String.format("%4d", misses.sum())    + ", "
+                    + "evictions:" + String.format("%4d", evictions.sum())
+                    + "}";
+        }
+        
+    }
+    
+    public static class PrefetchStats {
+        
+        private final String name;
+        private PrefetchStats(String name) { this.name = name; }
+        
+        /** Prefetches initiated, those whose regions were then anchored, and
+         * those whose regions were cancelled or unloaded without being
+         * anchored. Prefetches whose outcome isn't yet known count towards
+         * neither of the latter two. */
+        public final LongAdder issued = new LongAdder(),
+                hits = new LongAdder(),
+                wasted = new LongAdder();
+        
+        /**
+         * Returns the proportion of prefetches with a known outcome whose
+         * regions were then anchored, or {@code NaN} if there are none yet.
+         */
+        public double accuracy() {
+            double hits = this.hits.sum();
+            return hits / (hits + wasted.sum());
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%10s", name) + "{"
+                    +    "issued:" + String.format("%4d", issued.sum())    + ", "
+                    +      "hits:" + String.format("%4d", hits.sum())      + ", "
+                    +    "wasted:" + String.format("%4d", wasted.sum())    + ", "
+                    +  "accuracy:" + String.format("%.2f", accuracy())
                     + "}";
         }
         
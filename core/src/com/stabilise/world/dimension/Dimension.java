@@ -119,9 +119,18 @@ public abstract class Dimension {
      * @throws IOException if an I/O error occurs.
      */
     public final void saveData() throws IOException {
+        info.save(exportData());
+    }
+    
+    /**
+     * Exports this dimension's info to a compound, in the form in which it
+     * is {@link #saveData() saved}.
+     */
+    public final DataCompound exportData() {
         DataCompound tag = Format.NBT.newCompound();
         saveExtraData(tag);
-        info.save(tag);
+        info.exportToCompound(tag);
+        return tag;
     }
     
     /**
@@ -416,17 +425,22 @@ public abstract class Dimension {
         }
         
         /**
-         * Saves the dimension info.
-         * 
-         * @throws IOException if an I/O error occurs.
+         * Writes the dimension info to the given compound.
          */
-        private void save(DataCompound tag) throws IOException {
+        private void exportToCompound(DataCompound tag) {
             tag.put("dimName", name);
             tag.put("age", age);
             
             tag.put("spawnX", spawnSliceX);
             tag.put("spawnY", spawnSliceY);
-            
+        }
+        
+        /**
+         * Saves the dimension info, as exported to the given compound.
+         * 
+         * @throws IOException if an I/O error occurs.
+         */
+        private void save(DataCompound tag) throws IOException {
             IOUtil.writeSafe(getFile(), tag, Compression.GZIP);
         }
         
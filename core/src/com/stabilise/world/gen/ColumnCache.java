@@ -0,0 +1,82 @@
+package com.stabilise.world.gen;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.Checks;
+import com.stabilise.util.annotation.ThreadSafeMethod;
+import com.stabilise.util.maths.Maths;
+
+/**
+ * A bounded cache of features of columns of regions (e.g. the height of the
+ * surface), keyed by region x. Every region in a column shares the same x,
+ * so a feature which depends only on x need only be computed once for the
+ * whole column, rather than once for each region stacked in it.
+ * 
+ * <p>The cache is direct-mapped: each x maps to a single slot, and caching a
+ * value for x evicts whatever was in its slot. Lookups don't lock, and two
+ * threads which miss on the same x at once may both compute its value, so
+ * values should be deterministic functions of x. Cached values are shared
+ * between threads and so must not be modified.
+ * 
+ * @param <T> The type of cached value.
+ */
+@ThreadSafe
+public final class ColumnCache<T> {
+    
+    private final AtomicReferenceArray<Entry<T>> slots;
+    private final int mask;
+    
+    
+    /**
+     * Creates a new column cache.
+     * 
+     * @param capacity The number of columns which may be cached at once.
+     * 
+     * @throws IllegalArgumentException if {@code capacity} isn't a positive
+     * power of two.
+     */
+    public ColumnCache(int capacity) {
+        if(!Maths.isPowerOfTwo(Checks.testMin(capacity, 1)))
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+    
+    /**
+     * Gets the value cached for column x, computing and caching it if
+     * necessary.
+     * 
+     * @param x The x-coordinate of the column, in region-lengths.
+     * @param compute The function with which to compute the value.
+     * 
+     * @throws NullPointerException if {@code compute} returns null.
+     */
+    @ThreadSafeMethod
+    public T get(int x, IntFunction<? extends T> compute) {
+        int i = x & mask; // neighbouring columns get neighbouring slots
+        Entry<T> e = slots.get(i);
+        if(e != null && e.x == x)
+            return e.value;
+        T value = Objects.requireNonNull(compute.apply(x));
+        slots.set(i, new Entry<>(x, value));
+        return value;
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    private static final class Entry<T> {
+        private final int x;
+        private final T value;
+        private Entry(int x, T value) {
+            this.x = x;
+            this.value = value;
+        }
+    }
+    
+}
@@ -0,0 +1,104 @@
+package com.stabilise.world.gen;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.badlogic.gdx.math.RandomXS128;
+import com.stabilise.util.maths.OctaveNoise;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+
+/**
+ * A {@code GenContext} holds everything a worker thread keeps between the
+ * regions it generates for a dimension: its instances of the dimension's
+ * generators, the state each generator builds from the seed (e.g. noise and
+ * scratch arrays), and the {@code WorldProvider} and RNG handed to generators.
+ * 
+ * <p>Each thread which generates regions gets its own context (see {@link
+ * WorldGenerator}), so generators may freely mutate whatever they keep in it.
+ */
+@NotThreadSafe
+public final class GenContext {
+    
+    /** The world seed. */
+    public final long seed;
+    /** This thread's instances of the registered generators. */
+    final IWorldGenerator[] generators;
+    /** The provider handed to generators, which is reset for each region. */
+    final GenProvider provider;
+    
+    /** Generator -> state. */
+    private final Map<IWorldGenerator, Object> states = new IdentityHashMap<>();
+    /** The RNG handed out by {@link #sliceRandom(Slice, long)}. */
+    private final RandomXS128 sliceRnd = new RandomXS128();
+    
+    
+    /**
+     * @param seed The world seed.
+     * @param generators The registered generators. Each supplier is invoked
+     * once to get this context's instance of that generator.
+     */
+    GenContext(long seed, List<Supplier<IWorldGenerator>> generators) {
+        this.seed = seed;
+        this.generators = new IWorldGenerator[generators.size()];
+        for(int i = 0; i < this.generators.length; i++)
+            this.generators[i] = Objects.requireNonNull(generators.get(i).get());
+        this.provider = new GenProvider(seed);
+    }
+    
+    /**
+     * Readies this context for generating the given region.
+     */
+    void reset(Region r) {
+        provider.reset(r);
+    }
+    
+    /**
+     * Gets the state kept on this thread for the given generator, creating
+     * it the first time this is invoked for that generator. A generator
+     * should keep anything derived solely from the seed, and anything it
+     * would otherwise allocate anew for every region, in its state.
+     * 
+     * @param gen The generator whose state to get.
+     * @param init The function which creates the state, given the world
+     * seed.
+     * 
+     * @throws NullPointerException if {@code init} returns null.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T state(IWorldGenerator gen, LongFunction<T> init) {
+        Object state = states.get(gen);
+        if(state == null) {
+            state = Objects.requireNonNull(init.apply(seed));
+            states.put(gen, state);
+        }
+        return (T)state;
+    }
+    
+    /**
+     * Gets an RNG for generating the given slice, seeded from the world seed,
+     * the slice's coordinates and {@code salt} alone. {@link ISliceGenerator
+     * Slice-parallel} generators must draw their random numbers from this so
+     * that they don't depend on which thread generates which slice. Each
+     * generator should use its own salt so that different generators don't
+     * draw the same numbers.
+     * 
+     * <p>The same RNG is reseeded and returned by every invocation of this
+     * method, so it should be discarded once the slice is done.
+     */
+    public Random sliceRandom(Slice s, long salt) {
+        long h = OctaveNoise.DEFAULT_SEED_MIXER.applyAsLong(seed ^ salt);
+        h = OctaveNoise.DEFAULT_SEED_MIXER.applyAsLong(h ^ s.x);
+        h = OctaveNoise.DEFAULT_SEED_MIXER.applyAsLong(h ^ s.y);
+        sliceRnd.setSeed(h);
+        return sliceRnd;
+    }
+    
+}
@@ -7,7 +7,6 @@ import java.util.Random;
 import com.badlogic.gdx.math.RandomXS128;
 import com.stabilise.entity.Entity;
 import com.stabilise.entity.Position;
-import com.stabilise.world.HostWorld;
 import com.stabilise.world.Region;
 import com.stabilise.world.Slice;
 import com.stabilise.world.WorldProvider;
@@ -17,22 +16,28 @@ import com.stabilise.world.tile.tileentity.TileEntity;
 
 /**
  * WorldProvider implementation which is passed to generators as to give them
- * a WorldProvider-y view on the world.
+ * a WorldProvider-y view on the world. Each {@link GenContext} has one, which
+ * is {@link #reset(Region) reset} for every region it generates.
  */
 class GenProvider implements WorldProvider {
     
-    @SuppressWarnings("unused")
-    private final HostWorld w;
-    private final Region r;
+    private final long seed;
+    private Region r;
     
     private int lastX, lastY;
     private Slice lastSlice;
     
-    private final Random rnd;
+    private final RandomXS128 rnd = new RandomXS128();
     
     
-    GenProvider(HostWorld w, Region r, long seed) {
-        this.w = w;
+    GenProvider(long seed) {
+        this.seed = seed;
+    }
+    
+    /**
+     * Points this provider at the given region, and reseeds the RNG for it.
+     */
+    void reset(Region r) {
         this.r = r;
         
         lastX = lastY = 0;
@@ -42,7 +47,7 @@ class GenProvider implements WorldProvider {
         long n = 13*r.x() + 57*r.y();
         n = (n<<13) ^ n;
         n = n * (n*n*15731 + 789221) + 1376312589;
-        rnd = new RandomXS128(seed ^ n ^ mix);
+        rnd.setSeed(seed ^ n ^ mix);
     }
     
     @Override
@@ -70,6 +75,18 @@ class GenProvider implements WorldProvider {
                 Position.sliceCoordRelativeToRegionFromSliceCoord(y));
     }
     
+    @Override
+    public Tile getTileAt(Position pos) {
+        return Tile.getTile(getTileIDAt(pos));
+    }
+    
+    @Override
+    public int getTileIDAt(Position pos) {
+        if(!checkXBound(pos.sx()) || !checkYBound(pos.sy()))
+            throw new IllegalArgumentException("Accessing outside region (" + pos.sx() + "," + pos.sy() + ")!");
+        return r.getTileID(pos.rtx(), pos.rty());
+    }
+    
     /*
     @Override
     public void setTileAt(int x, int y, int id) {
@@ -142,6 +159,45 @@ class GenProvider implements WorldProvider {
         }
     }
     
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This fills the part of the rectangle in each slice directly, and so
+     * is cheaper still than writing through a {@link #writer(Position, int,
+     * int) writer}.
+     * 
+     * @throws IllegalArgumentException if the rectangle doesn't lie within
+     * the region being generated.
+     */
+    @Override
+    public void fill(Position origin, int width, int height, int tileID, int wallID) {
+        if(width < 0 || height < 0)
+            throw new IllegalArgumentException("Negative dimensions");
+        if(!checkXBound(origin.sx()) || !checkYBound(origin.sy()))
+            throw new IllegalArgumentException("Accessing outside region (" + origin.sx() + "," + origin.sy() + ")!");
+        int x0 = origin.rtx(), x1 = x0 + width;
+        int y0 = origin.rty(), y1 = y0 + height;
+        if(x1 > Region.REGION_SIZE_IN_TILES || y1 > Region.REGION_SIZE_IN_TILES)
+            throw new IllegalArgumentException("Rectangle extends outside region");
+        
+        // Fill the rectangle's intersection with each slice
+        for(int y = y0; y < y1; ) {
+            int ly = y & Slice.SLICE_SIZE_MINUS_ONE;
+            int h = Math.min(Slice.SLICE_SIZE - ly, y1 - y);
+            for(int x = x0; x < x1; ) {
+                int lx = x & Slice.SLICE_SIZE_MINUS_ONE;
+                int w = Math.min(Slice.SLICE_SIZE - lx, x1 - x);
+                Slice s = r.getSliceAt(x >> Slice.SLICE_SIZE_SHIFT, y >> Slice.SLICE_SIZE_SHIFT);
+                if(tileID != NO_CHANGE)
+                    s.fillTiles(lx, ly, w, h, tileID);
+                if(wallID != NO_CHANGE)
+                    s.fillWalls(lx, ly, w, h, wallID);
+                x += w;
+            }
+            y += h;
+        }
+    }
+    
     @Override
     public Random rnd() {
         return rnd;
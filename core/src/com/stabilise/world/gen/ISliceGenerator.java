@@ -0,0 +1,50 @@
+package com.stabilise.world.gen;
+
+import com.stabilise.util.annotation.ThreadSafeMethod;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.WorldProvider;
+
+/**
+ * A generator which generates each slice of a region independently of the
+ * rest, and so which the {@link WorldGenerator} may run over the slices of a
+ * region in parallel.
+ * 
+ * <p>So that a region comes out the same however its slices are divided
+ * between threads, {@link #generateSlice(Region, Slice, GenContext)
+ * generateSlice()} must only modify the given slice, must keep any mutable
+ * state in the given context, and must draw random numbers only from {@link
+ * GenContext#sliceRandom(Slice, long)}, never from the region-wide {@link
+ * WorldProvider#rnd()}.
+ * 
+ * <p>As with the bulk writes of {@link WorldProvider}, a slice is best
+ * written by ID all at once, through {@link Slice#setTiles(int[], int[])},
+ * {@link Slice#fillTiles(int, int, int, int, int) fillTiles()} and {@link
+ * Slice#fillWalls(int, int, int, int, int) fillWalls()}, rather than a tile
+ * at a time.
+ */
+public interface ISliceGenerator extends IWorldGenerator {
+    
+    /**
+     * Generates a slice of a region. This may be invoked for different slices
+     * of the same region concurrently, on different threads.
+     * 
+     * @param r The region being generated.
+     * @param s The slice to generate.
+     * @param ctx The current thread's generation context.
+     */
+    @ThreadSafeMethod
+    void generateSlice(Region r, Slice s, GenContext ctx);
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>This generates each slice in turn on the current thread.
+     */
+    @Override
+    default void generate(Region r, WorldProvider w, GenContext ctx) {
+        for(Slice s : r.slices)
+            generateSlice(r, s, ctx);
+    }
+    
+}
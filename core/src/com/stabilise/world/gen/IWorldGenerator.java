@@ -18,12 +18,15 @@ public interface IWorldGenerator {
      * <p>Implementors should note that this method may be invoked by various
      * worker threads concurrently, and it is hence the responsibility of
      * implementors to ensure correct thread safety techniques are observed.
+     * The simplest way to do this is to keep any mutable state in {@code
+     * ctx}, which is confined to the current thread.
      * 
      * @param r The region to generate.
      * @param w WorldProvider offered by the generator for convenience.
-     * @param seed The world seed.
+     * @param ctx The current thread's generation context, which holds the
+     * world seed.
      */
     @ThreadSafeMethod
-    void generate(Region r, WorldProvider w, long seed);
+    void generate(Region r, WorldProvider w, GenContext ctx);
     
 }
@@ -3,7 +3,8 @@ package com.stabilise.world.gen;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -18,6 +19,7 @@ import com.stabilise.world.Region;
 import com.stabilise.world.RegionState;
 import com.stabilise.world.RegionStore;
 import com.stabilise.world.RegionStore.RegionCallback;
+import com.stabilise.world.RegionTaskScheduler;
 import com.stabilise.world.dimension.Dimension;
 
 /**
@@ -30,6 +32,14 @@ import com.stabilise.world.dimension.Dimension;
  * world's {@link Dimension}; see {@link
  * Dimension#addGenerators(WorldGenerator)}.
  * 
+ * <p>Generators which are {@link ISliceGenerator slice-parallel} have their
+ * pass over a region split across its slices on a fork-join pool when
+ * there are fewer regions waiting to be generated than the pool has threads,
+ * so that a handful of regions can still use every core. Other generators,
+ * and everything after the generators such as structure implanting, run on
+ * the region's own worker thread as before. A region comes out the same
+ * either way.
+ * 
  * <p>Note that the generation of a region <em>always</em> comes after a load
  * of that region (whether anything was loaded or not), and thus every part of
  * the load process <i>happens-before</i> generation.
@@ -37,37 +47,48 @@ import com.stabilise.world.dimension.Dimension;
 @ThreadSafe
 public final class WorldGenerator {
     
+    /** The pool on which slice-parallel generators are run. */
+    private static final ForkJoinPool SLICE_POOL = ForkJoinPool.commonPool();
+    /** The number of slices of a region to generate per fork-join task. */
+    private static final int SLICES_PER_TASK = Region.REGION_SIZE;
+    
     private final HostWorld world;
     /** A copy of the world's seed. This is important since after all it
      * determines what's generated. */
     private final long seed;
     
-    private final Executor executor;
+    private final RegionTaskScheduler scheduler;
     /** Whether or not the generator has been shut down. This is volatile. */
     private volatile boolean isShutdown = false;
     
-    /** A reference to the region store, to cache/uncache regions. */
+    /** A reference to the region store. */
     private final RegionStore regionStore;
     
     /** These generators are what actually generate the terrain of each region. */
     private final List<Supplier<IWorldGenerator>> generators = new ArrayList<>(1);
+    /** The generation context of each thread which generates regions. Each
+     * is created the first time its thread generates a region. */
+    private final ThreadLocal<GenContext> contexts;
     
     
     final Log log;
     
     
     /**
-     * Creates a new WorldGenerator. Takes references to the world and the
-     * world's region store.
+     * Creates a new WorldGenerator. Takes references to the world, the
+     * world's region store, and the scheduler with which to run generation
+     * tasks.
      * 
-     * @throws NullPointerException if either argument is {@code null}.
+     * @throws NullPointerException if {@code world} is {@code null}.
      */
-    public WorldGenerator(HostWorld world, RegionStore regionStore) {
+    public WorldGenerator(HostWorld world, RegionStore regionStore,
+            RegionTaskScheduler scheduler) {
         this.world = Objects.requireNonNull(world);
-        this.executor = world.multiverse().getExecutor();
+        this.scheduler = scheduler;
         this.regionStore = regionStore;
         
         seed = world.multiverse().getSeed();
+        contexts = ThreadLocal.withInitial(() -> new GenContext(seed, generators));
         
         log = Log.getAgent("Generator_" + world.getDimensionName());
     }
@@ -85,8 +106,9 @@ public final class WorldGenerator {
      * Registers a generator. Generators are run in the order they are
      * registered. Use this in preference to {@link
      * #addGenerator(IWorldGenerator)} if the desired generator is not
-     * thread-safe, and it is better to simply construct one for each new
-     * region generated.
+     * thread-safe; the supplier is invoked once for each thread which
+     * generates regions, and that thread uses its generator for every region
+     * it generates thereafter.
      */
     @ThreadUnsafeMethod
     public void addGenerator(Supplier<IWorldGenerator> generator) {
@@ -111,7 +133,7 @@ public final class WorldGenerator {
         if(useCurrentThread)
             genRegion(r, callback);
         else
-            executor.execute(() -> genRegion(r, callback));
+            scheduler.execute(r, () -> genRegion(r, callback));
     }
     
     /**
@@ -128,6 +150,12 @@ public final class WorldGenerator {
             return;
         }
         
+        // The region may no longer be wanted by the time we get to it.
+        if(regionStore.abandonIfUnwanted(r)) {
+            world.stats.gen.aborted.increment();
+            return;
+        }
+        
         boolean success = false;
         
         TaskTimer timer = new TaskTimer("Generating " + r);
@@ -140,9 +168,17 @@ public final class WorldGenerator {
                 // Set up the region's slices
                 r.initSlices();
                 
-                GenProvider prov = new GenProvider(world, r, seed);
+                GenContext ctx = contexts.get();
+                ctx.reset(r);
+                boolean parallel = SLICE_POOL.getParallelism() > 1
+                        && scheduler.pending() < SLICE_POOL.getParallelism();
                 // Generate the region, as per the generators
-                generators.forEach(g -> g.get().generate(r, prov, seed));
+                for(int i = 0; i < ctx.generators.length; i++) {
+                    if(parallel && ctx.generators[i] instanceof ISliceGenerator)
+                        SLICE_POOL.invoke(new SlicePass(r, i, 0, r.slices.length));
+                    else
+                        ctx.generators[i].generate(r, ctx.provider, ctx);
+                }
             }
             
             // After normal generation processes have been completed, add any
@@ -169,9 +205,6 @@ public final class WorldGenerator {
             log.postSevere("Worldgen of " + r + " failed!", t);
         }
         
-        // Clean up all regions cached during generation.
-        regionStore.uncacheAll();
-        
         callback.accept(r, success);
     }
     
@@ -183,4 +216,47 @@ public final class WorldGenerator {
         isShutdown = true;
     }
     
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * Runs a slice-parallel generator over a range of the slices of a region,
+     * splitting the range between tasks until each is small enough.
+     */
+    private final class SlicePass extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Region r;
+        /** The index of the generator in each thread's {@link
+         * GenContext#generators}. */
+        private final int gen;
+        /** The range of indices into {@link Region#slices}. */
+        private final int from, to;
+        
+        private SlicePass(Region r, int gen, int from, int to) {
+            this.r = r;
+            this.gen = gen;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if(to - from > SLICES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SlicePass(r, gen, from, mid),
+                        new SlicePass(r, gen, mid, to));
+                return;
+            }
+            // Use this thread's own instance of the generator
+            GenContext ctx = contexts.get();
+            ISliceGenerator g = (ISliceGenerator)ctx.generators[gen];
+            for(int i = from; i < to; i++)
+                g.generateSlice(r, r.slices[i], ctx);
+        }
+        
+    }
+    
 }
@@ -10,6 +10,7 @@ import com.stabilise.entity.Position;
 import com.stabilise.item.Items;
 import com.stabilise.world.Region;
 import com.stabilise.world.WorldProvider;
+import com.stabilise.world.gen.GenContext;
 import com.stabilise.world.gen.IWorldGenerator;
 import com.stabilise.world.tile.tileentity.TileEntityChest;
 
@@ -20,7 +21,7 @@ import com.stabilise.world.tile.tileentity.TileEntityChest;
 public class ChestGen implements IWorldGenerator {
     
     @Override
-    public void generate(Region r, WorldProvider w, long seed) {
+    public void generate(Region r, WorldProvider w, GenContext ctx) {
         Position tmp1 = Position.createFixed();
         Position tmp2 = Position.createFixed();
         
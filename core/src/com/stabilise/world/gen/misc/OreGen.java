@@ -2,20 +2,25 @@ package com.stabilise.world.gen.misc;
 
 import static com.stabilise.world.Slice.SLICE_SIZE;
 
+import java.util.Random;
+
 import com.stabilise.util.Checks;
 import com.stabilise.util.maths.INoise;
 import com.stabilise.util.maths.Interpolation;
 import com.stabilise.util.maths.OctaveNoise;
 import com.stabilise.world.Region;
 import com.stabilise.world.Slice;
-import com.stabilise.world.WorldProvider;
-import com.stabilise.world.gen.IWorldGenerator;
+import com.stabilise.world.gen.GenContext;
+import com.stabilise.world.gen.ISliceGenerator;
 import com.stabilise.world.tile.Tiles;
 
 /**
  * Basic ore generation.
  */
-public class OreGen implements IWorldGenerator {
+public class OreGen implements ISliceGenerator {
+    
+    /** The salt for each slice's RNG. */
+    private static final long RNG_SALT = 0xbb67ae8584caa73bL;
     
     private final int n;
     
@@ -30,37 +35,32 @@ public class OreGen implements IWorldGenerator {
     }
     
     @Override
-    public void generate(Region r, WorldProvider w, long seed) {
-        long mix = 0xf1d4c49b0ac04506L;
-        OctaveNoise noise = OctaveNoise.simplex(seed^mix)
-                .addOctave(32, 4)
-                .addOctave(8,  1)
-                .normalise();
-        r.forEachSlice(s -> { if(w.chance(n)) addOreVein(s,w,noise); });
+    public void generateSlice(Region r, Slice s, GenContext ctx) {
+        Random rnd = ctx.sliceRandom(s, RNG_SALT);
+        if(rnd.nextInt(n) == 0)
+            addOreVein(s, rnd, ctx.state(this, State::new));
     }
     
-    private void addOreVein(Slice s, WorldProvider w, INoise noise) {
-        int ore = new int[] {
-                Tiles.oreCopper.getID(),
-                Tiles.oreIron.getID(),
-                Tiles.oreSilver.getID(),
-                Tiles.oreGold.getID(),
-                Tiles.oreDiamond.getID()
-        }[w.rnd().nextInt(5)];
+    private void addOreVein(Slice s, Random rnd, State state) {
+        int ore = state.ores[rnd.nextInt(state.ores.length)];
+        INoise noise = state.noise;
+        float[] veinNoise = state.veinNoise;
         
-        int baseX = w.rnd().nextInt(Integer.MAX_VALUE - SLICE_SIZE);
-        int baseY = w.rnd().nextInt(Integer.MAX_VALUE - SLICE_SIZE);
+        int baseX = rnd.nextInt(Integer.MAX_VALUE - SLICE_SIZE);
+        int baseY = rnd.nextInt(Integer.MAX_VALUE - SLICE_SIZE);
         Interpolation interp = Interpolation.QUADRATIC.inOut;
         int max = SLICE_SIZE/2;
         
-        for(int y = 0; y < SLICE_SIZE; y++) {
-            for(int x = 0; x < SLICE_SIZE; x++) {
+        noise.noise(veinNoise, baseX, baseY, SLICE_SIZE, SLICE_SIZE, 1);
+        
+        for(int y = 0, i = 0; y < SLICE_SIZE; y++) {
+            for(int x = 0; x < SLICE_SIZE; x++, i++) {
                 // x and y factors range from 0-8; min at edges, max at centre
                 float xFact = interp.transform((max - (x <= max ? max-x-1 : x-max))/(float)max);
                 float yFact = interp.transform((max - (y <= max ? max-y-1 : y-max))/(float)max);
                 double fact = Math.sqrt(xFact*yFact);
                 int stoneID = Tiles.stone.getID();
-                if(noise.noise(baseX + x, baseY + y) * fact > 0.5 
+                if(veinNoise[i] * fact > 0.5 
                         && s.getTileIDAt(x, y) == stoneID) {
                     s.setTileIDAt(x, y, ore);
                 }
@@ -68,4 +68,33 @@ public class OreGen implements IWorldGenerator {
         }
     }
     
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * The noise and scratch space with which a thread generates ore.
+     */
+    private static class State {
+        
+        private final INoise noise;
+        private final float[] veinNoise = new float[SLICE_SIZE*SLICE_SIZE];
+        private final int[] ores = {
+                Tiles.oreCopper.getID(),
+                Tiles.oreIron.getID(),
+                Tiles.oreSilver.getID(),
+                Tiles.oreGold.getID(),
+                Tiles.oreDiamond.getID()
+        };
+        
+        private State(long seed) {
+            long mix = 0xf1d4c49b0ac04506L;
+            noise = OctaveNoise.simplex(seed^mix)
+                    .addOctave(32, 4)
+                    .addOctave(8,  1)
+                    .normalise();
+        }
+        
+    }
+    
 }
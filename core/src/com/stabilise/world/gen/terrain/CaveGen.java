@@ -1,48 +1,44 @@
 package com.stabilise.world.gen.terrain;
 
-import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
+import static com.stabilise.world.Slice.SLICE_SIZE;
+import static com.stabilise.world.WorldProvider.NO_CHANGE;
 import static com.stabilise.world.tile.Tiles.air;
 import static com.stabilise.world.tile.Tiles.lava;
 
-import com.stabilise.entity.Position;
 import com.stabilise.util.maths.OctaveNoise;
 import com.stabilise.world.Region;
-import com.stabilise.world.WorldProvider;
-import com.stabilise.world.gen.IWorldGenerator;
+import com.stabilise.world.Slice;
+import com.stabilise.world.gen.GenContext;
+import com.stabilise.world.gen.ISliceGenerator;
 
 
-public class CaveGen implements IWorldGenerator {
+public class CaveGen implements ISliceGenerator {
     
     @Override
-    public void generate(Region r, WorldProvider w, long seed) {
-        long mix1 = 0xd74a9ad1417d79a0L;
-        long mix2 = 0x7227bebc43323e77L;
+    public void generateSlice(Region r, Slice s, GenContext ctx) {
+        State state = ctx.state(this, State::new);
+        float[] caveNoise = state.caveNoise;
+        float[] maskNoise = state.maskNoise;
         
-        OctaveNoise caveNoise = OctaveNoise.simplex(seed^mix1)
-                .addOctave(128, 2)
-                .addOctave(64,  8)
-                .addOctave(32,  4)
-                .addOctave(16,  1)
-                .normalise();
-        OctaveNoise maskNoise = OctaveNoise.simplex(seed^mix2)
-                .addOctave(2048, 1)
-                .addOctave(512,  1)
-                .normalise();
+        int tileOffX = s.x * SLICE_SIZE;
+        int tileOffY = s.y * SLICE_SIZE;
         
-        Position pos = Position.createFixed();
+        // Sampling the mask is partition-independent (see OctaveNoise), so
+        // this comes out the same as sampling the region all at once.
+        state.cave.noise(caveNoise, tileOffX, tileOffY, SLICE_SIZE, SLICE_SIZE, 1);
+        state.mask.noise(maskNoise, tileOffX, tileOffY, SLICE_SIZE, SLICE_SIZE, 1);
         
-        int tileOffX = r.x() * REGION_SIZE_IN_TILES;
-        int tileOffY = r.y() * REGION_SIZE_IN_TILES;
-        
-        for(int y = 0, ty = tileOffY; y < REGION_SIZE_IN_TILES; y++, ty++) {
-            for(int x = 0, tx = tileOffX; x < REGION_SIZE_IN_TILES; x++, tx++) {
-                pos.set(tx, ty);
-                
-                float cave = caveNoise.noise(tx, ty);
+        // Mark out the caves first, and then write them all at once
+        int[] tiles = state.tiles;
+        int airID = air.getID(), lavaID = lava.getID();
+        boolean anyCaves = false;
+        for(int y = 0, ty = tileOffY, i = 0; y < SLICE_SIZE; y++, ty++) {
+            for(int x = 0; x < SLICE_SIZE; x++, i++) {
+                float cave = caveNoise[i];
                 // This should produce varying cave types across the world as
                 // the noise forms characteristically different contours at
                 // different points between 0.25-0.75.
-                float caveMask = 0.25f + transformCaveMask(maskNoise.noise(tx,ty))/2;
+                float caveMask = 0.25f + transformCaveMask(maskNoise[i])/2;
                 
                 // Multiply caveNoise or caveMask by 0 to 1 based on the depth
                 // to try to deter a great multitude of surface cave entrances
@@ -50,15 +46,21 @@ public class CaveGen implements IWorldGenerator {
                 //    caveMask *= Interpolation.QUADRATIC.easeIn(0.5f, 1, (float)noise / 20);
                 
                 //if((y < -200 && caveNoise > 0.8D) || (y < -180 && caveNoise > (0.8 - 0.2 * (180+y)/20f)))
+                int tile = NO_CHANGE;
                 if(ty < -200 && cave > 0.8f)
-                    w.setTileAt(pos, lava);
+                    tile = lavaID;
                 //else if(caveNoise > 0.45D && caveNoise < 0.55D)
                 else if(cave > caveMask - 0.05f && cave < caveMask + 0.05f) {
                 //else if(caveNoise > 0.8D)
-                    w.setTileAt(pos, air);
+                    tile = airID;
                 }
+                tiles[i] = tile;
+                anyCaves |= tile != NO_CHANGE;
             }
         }
+        
+        if(anyCaves)
+            s.setTiles(tiles, null);
     }
     
     /**
@@ -77,4 +79,40 @@ public class CaveGen implements IWorldGenerator {
         return (caveMask+1)/2;
     }
     
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * The noise and scratch space with which a thread generates caves.
+     */
+    private static class State {
+        
+        private final OctaveNoise cave, mask;
+        private final float[] caveNoise = new float[SLICE_SIZE*SLICE_SIZE];
+        private final float[] maskNoise = new float[SLICE_SIZE*SLICE_SIZE];
+        /** The IDs of the tiles to carve out of a slice. */
+        private final int[] tiles = new int[SLICE_SIZE*SLICE_SIZE];
+        
+        private State(long seed) {
+            long mix1 = 0xd74a9ad1417d79a0L;
+            long mix2 = 0x7227bebc43323e77L;
+            
+            cave = OctaveNoise.simplex(seed^mix1)
+                    .addOctave(128, 2)
+                    .addOctave(64,  8)
+                    .addOctave(32,  4)
+                    .addOctave(16,  1)
+                    .normalise();
+            // The mask changes so slowly that we can sample it coarsely; an
+            // error of 0.002 is well within the 0.05 either side of it that
+            // gives caves.
+            mask = OctaveNoise.simplex(seed^mix2)
+                    .addOctave(2048, 1, 0.002f)
+                    .addOctave(512,  1, 0.002f)
+                    .normalise();
+        }
+        
+    }
+    
 }
@@ -1,38 +1,40 @@
 package com.stabilise.world.gen.terrain;
 
+import java.util.Random;
+
 import com.stabilise.world.Region;
 import com.stabilise.world.Slice;
-import com.stabilise.world.WorldProvider;
-import com.stabilise.world.gen.IWorldGenerator;
+import com.stabilise.world.gen.GenContext;
+import com.stabilise.world.gen.ISliceGenerator;
 import com.stabilise.world.tile.Tiles;
 
 
 /**
  * Terrain gen for a flat world
  */
-public class FlatlandTerrainGen implements IWorldGenerator {
+public class FlatlandTerrainGen implements ISliceGenerator {
+    
+    /** The salt for each slice's RNG. */
+    private static final long RNG_SALT = 0x3c6ef372fe94f82bL;
     
     @Override
-    public void generate(Region r, WorldProvider w, long seed) {
-        r.forEachSlice(s -> {
-            if(s.y >= 0)
-                return; // leave the slice as just air
-            
-            for(int y = 0; y < Slice.SLICE_SIZE; y++) {
-                for(int x = 0; x < Slice.SLICE_SIZE; x++) {
-                    int n = w.rnd().nextInt(16);
-                    if(n < 6)
-                        s.setTileAt(x, y, Tiles.stone);
-                    else if(n < 12)
-                        s.setTileAt(x, y, Tiles.stoneBrick);
-                    else if(n < 15)
-                        s.setTileAt(x, y, Tiles.ice);
-                    else
-                        s.setTileAt(x, y, Tiles.glowstone);
-                    s.setWallAt(x, y, Tiles.stone);
-                }
-            }
-        });
+    public void generateSlice(Region r, Slice s, GenContext ctx) {
+        if(s.y >= 0)
+            return; // leave the slice as just air
+        
+        Random rnd = ctx.sliceRandom(s, RNG_SALT);
+        int[] tiles = ctx.state(this, seed -> new int[Slice.TILES_PER_SLICE]);
+        int stone = Tiles.stone.getID(), stoneBrick = Tiles.stoneBrick.getID();
+        int ice = Tiles.ice.getID(), glowstone = Tiles.glowstone.getID();
+        for(int i = 0; i < tiles.length; i++) {
+            int n = rnd.nextInt(16);
+            tiles[i] = n < 6 ? stone
+                    : n < 12 ? stoneBrick
+                    : n < 15 ? ice
+                    : glowstone;
+        }
+        s.setTiles(tiles, null);
+        s.fillWalls(0, 0, Slice.SLICE_SIZE, Slice.SLICE_SIZE, stone);
     }
     
 }
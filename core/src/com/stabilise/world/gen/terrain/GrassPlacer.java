@@ -5,6 +5,7 @@ import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
 import com.stabilise.entity.Position;
 import com.stabilise.world.Region;
 import com.stabilise.world.WorldProvider;
+import com.stabilise.world.gen.GenContext;
 import com.stabilise.world.gen.IWorldGenerator;
 import com.stabilise.world.tile.Tiles;
 
@@ -24,7 +25,7 @@ public class GrassPlacer implements IWorldGenerator {
     //   if we take a naive approach to the ergonomic point above.
     
     @Override
-    public void generate(Region r, WorldProvider w, long seed) {
+    public void generate(Region r, WorldProvider w, GenContext ctx) {
         Position pos1 = Position.createFixed();
         Position pos2 = Position.createFixed();
         
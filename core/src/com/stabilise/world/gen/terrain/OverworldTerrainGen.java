@@ -1,6 +1,8 @@
 package com.stabilise.world.gen.terrain;
 
 import static com.stabilise.world.Region.REGION_SIZE_IN_TILES;
+import static com.stabilise.world.Slice.SLICE_SIZE;
+import static com.stabilise.world.Slice.TILES_PER_SLICE;
 import static com.stabilise.world.tile.Tiles.air;
 import static com.stabilise.world.tile.Tiles.bedrock;
 import static com.stabilise.world.tile.Tiles.dirt;
@@ -9,81 +11,168 @@ import static com.stabilise.world.tile.Tiles.grass;
 import static com.stabilise.world.tile.Tiles.stone;
 import static com.stabilise.world.tile.Tiles.torch;
 
-import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Random;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 
-import com.stabilise.entity.Position;
 import com.stabilise.util.maths.OctaveNoise;
 import com.stabilise.world.Region;
-import com.stabilise.world.WorldProvider;
-import com.stabilise.world.gen.IWorldGenerator;
-import com.stabilise.world.tile.Tile;
+import com.stabilise.world.Slice;
+import com.stabilise.world.gen.ColumnCache;
+import com.stabilise.world.gen.GenContext;
+import com.stabilise.world.gen.ISliceGenerator;
 
 /**
  * Basic overworld terrain generation.
+ * 
+ * <p>The height of the surface depends only on x, so it is computed once for
+ * each column of regions and shared between every region in that column (and
+ * every thread), which also lets slices which lie wholly above or below the
+ * surface skip the per-tile height checks.
  */
-@NotThreadSafe
-public class OverworldTerrainGen implements IWorldGenerator {
+@ThreadSafe
+public class OverworldTerrainGen implements ISliceGenerator {
+    
+    /** The salt for each slice's RNG. */
+    private static final long RNG_SALT = 0x6a09e667f3bcc909L;
     
-    private final Position pos = Position.createFixed();
-    private WorldProvider w;
+    /** The surface heights of recently-generated columns of regions. */
+    private final ColumnCache<Column> columns = new ColumnCache<>(1024);
     
     @Override
-    public void generate(Region r, WorldProvider w, long seed) {
-        this.w = w;
+    public void generateSlice(Region r, Slice s, GenContext ctx) {
+        State state = ctx.state(this, State::new);
+        Column c = columns.get(r.x(), x -> new Column(state.landNoise, x));
+        
+        int colOff = (s.x - r.offsetX) * SLICE_SIZE; // offset into c.heights
+        int tileOffY = s.y * SLICE_SIZE;
         
-        long mix = 0x3ce575a3c1e97863L;
-        OctaveNoise landNoise = OctaveNoise.perlin(seed^mix)
-                .addOctave(4096, 256)
-                .addOctave(128,  64 )
-                .addOctave(64,   32 )
-                .addOctave(32,   16 )
-                .addOctave(16,   8  )
-                .addOctave(8,    4  )
-                .addOctave(4,    2  );
+        float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+        for(int x = 0; x < SLICE_SIZE; x++) {
+            min = Math.min(min, c.heights[colOff + x]);
+            max = Math.max(max, c.heights[colOff + x]);
+        }
+        
+        // Slices wholly in the sky are left as air. The height above the
+        // surface increases going up, so the bottom row is the lowest.
+        if(max - tileOffY <= -1)
+            return;
         
-        int tileOffX = r.x() * REGION_SIZE_IN_TILES;
-        int tileOffY = r.y() * REGION_SIZE_IN_TILES;
+        Random rnd = ctx.sliceRandom(s, RNG_SALT);
+        int airID = air.getID(), dirtID = dirt.getID(), stoneID = stone.getID();
+        int bedrockID = bedrock.getID(), glowID = glowstone.getID();
         
-        float[] noiseVec = new float[REGION_SIZE_IN_TILES];
-        for(int x = 0; x < REGION_SIZE_IN_TILES; x++) {
-            noiseVec[x] = landNoise.noise(x+tileOffX) - tileOffY;
+        // Slices wholly underground may be filled without looking at the
+        // height. We leave an extra tile's leeway on the lower bound rather
+        // than fret over rounding.
+        float lowest = min - tileOffY - SLICE_SIZE;
+        int fill = lowest > 210f ? bedrockID
+                : lowest > 5.75f && max - tileOffY <= 200f ? stoneID
+                : -1;
+        if(fill != -1) {
+            s.fillTiles(0, 0, SLICE_SIZE, SLICE_SIZE, fill);
+            s.fillWalls(0, 0, SLICE_SIZE, SLICE_SIZE, fill);
+            // Then scatter the glowstone, drawing from the RNG tile by tile
+            // in the same order as the loop below
+            for(int y = 0; y < SLICE_SIZE; y++) {
+                for(int x = 0; x < SLICE_SIZE; x++) {
+                    if(chance(rnd, 30)) {
+                        s.setTileIDAt(x, y, glowID);
+                        s.setWallIDAt(x, y, glowID);
+                    }
+                }
+            }
+            return;
         }
         
-        for(int y = 0; y < REGION_SIZE_IN_TILES; y++) {
-            for(int x = 0; x < REGION_SIZE_IN_TILES; x++) {
-            	pos.set(r.offsetX, r.offsetY, x, y).align();
-            	
-                float noise = noiseVec[x]--;
+        // Build the slice's IDs and then hand them over all at once. This is
+        // the first generator to touch the slice, so the air above the
+        // surface may be written out as-is.
+        int[] tiles = state.tiles, walls = state.walls;
+        for(int y = 0, i = 0; y < SLICE_SIZE; y++) {
+            for(int x = 0; x < SLICE_SIZE; x++, i++) {
+                // The depth below the surface
+                float noise = c.heights[colOff + x] - (tileOffY + y);
                 
+                int tile, wall;
                 if(noise <= -1)
-                    w.setTileAt(pos, air);
+                    tile = wall = airID;
                 else if(noise <= 0) {
-                    if(w.rnd().nextInt(10) == 0) {
-                        w.setTileAt(pos, torch);
-                    } else
-                        set(air);
+                    tile = rnd.nextInt(10) == 0 ? torch.getID() : airID;
+                    wall = airID;
                 } else if(noise <= 1) {
-                    w.setTileAt(pos, grass);
-                    w.setWallAt(pos, dirt);
+                    tile = grass.getID();
+                    wall = dirtID;
                 } else if(noise <= 5.75f)
-                    set(dirt);
+                    tile = wall = dirtID;
                 else if(noise <= 200f)
-                    set(w.chance(30) ? glowstone : stone);
+                    tile = wall = chance(rnd, 30) ? glowID : stoneID;
                 else if(noise <= 210f)
-                    set(w.chance(30) ? glowstone :
-                        (w.rnd().nextDouble() > (210-noise)/10 ? bedrock : stone));
+                    tile = wall = chance(rnd, 30) ? glowID :
+                        (rnd.nextDouble() > (210-noise)/10 ? bedrockID : stoneID);
                 else
-                    set(w.chance(30) ? glowstone : bedrock);
+                    tile = wall = chance(rnd, 30) ? glowID : bedrockID;
+                tiles[i] = tile;
+                walls[i] = wall;
             }
         }
+        s.setTiles(tiles, walls);
     }
     
     /**
-     * Sets both the tile and wall at the given position to the specified tile.
+     * Returns {@code true} {@code 1/n}<sup><font size=-1>th</font></sup> of
+     * the time, as per {@link com.stabilise.world.WorldProvider#chance(int)}.
      */
-    protected void set(Tile t) {
-        w.setTileAt(pos, t);
-        w.setWallAt(pos, t);
+    private static boolean chance(Random rnd, int n) {
+        return rnd.nextInt(n) == 0;
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * The noise and scratch space with which a thread generates terrain.
+     */
+    private static class State {
+        
+        private final OctaveNoise landNoise;
+        /** Scratch space for the IDs of a slice's tiles and walls. */
+        private final int[] tiles = new int[TILES_PER_SLICE];
+        private final int[] walls = new int[TILES_PER_SLICE];
+        
+        private State(long seed) {
+            long mix = 0x3ce575a3c1e97863L;
+            // The noise is in tiles, so an error of 0.00005 in the broadest
+            // octave amounts to around a hundredth of a tile.
+            landNoise = OctaveNoise.perlin(seed^mix)
+                    .addOctave(4096, 256, 0.00005f)
+                    .addOctave(128,  64 )
+                    .addOctave(64,   32 )
+                    .addOctave(32,   16 )
+                    .addOctave(16,   8  )
+                    .addOctave(8,    4  )
+                    .addOctave(4,    2  );
+        }
+        
+    }
+    
+    /**
+     * The height of the surface, in tiles, across a column of regions.
+     */
+    @Immutable
+    private static class Column {
+        
+        private final float[] heights = new float[REGION_SIZE_IN_TILES];
+        
+        /**
+         * @param x The x-coordinate of the column, in region-lengths.
+         */
+        private Column(OctaveNoise landNoise, int x) {
+            landNoise.noise(heights, x * REGION_SIZE_IN_TILES, REGION_SIZE_IN_TILES, 1);
+        }
+        
     }
     
 }
@@ -8,7 +8,9 @@ import com.stabilise.entity.Position;
 import com.stabilise.util.maths.Interpolation;
 import com.stabilise.util.maths.OctaveNoise;
 import com.stabilise.world.Region;
+import com.stabilise.world.TileWriter;
 import com.stabilise.world.WorldProvider;
+import com.stabilise.world.gen.GenContext;
 import com.stabilise.world.gen.IWorldGenerator;
 import com.stabilise.world.tile.Tile;
 import com.stabilise.world.tile.Tiles;
@@ -29,13 +31,30 @@ public class PrivateTerrainGen implements IWorldGenerator {
             caveAbove = 0.5f;
     
     @Override
-    public void generate(Region r, WorldProvider w, long seed) {
-        long mix = 0x8daa1080e4bef1cdL;
-        OctaveNoise caveNoise = OctaveNoise.simplex(seed^mix)
-                .addOctave(16,  2)
-                .normalise();
+    public void generate(Region r, WorldProvider w, GenContext ctx) {
+        OctaveNoise caveNoise = ctx.state(this, seed -> {
+            long mix = 0x8daa1080e4bef1cdL;
+            return OctaveNoise.simplex(seed^mix)
+                    .addOctave(16,  2)
+                    .normalise();
+        });
         
         Position pos = Position.createFixed();
+        pos.set(r.offsetX, r.offsetY, 0, 0).align();
+        
+        // Regions wholly beyond the caves are solid rock. Allow an extra tile
+        // either way so as not to hinge on rounding.
+        int tileOffX = r.x() * REGION_SIZE_IN_TILES;
+        int tileOffY = r.y() * REGION_SIZE_IN_TILES;
+        double nearX = Math.max(0, Math.max(tileOffX, -(tileOffX + REGION_SIZE_IN_TILES)));
+        double nearY = Math.max(0, Math.max(tileOffY, -(tileOffY + REGION_SIZE_IN_TILES)));
+        if(Math.sqrt(nearX*nearX + nearY*nearY) > caveExtent + 1) {
+            int id = Tiles.voidRockDense.getID();
+            w.fill(pos, REGION_SIZE_IN_TILES, REGION_SIZE_IN_TILES, id, id);
+            return;
+        }
+        
+        TileWriter out = w.writer(pos, REGION_SIZE_IN_TILES, REGION_SIZE_IN_TILES);
         
         for(int y = 0; y < REGION_SIZE_IN_TILES; y++) {
             for(int x = 0; x < REGION_SIZE_IN_TILES; x++) {
@@ -43,8 +62,8 @@ public class PrivateTerrainGen implements IWorldGenerator {
                 float d = (float) pos.distFromOrigin();
                 
                 if(d > caveExtent) {
-                    w.setTileAt(pos, Tiles.voidRockDense);
-                    w.setWallAt(pos, Tiles.voidRockDense);
+                    int id = Tiles.voidRockDense.getID();
+                    out.put(id, id);
                 } else {
                     float cave = caveNoise.noise(pos.gx(), pos.gy()) + attenuation(d);
                     
@@ -55,11 +74,8 @@ public class PrivateTerrainGen implements IWorldGenerator {
                             ? Tiles.voidRockDense
                             : Tiles.voidRock;
                     
-                    if(cave > caveAbove)
-                    	w.setTileAt(pos, Tiles.air);
-                    else
-                    	w.setTileAt(pos, rockType);
-                    w.setWallAt(pos, rockType);
+                    out.put(cave > caveAbove ? Tiles.air.getID() : rockType.getID(),
+                            rockType.getID());
                 }
             }
         }
@@ -40,4 +40,44 @@ public interface IRegionLoader {
 	@ThreadSafeMethod
 	void save(Region r, DataCompound c, boolean generated);
 	
+	/**
+	 * Loads a slice of {@code r} from the given DataCompound. Each slice of a
+	 * generated region is stored separately from the region itself, so that
+	 * slices may be saved individually. This is invoked after {@link
+	 * #load(Region, DataCompound, boolean) load()}.
+	 * 
+	 * <p>The tiles, walls, light and tile entities of a slice are decoded by
+	 * the WorldLoader itself as the slice is read, so {@code c} only holds
+	 * whatever else was saved with the slice. This is not invoked at all if
+	 * there is nothing else.
+	 * 
+	 * <p>The default implementation does nothing.
+	 * 
+	 * @param r The region to load into.
+	 * @param x The x-coordinate of the slice relative to the region, in
+	 * slice-lengths.
+	 * @param y The y-coordinate of the slice relative to the region, in
+	 * slice-lengths.
+	 * @param c The compound to read from.
+	 */
+	@ThreadSafeMethod
+	default void loadSlice(Region r, int x, int y, DataCompound c) {}
+	
+	/**
+	 * Saves a slice of {@code r} into the given DataCompound. This is only
+	 * invoked for generated regions, and only for slices which have been
+	 * modified since the region was last saved.
+	 * 
+	 * <p>The default implementation does nothing.
+	 * 
+	 * @param r The region to save.
+	 * @param x The x-coordinate of the slice relative to the region, in
+	 * slice-lengths.
+	 * @param y The y-coordinate of the slice relative to the region, in
+	 * slice-lengths.
+	 * @param c The compound to write to.
+	 */
+	@ThreadSafeMethod
+	default void saveSlice(Region r, int x, int y, DataCompound c) {}
+	
 }
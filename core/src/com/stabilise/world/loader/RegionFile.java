@@ -0,0 +1,457 @@
+package com.stabilise.world.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.maths.Maths;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.world.Region;
+
+/**
+ * A {@code RegionFile} packs the data of an {@link #FILE_SIZE} x {@link
+ * #FILE_SIZE} block of regions into a single file, so that a world's
+ * directory isn't littered with thousands of tiny files.
+ *
+ * <p>Each region is stored as {@link #RECORDS_PER_REGION} separately
+ * addressable records: record 0 holds the region's own data, and records
+ * {@code 1} through {@code REGION_SIZE * REGION_SIZE} hold its slices, so
+ * that a single modified slice can be rewritten without touching the rest of
+ * the region.
+ *
+ * <p>A region file is split into sectors of {@link #SECTOR_SIZE} bytes. The
+ * first sectors form the header, which holds a magic number, the version of
+ * the file, and an offset table with an entry for every record in the file.
+ * Each entry records the first sector of the record's payload and the number
+ * of sectors it occupies (a first sector of 0 indicates the record isn't
+ * present).
+ *
+ * <p>Each payload begins on a sector boundary and is prefixed by its length
+ * in bytes and the {@link Compression#id() ID} of the codec it was written
+ * with, so that records written with different codecs -- e.g., by different
+ * versions of the game -- may sit side by side in a file. Since payloads are
+ * sector-aligned, a record whose new payload fits in the sectors it already
+ * occupies is simply rewritten in place. Otherwise, it is moved to the first
+ * run of free sectors large enough to hold it, or appended to the end of the
+ * file if there is no such run.
+ *
+ * <p>Note that the offset table entry of a record is only updated after its
+ * payload has been written, so a record moving to new sectors never leaves
+ * its entry pointing to a half-written payload.
+ */
+@ThreadSafe
+public class RegionFile implements Closeable {
+
+    //--------------------==========--------------------
+    //-----=====Static Constants and Variables=====-----
+    //--------------------==========--------------------
+
+    /** The length of an edge of the square of regions in a region file. */
+    public static final int FILE_SIZE = 8; // must be a power of two
+    /** {@link #FILE_SIZE} - 1; minor optimisation purposes. */
+    public static final int FILE_SIZE_MINUS_ONE = FILE_SIZE - 1;
+    /** The power of 2 of {@link #FILE_SIZE}; minor optimisation purposes. */
+    public static final int FILE_SIZE_SHIFT = Maths.log2(FILE_SIZE);
+    /** The number of regions in a region file. */
+    public static final int REGIONS_PER_FILE = FILE_SIZE * FILE_SIZE;
+    /** The number of records stored for each region: one for the region
+     * itself, and one for each of its slices. */
+    public static final int RECORDS_PER_REGION = 1 + Region.REGION_SIZE * Region.REGION_SIZE;
+    /** The number of records in a region file. */
+    private static final int NUM_RECORDS = REGIONS_PER_FILE * RECORDS_PER_REGION;
+
+    /** The size of a sector, in bytes. This is small since most slice
+     * records compress to a few hundred bytes. */
+    public static final int SECTOR_SIZE = 256;
+
+    /** "SRGN" */
+    private static final int MAGIC = 0x5352474E;
+    /** The version of the region file layout. */
+    private static final int VERSION = 1;
+    /** Size of the header in bytes: magic + version, then an (offset,
+     * sectors) pair for every record. */
+    private static final int HEADER_BYTES = 8 + 8 * NUM_RECORDS;
+    /** The number of sectors occupied by the header. */
+    private static final int HEADER_SECTORS = sectorsFor(HEADER_BYTES);
+    /** Number of bytes prefixed to each payload: an int for its length and a
+     * byte for its compression. */
+    private static final int PAYLOAD_HEADER_BYTES = 5;
+
+    //--------------------==========--------------------
+    //-------------=====Member Variables=====-----------
+    //--------------------==========--------------------
+
+    private final File file;
+    private final RandomAccessFile raf;
+    /** The channel of {@link #raf}, with which records are read. */
+    private final FileChannel channel;
+
+    /** The first sector of each record's payload; 0 if absent. */
+    private final int[] offsets = new int[NUM_RECORDS];
+    /** The number of sectors occupied by each record's payload. */
+    private final int[] sectorCounts = new int[NUM_RECORDS];
+    /** Tracks which sectors are in use. */
+    private final BitSet usedSectors = new BitSet();
+    /** The number of sectors in the file. */
+    private int numSectors;
+
+
+    /**
+     * Opens a region file, creating it if it does not exist.
+     *
+     * @throws NullPointerException if {@code file} is {@code null}.
+     * @throws IOException if the file could not be opened, or it is not a
+     * valid region file.
+     */
+    public RegionFile(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+
+        try {
+            if(raf.length() == 0)
+                writeHeader();
+            else
+                readHeader();
+        } catch(IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a blank header for a newly-created file.
+     */
+    private void writeHeader() throws IOException {
+        byte[] header = new byte[HEADER_SECTORS * SECTOR_SIZE];
+        putInt(header, 0, MAGIC);
+        putInt(header, 4, VERSION);
+        raf.write(header);
+
+        numSectors = HEADER_SECTORS;
+        usedSectors.set(0, HEADER_SECTORS);
+    }
+
+    /**
+     * Reads the header of an existing file.
+     */
+    private void readHeader() throws IOException {
+        if(raf.length() < HEADER_BYTES)
+            throw new IOException(file + " is too small to be a region file");
+
+        // Read the whole header at once rather than an int at a time
+        byte[] header = new byte[HEADER_BYTES];
+        raf.seek(0);
+        raf.readFully(header);
+        ByteBuffer buf = ByteBuffer.wrap(header);
+
+        if(buf.getInt() != MAGIC)
+            throw new IOException(file + " is not a region file");
+        int version = buf.getInt();
+        if(version != VERSION)
+            throw new IOException("Unsupported region file version " + version
+                    + " for " + file);
+
+        // Pad out a trailing partial sector, which can be left behind if we
+        // crashed while appending a payload.
+        numSectors = sectorsFor(raf.length());
+        if((long)numSectors * SECTOR_SIZE != raf.length())
+            raf.setLength((long)numSectors * SECTOR_SIZE);
+
+        usedSectors.set(0, HEADER_SECTORS);
+
+        for(int i = 0; i < NUM_RECORDS; i++) {
+            int offset = buf.getInt();
+            int count = buf.getInt();
+            // Ignore any entries which are obviously garbage.
+            if(offset >= HEADER_SECTORS && count > 0 && offset + count <= numSectors) {
+                offsets[i] = offset;
+                sectorCounts[i] = count;
+                usedSectors.set(offset, offset + count);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if this file holds data for the region at the
+     * specified coordinates, i.e. if it holds the region's record 0.
+     *
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     */
+    public synchronized boolean contains(int x, int y) {
+        return offsets[index(x, y, 0)] != 0;
+    }
+
+    /**
+     * Reads a record of the region at the specified coordinates.
+     *
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * @param record The record, from 0 to {@link #RECORDS_PER_REGION} - 1.
+     *
+     * @return A stream from which the record's decompressed data may be read,
+     * or {@code null} if this file does not hold the record.
+     * @throws ArrayIndexOutOfBoundsException if {@code record} is out of
+     * bounds.
+     * @throws IOException if an I/O error occurs, or the record is corrupt.
+     */
+    public InputStream read(int x, int y, int record) throws IOException {
+        ByteBuffer payload = readPayload(x, y, record);
+        if(payload == null)
+            return null;
+        Compression compression = Compression.byID(payload.get() & 0xFF);
+        return compression.wrap(new ByteArrayInputStream(payload.array(),
+                payload.position(), payload.remaining()));
+    }
+
+    /**
+     * Reads a record of the region at the specified coordinates into a
+     * buffer. The record is read from the file in a single operation, and is
+     * decompressed without holding the lock on this file. This is preferable
+     * to {@link #read(int, int, int)} when the whole record is going to be
+     * read anyway.
+     *
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * @param record The record, from 0 to {@link #RECORDS_PER_REGION} - 1.
+     *
+     * @return A buffer holding the record's decompressed data between its
+     * position and limit, or {@code null} if this file does not hold the
+     * record.
+     * @throws ArrayIndexOutOfBoundsException if {@code record} is out of
+     * bounds.
+     * @throws IOException if an I/O error occurs, or the record is corrupt.
+     */
+    public ByteBuffer readBuffer(int x, int y, int record) throws IOException {
+        ByteBuffer payload = readPayload(x, y, record);
+        if(payload == null)
+            return null;
+        Compression compression = Compression.byID(payload.get() & 0xFF);
+        return compression.decompress(payload, payload.remaining() * 4);
+    }
+
+    /**
+     * Reads the payload of a record with a single positional read. This is
+     * also used to copy records between files without decompressing them.
+     *
+     * @return A heap buffer positioned at the payload's compression byte,
+     * with its limit at the end of the payload's data; {@code null} if the
+     * record is absent.
+     */
+    synchronized ByteBuffer readPayload(int x, int y, int record)
+            throws IOException {
+        int i = index(x, y, record);
+        if(offsets[i] == 0)
+            return null;
+
+        ByteBuffer buf = ByteBuffer.allocate(sectorCounts[i] * SECTOR_SIZE);
+        long pos = (long)offsets[i] * SECTOR_SIZE;
+        while(buf.hasRemaining()) {
+            if(channel.read(buf, pos + buf.position()) < 0)
+                break;
+        }
+        buf.flip();
+
+        int length = buf.remaining() < PAYLOAD_HEADER_BYTES ? -1 : buf.getInt();
+        if(length < 0 || length + PAYLOAD_HEADER_BYTES > buf.limit())
+            throw new IOException("Bad payload length " + length + " for record "
+                    + record + " of region (" + x + "," + y + ") in " + file);
+        int compression = buf.get(buf.position()) & 0xFF;
+        if(Compression.byID(compression) == null)
+            throw new IOException("Unknown compression " + compression + " for record "
+                    + record + " of region (" + x + "," + y + ") in " + file);
+
+        buf.limit(PAYLOAD_HEADER_BYTES + length);
+        return buf;
+    }
+
+    /**
+     * Writes a record of the region at the specified coordinates.
+     *
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * @param record The record, from 0 to {@link #RECORDS_PER_REGION} - 1.
+     * @param data The record's data, already compressed with {@code
+     * compression}.
+     * @param compression The compression {@code data} was written with.
+     *
+     * @throws NullPointerException if either {@code data} or {@code
+     * compression} are {@code null}.
+     * @throws ArrayIndexOutOfBoundsException if {@code record} is out of
+     * bounds.
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void write(int x, int y, int record, byte[] data,
+            Compression compression) throws IOException {
+        int i = index(x, y, record);
+        int offset = offsets[i];
+        int count = sectorCounts[i];
+        int needed = sectorsFor(data.length + PAYLOAD_HEADER_BYTES);
+
+        if(offset != 0 && needed <= count) {
+            // We fit where we already are, so rewrite in place and give back
+            // any sectors we no longer need.
+            writePayload(offset, data, compression);
+            if(needed < count) {
+                setEntry(i, offset, needed);
+                usedSectors.clear(offset + needed, offset + count);
+            }
+        } else {
+            // Allocate before freeing the old sectors so we never clobber the
+            // old payload before the offset table stops pointing to it.
+            int newOffset = allocate(needed);
+            writePayload(newOffset, data, compression);
+            setEntry(i, newOffset, needed);
+            if(offset != 0)
+                usedSectors.clear(offset, offset + count);
+        }
+    }
+
+    /**
+     * Writes several records of the region at the specified coordinates in
+     * one go, in the order they are given.
+     *
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * @param records The records to write.
+     * @param data The data of each record, already compressed with {@code
+     * compression}.
+     * @param count The number of records to write.
+     * @param compression The compression the data was written with.
+     *
+     * @throws NullPointerException if any argument is {@code null}.
+     * @throws ArrayIndexOutOfBoundsException if any record is out of bounds,
+     * or either array is shorter than {@code count}.
+     * @throws IOException if an I/O error occurs.
+     * @see #write(int, int, int, byte[], Compression)
+     */
+    public synchronized void write(int x, int y, int[] records, byte[][] data,
+            int count, Compression compression) throws IOException {
+        for(int i = 0; i < count; i++)
+            write(x, y, records[i], data[i], compression);
+    }
+
+    /**
+     * Finds and reserves a run of {@code count} free sectors, growing the file
+     * if need be.
+     *
+     * @return The first sector of the run.
+     */
+    private int allocate(int count) throws IOException {
+        int start = usedSectors.nextClearBit(HEADER_SECTORS);
+        while(start < numSectors) {
+            int end = usedSectors.nextSetBit(start);
+            if(end == -1 || end >= numSectors) // free run reaches end of file
+                break;
+            if(end - start >= count) {
+                usedSectors.set(start, start + count);
+                return start;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+
+        // Either we ran off the end of the file, or the trailing free run was
+        // too small; either way, grow the file.
+        usedSectors.set(start, start + count);
+        if(start + count > numSectors) {
+            numSectors = start + count;
+            raf.setLength((long)numSectors * SECTOR_SIZE);
+        }
+        return start;
+    }
+
+    private void writePayload(int offset, byte[] data, Compression compression)
+            throws IOException {
+        byte[] header = new byte[PAYLOAD_HEADER_BYTES];
+        putInt(header, 0, data.length);
+        header[4] = (byte) compression.id();
+
+        raf.seek((long)offset * SECTOR_SIZE);
+        raf.write(header);
+        raf.write(data);
+    }
+
+    private void setEntry(int i, int offset, int count) throws IOException {
+        byte[] entry = new byte[8];
+        putInt(entry, 0, offset);
+        putInt(entry, 4, count);
+
+        raf.seek(8 + 8L * i);
+        raf.write(entry);
+
+        offsets[i] = offset;
+        sectorCounts[i] = count;
+    }
+
+    /**
+     * Forces everything written to this file out to the disk.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Closes this region file.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        raf.close();
+    }
+
+    @Override
+    public String toString() {
+        return "RegionFile[" + file.getName() + "]";
+    }
+
+    //--------------------==========--------------------
+    //------------=====Static Functions=====------------
+    //--------------------==========--------------------
+
+    /**
+     * Gets the index of a record's entry in the offset table.
+     */
+    private static int index(int x, int y, int record) {
+        if(record < 0 || record >= RECORDS_PER_REGION)
+            throw new ArrayIndexOutOfBoundsException("Invalid record " + record);
+        int region = ((y & FILE_SIZE_MINUS_ONE) << FILE_SIZE_SHIFT) | (x & FILE_SIZE_MINUS_ONE);
+        return region * RECORDS_PER_REGION + record;
+    }
+
+    /**
+     * Returns the number of sectors required to hold {@code bytes} bytes.
+     */
+    private static int sectorsFor(long bytes) {
+        return (int)((bytes + SECTOR_SIZE - 1) / SECTOR_SIZE);
+    }
+
+    private static void putInt(byte[] arr, int off, int i) {
+        arr[off  ] = (byte)(i >>> 24);
+        arr[off+1] = (byte)(i >>> 16);
+        arr[off+2] = (byte)(i >>>  8);
+        arr[off+3] = (byte) i;
+    }
+
+    /**
+     * Gets the coordinate of the region file containing the region with the
+     * specified coordinate.
+     *
+     * @param c The region coordinate, in region-lengths.
+     */
+    public static int fileCoordFromRegionCoord(int c) {
+        return c >> FILE_SIZE_SHIFT;
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.stabilise.world.loader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.Log;
+import com.stabilise.util.collect.LongMap;
+
+/**
+ * Keeps track of the open {@link RegionFile}s of a world's directory. Region
+ * files are opened as they are needed and stay open until this object is
+ * {@link #close() closed}.
+ */
+@ThreadSafe
+class RegionFiles implements Closeable {
+
+    /** The extension of region files. */
+    static final String EXTENSION = ".regions";
+    private static final Pattern NAME = Pattern.compile("c_(-?\\d+)_(-?\\d+)\\.regions");
+
+    /** The world's directory. */
+    private final FileHandle dir;
+
+    /** Maps packed region file coords -> region file. */
+    @GuardedBy("this") private final LongMap<RegionFile> files = new LongMap<>();
+
+
+    /**
+     * @param dir The directory in which to store region files.
+     */
+    RegionFiles(FileHandle dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Gets the region file which holds the region at the specified
+     * coordinates, opening it if necessary.
+     *
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     * @param create {@code true} if the region file should be created if it
+     * does not exist.
+     *
+     * @return The region file, or {@code null} if {@code create} is {@code
+     * false} and the file does not exist.
+     * @throws IOException if the region file could not be opened.
+     */
+    synchronized RegionFile get(int x, int y, boolean create) throws IOException {
+        int fx = RegionFile.fileCoordFromRegionCoord(x);
+        int fy = RegionFile.fileCoordFromRegionCoord(y);
+        long key = LongMap.key(fx, fy);
+
+        RegionFile file = files.get(key);
+        if(file == null) {
+            FileHandle handle = getFile(fx, fy);
+            if(!handle.exists()) {
+                if(!create)
+                    return null;
+                dir.mkdirs();
+            }
+            file = new RegionFile(handle.file());
+            files.put(key, file);
+        }
+        return file;
+    }
+
+    private FileHandle getFile(int fx, int fy) {
+        return dir.child("c_" + fx + "_" + fy + EXTENSION);
+    }
+
+    /**
+     * Lists the coordinates of every region file in the directory, in
+     * file-lengths, packed as per {@link LongMap#key(int, int)}.
+     */
+    long[] listFiles() {
+        FileHandle[] handles = dir.list(EXTENSION);
+        long[] coords = new long[handles.length];
+        int n = 0;
+        for(FileHandle f : handles) {
+            Matcher m = NAME.matcher(f.name());
+            if(m.matches())
+                coords[n++] = LongMap.key(Integer.parseInt(m.group(1)),
+                        Integer.parseInt(m.group(2)));
+        }
+        return n == coords.length ? coords : Arrays.copyOf(coords, n);
+    }
+
+    /**
+     * Forces everything written to the open region files out to the disk.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    synchronized void sync() throws IOException {
+        // Gather them first, since a lambda can't throw the IOException
+        List<RegionFile> open = new ArrayList<>(files.size());
+        files.forEach(open::add);
+        for(RegionFile f : open)
+            f.sync();
+    }
+
+    /**
+     * Closes all open region files. This object may still be used after
+     * closing; region files will simply be reopened as required.
+     */
+    @Override
+    public synchronized void close() {
+        files.forEach(f -> {
+            try {
+                f.close();
+            } catch(IOException e) {
+                Log.get().postWarning("Could not close " + f, e);
+            }
+        });
+        files.clear();
+    }
+
+}
@@ -0,0 +1,444 @@
+package com.stabilise.world.loader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.Log;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.io.data.Compression;
+
+/**
+ * An append-only write-ahead journal for a world's {@link RegionFiles}.
+ *
+ * <p>Region files are never synced as they are written, since doing so for
+ * every region would be ruinous on a slow disk. Instead, each region write is
+ * first appended to the journal as a single entry holding all of its
+ * records, and the journal is synced. Only then is the write applied to the
+ * region file. Should we crash, every entry in the journal is {@link
+ * #open() replayed} into the region files the next time the world is
+ * loaded, so that a region is never left half-written, or older than what we
+ * last told its saver.
+ *
+ * <p>Syncs are shared between writers: whichever writer syncs first syncs
+ * every entry appended so far, and the others just wait for it (so-called
+ * group commit). Writers which have several regions to save at once append
+ * them all and sync once; see {@link WorldLoader#writeAll(java.util.List)}.
+ *
+ * <p>Once the journal grows past {@link #CHECKPOINT_BYTES}, it is
+ * checkpointed on a background thread: the region files are synced, after
+ * which the journal is no longer needed and is truncated.
+ *
+ * <p>Usage is as follows:
+ *
+ * <pre>
+ * journal.beginWrite();
+ * try {
+ *     long seq = journal.append(...);
+ *     journal.sync(seq);
+ *     // write to the region file
+ * } finally {
+ *     journal.endWrite();
+ * }</pre>
+ *
+ * <p>If the journal can't be opened, writes go straight to the region files
+ * unjournalled, as they did before there was a journal.
+ */
+@ThreadSafe
+class RegionJournal {
+
+    /** The name of the journal file in the world's directory. */
+    static final String FILE_NAME = "regions.journal";
+    /** The size past which the journal is checkpointed. */
+    static final long CHECKPOINT_BYTES = 32L << 20;
+
+    /** "SJNL" */
+    private static final int MAGIC = 0x534A4E4C;
+    private static final int VERSION = 1;
+    /** Magic + version. */
+    private static final int HEADER_BYTES = 8;
+    /** Each entry is prefixed by the length of its body and its CRC. */
+    private static final int ENTRY_HEADER_BYTES = 8;
+    /** The largest body we'll believe when replaying. An entry holds at most
+     * one region's worth of records. */
+    private static final int MAX_BODY_BYTES = 64 << 20;
+
+    private final File file;
+    private final RegionFiles files;
+    private final Log log;
+
+    /** {@code null} if the journal isn't open. Only set while holding the
+     * write lock of {@link #writers}. */
+    private FileChannel channel = null;
+
+    /** Writers hold the read lock from appending until they have written
+     * their region files, so that a checkpoint, which holds the write lock,
+     * sees every journalled write applied. */
+    private final ReentrantReadWriteLock writers = new ReentrantReadWriteLock();
+
+    /** Entries which have been appended but not yet written out. */
+    @GuardedBy("this") private final ByteArrayOutputStream pending =
+            new ByteArrayOutputStream(1 << 16);
+    /** The sequence number of the last entry appended. */
+    @GuardedBy("this") private long appended = 0;
+    /** The sequence number of the last entry a sync has been attempted for,
+     * whether it succeeded or not. */
+    @GuardedBy("this") private long attempted = 0;
+    /** The batches of entries which were lost to a failed write, as first ->
+     * last sequence number. Failures are rare, so this stays tiny. */
+    @GuardedBy("this") private final TreeMap<Long, Long> lost = new TreeMap<>();
+    /** true while some writer is syncing on everyone's behalf. */
+    @GuardedBy("this") private boolean syncing = false;
+    /** The size of the journal file. Only touched by whoever is syncing, or
+     * by a checkpoint. */
+    private volatile long end = HEADER_BYTES;
+
+    private final AtomicBoolean checkpointPending = new AtomicBoolean(false);
+    @GuardedBy("writers") private boolean closed = false;
+
+
+    /**
+     * @param file The journal file.
+     * @param files The region files to journal writes for.
+     * @param log The log to post to.
+     */
+    RegionJournal(File file, RegionFiles files, Log log) {
+        this.file = file;
+        this.files = files;
+        this.log = log;
+    }
+
+    /**
+     * Replays anything left in the journal from a crash, and opens it for
+     * writing. If this fails the journal is not used.
+     */
+    @UserThread("WorkerThread")
+    void open() {
+        writers.writeLock().lock();
+        try {
+            if(file.exists()) {
+                try {
+                    replay();
+                } catch(IOException e) {
+                    File corrupt = new File(file.getPath() + ".corrupt");
+                    log.postSevere("Could not replay the region journal; it has been"
+                            + " kept as " + corrupt.getName(), e);
+                    corrupt.delete();
+                    if(!file.renameTo(corrupt))
+                        throw new IOException("Could not move aside " + file);
+                }
+            }
+            @SuppressWarnings("resource") // closed via channel
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            while(header.hasRemaining())
+                channel.write(header, header.position());
+            channel.position(HEADER_BYTES);
+            channel.force(true);
+            end = HEADER_BYTES;
+        } catch(IOException e) {
+            log.postSevere("Could not open the region journal; regions will be"
+                    + " saved without it", e);
+            closeChannel();
+            // A journal we don't keep up to date mustn't be replayed later
+            if(file.exists() && !file.delete())
+                log.postSevere("Could not delete " + file + "; delete it before"
+                        + " loading this world again!");
+        } finally {
+            writers.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies every intact entry of the journal file to the region files, and
+     * syncs them. Reading stops at the first torn or corrupt entry, which can
+     * only have been left behind by a crash partway through a sync, and hence
+     * was never applied in the first place.
+     */
+    private void replay() throws IOException {
+        int entries = 0;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16))) {
+            if(in.readInt() != MAGIC)
+                throw new IOException(file + " is not a region journal");
+            int version = in.readInt();
+            if(version != VERSION)
+                throw new IOException("Unsupported region journal version " + version);
+
+            CRC32 crc = new CRC32();
+            while(true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if(length <= 0 || length > MAX_BODY_BYTES)
+                    break;
+                byte[] body = new byte[length];
+                in.readFully(body);
+                crc.reset();
+                crc.update(body, 0, length);
+                if((int)crc.getValue() != checksum)
+                    break;
+                applyEntry(body);
+                entries++;
+            }
+        } catch(EOFException e) {
+            // torn tail, or simply the end of the journal
+        }
+
+        if(entries != 0) {
+            files.sync();
+            log.postInfo("Replayed " + entries + " region writes from the journal");
+        }
+    }
+
+    private void applyEntry(byte[] body) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        int x = buf.getInt();
+        int y = buf.getInt();
+        Compression compression = Compression.byID(buf.get() & 0xFF);
+        if(compression == null)
+            throw new IOException("Unknown compression in journal entry for region ("
+                    + x + "," + y + ")");
+        int count = buf.getShort();
+        int[] records = new int[count];
+        byte[][] data = new byte[count][];
+        for(int i = 0; i < count; i++) {
+            records[i] = buf.getShort();
+            data[i] = new byte[buf.getInt()];
+            buf.get(data[i]);
+        }
+        files.get(x, y, true).write(x, y, records, data, count, compression);
+    }
+
+    /**
+     * Starts a write. Every {@link #append(int, int, int[], byte[][], int,
+     * Compression) append} must be done between this and {@link
+     * #endWrite()}, as must applying the appended entries to the region
+     * files.
+     */
+    @UserThread("Any")
+    void beginWrite() {
+        writers.readLock().lock();
+    }
+
+    /**
+     * Ends a write, and starts a checkpoint in the background if the journal
+     * has grown large enough.
+     */
+    @UserThread("Any")
+    void endWrite() {
+        writers.readLock().unlock();
+        if(end > CHECKPOINT_BYTES && checkpointPending.compareAndSet(false, true)) {
+            Thread t = new Thread(() -> {
+                try {
+                    checkpoint();
+                } catch(IOException e) {
+                    log.postSevere("Region journal checkpoint failed", e);
+                } finally {
+                    checkpointPending.set(false);
+                }
+            }, "RegionJournal-Checkpoint");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Appends an entry for the records of a region. The entry isn't durable
+     * until it has been {@link #sync(long) synced}.
+     *
+     * @return The entry's sequence number.
+     * @throws IOException if the entry could not be encoded.
+     */
+    @UserThread("Any")
+    long append(int x, int y, int[] records, byte[][] data, int count,
+            Compression compression) throws IOException {
+        if(channel == null)
+            return 0;
+
+        int length = 11;
+        for(int i = 0; i < count; i++)
+            length += 6 + data[i].length;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(ENTRY_HEADER_BYTES + length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(length);
+        out.writeInt(0); // CRC; filled in below
+        out.writeInt(x);
+        out.writeInt(y);
+        out.writeByte(compression.id());
+        out.writeShort(count);
+        for(int i = 0; i < count; i++) {
+            out.writeShort(records[i]);
+            out.writeInt(data[i].length);
+            out.write(data[i]);
+        }
+        byte[] entry = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(entry, ENTRY_HEADER_BYTES, length);
+        ByteBuffer.wrap(entry).putInt(4, (int)crc.getValue());
+
+        synchronized(this) {
+            pending.write(entry, 0, entry.length);
+            return ++appended;
+        }
+    }
+
+    /**
+     * Waits until the entry with the given sequence number, and hence every
+     * one before it, is durable, syncing them all ourselves if nobody else
+     * is already doing so.
+     *
+     * @throws IOException if the entry could not be written.
+     */
+    @UserThread("Any")
+    void sync(long seq) throws IOException {
+        boolean interrupted = false;
+        try {
+            while(true) {
+                byte[] batch;
+                long from, upto;
+                synchronized(this) {
+                    while(syncing && attempted < seq) {
+                        try {
+                            wait();
+                        } catch(InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if(attempted >= seq) {
+                        // A later batch succeeding says nothing of ours, so
+                        // check which batch the entry was in.
+                        if(isLost(seq))
+                            throw new IOException("Journal write failed");
+                        return;
+                    }
+                    syncing = true;
+                    batch = pending.toByteArray();
+                    pending.reset();
+                    from = attempted + 1;
+                    upto = appended;
+                }
+
+                IOException failure = null;
+                long start = end;
+                try {
+                    ByteBuffer buf = ByteBuffer.wrap(batch);
+                    while(buf.hasRemaining())
+                        channel.write(buf);
+                    channel.force(false);
+                    end = start + batch.length;
+                } catch(IOException e) {
+                    failure = e;
+                    // Cut off anything we half-wrote, so that it doesn't hide
+                    // later entries from a replay.
+                    try {
+                        channel.truncate(start);
+                        channel.position(start);
+                    } catch(IOException e2) {
+                        e.addSuppressed(e2);
+                    }
+                }
+
+                synchronized(this) {
+                    syncing = false;
+                    attempted = upto;
+                    if(failure != null)
+                        lost.put(from, upto);
+                    notifyAll();
+                }
+                if(failure != null)
+                    throw failure;
+            }
+        } finally {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the entry with the given sequence number was in
+     * a batch whose write failed.
+     */
+    @GuardedBy("this")
+    private boolean isLost(long seq) {
+        Map.Entry<Long, Long> batch = lost.floorEntry(seq);
+        return batch != null && seq <= batch.getValue();
+    }
+
+    /**
+     * Syncs the region files and empties the journal. This waits for every
+     * write in progress to finish.
+     *
+     * @throws IOException if an I/O error occurs. The journal is left as-is
+     * if so.
+     */
+    @UserThread("Any")
+    void checkpoint() throws IOException {
+        writers.writeLock().lock();
+        try {
+            if(channel == null || closed || end == HEADER_BYTES)
+                return;
+            // Nobody is mid-write, so everything in the journal has been
+            // written to the region files.
+            files.sync();
+            channel.truncate(HEADER_BYTES);
+            channel.position(HEADER_BYTES);
+            channel.force(true);
+            end = HEADER_BYTES;
+        } finally {
+            writers.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checkpoints and closes the journal. Writes are applied to the region
+     * files unjournalled from then on.
+     */
+    @UserThread("MainThread")
+    void close() {
+        try {
+            checkpoint();
+        } catch(IOException e) {
+            // The journal is still intact, so will be replayed next time
+            log.postSevere("Region journal checkpoint failed", e);
+        }
+        writers.writeLock().lock();
+        try {
+            closed = true;
+            closeChannel();
+        } finally {
+            writers.writeLock().unlock();
+        }
+    }
+
+    private void closeChannel() {
+        if(channel == null)
+            return;
+        try {
+            channel.close();
+        } catch(IOException e) {
+            log.postWarning("Could not close the region journal", e);
+        }
+        channel = null;
+    }
+
+}
@@ -0,0 +1,299 @@
+package com.stabilise.world.loader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.stabilise.util.Log;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.world.Region;
+import com.stabilise.world.RegionState;
+import com.stabilise.world.RegionStore.RegionCallback;
+import com.stabilise.world.WorldStatistics;
+import com.stabilise.world.loader.WorldLoader.RegionWrite;
+
+/**
+ * A {@code RegionSaver} saves regions on a dedicated thread on behalf of a
+ * {@link WorldLoader}, so that saves don't tie up the threads which load and
+ * generate regions.
+ *
+ * <p>Regions are saved in batches of up to {@link #MAX_BATCH}. Every region
+ * in a batch is encoded before any of them are written, and the writes are
+ * grouped by region file so that each file is visited once per batch. The
+ * whole batch shares a single sync of the {@link RegionJournal}.
+ *
+ * <p>Saves requested for a region while it waits in the queue are coalesced
+ * into a single save (see {@link RegionState#coalesceQueuedSaves()}). A save
+ * requested while a region is being written puts it back at the end of the
+ * queue rather than having it be written again straight away.
+ *
+ * <p>The queue holds at most {@link #CAPACITY} regions. Threads requesting a
+ * save while the queue is full block until there is room for it, so that if
+ * the disk can't keep up we slow down the production of regions rather than
+ * letting unsaved regions pile up in memory.
+ *
+ * <p>The saver thread is started when a save is requested, and stops after
+ * {@link #IDLE_TIMEOUT} seconds without any saves to perform.
+ */
+@ThreadSafe
+class RegionSaver {
+
+    /** The maximum number of regions which may be queued for saving. */
+    static final int CAPACITY = 256;
+    /** The maximum number of regions saved in a single pass. */
+    static final int MAX_BATCH = 32;
+    /** The number of seconds the saver thread waits for another save before
+     * stopping. */
+    static final long IDLE_TIMEOUT = 30L;
+
+    private final WorldLoader loader;
+    private final WorldStatistics.ProcessStats stats;
+    private final Log log;
+    private final String threadName;
+
+    private final Lock lock = new ReentrantLock();
+    /** Signalled when a region is queued, or when we're closed. */
+    private final Condition notEmpty = lock.newCondition();
+    /** Signalled when regions are taken off the queue, or when we're
+     * closed. */
+    private final Condition notFull = lock.newCondition();
+
+    /** The regions waiting to be saved. */
+    @GuardedBy("lock") private final Queue<Entry> queue = new ArrayDeque<>();
+    /** The saver thread. {@code null} if it isn't running. */
+    @GuardedBy("lock") private Thread thread = null;
+    @GuardedBy("lock") private boolean closed = false;
+
+
+    /**
+     * @param loader The loader to save regions for.
+     * @param stats The save stats.
+     * @param log The log to post failures to.
+     * @param threadName The name to give the saver thread.
+     */
+    RegionSaver(WorldLoader loader, WorldStatistics.ProcessStats stats,
+            Log log, String threadName) {
+        this.loader = loader;
+        this.stats = stats;
+        this.log = log;
+        this.threadName = threadName;
+    }
+
+    /**
+     * Queues a region to be saved. The caller must have acquired a {@link
+     * RegionState#getSavePermit() permit} to save the region, so a region is
+     * never queued twice.
+     *
+     * <p>If the queue is full, this blocks until there is room.
+     *
+     * @param r The region to save.
+     * @param callback The function to call once the region is saved.
+     *
+     * @return {@code true} if the region was queued; {@code false} if this
+     * saver has been {@link #close() closed}, in which case the caller should
+     * save the region itself.
+     */
+    @UserThread("Any")
+    boolean submit(Region r, RegionCallback callback) {
+        lock.lock();
+        try {
+            // The saver thread itself should never wait for room, since it's
+            // the one which makes it.
+            while(queue.size() >= CAPACITY && !closed && Thread.currentThread() != thread)
+                notFull.awaitUninterruptibly();
+            if(closed)
+                return false;
+
+            queue.add(new Entry(r, callback));
+            if(thread == null) {
+                thread = new Thread(this::run, threadName);
+                thread.setUncaughtExceptionHandler((th, e) ->
+                    log.postSevere("Saver thread \"" + th.getName() + "\" died!", e)
+                );
+                thread.start();
+            } else
+                notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting saves, and blocks until every region already queued has
+     * been saved.
+     */
+    @UserThread("MainThread")
+    void close() {
+        Thread t;
+        lock.lock();
+        try {
+            closed = true;
+            t = thread;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if(t != null) {
+            try {
+                t.join();
+            } catch(InterruptedException e) {
+                log.postWarning("Interrupted while waiting for saves to finish.", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        while(takeBatch(batch)) {
+            saveBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits for queued regions, and moves up to {@link #MAX_BATCH} of them
+     * into {@code batch}.
+     *
+     * @return {@code false} if the saver thread should stop.
+     */
+    private boolean takeBatch(List<Entry> batch) {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT);
+            while(queue.isEmpty()) {
+                // We only ever stop with an empty queue, so that anything
+                // queued after this point starts up a new thread.
+                if(closed || nanos <= 0) {
+                    thread = null;
+                    return false;
+                }
+                try {
+                    nanos = notEmpty.awaitNanos(nanos);
+                } catch(InterruptedException e) {
+                    log.postWarning("Saver thread interrupted; ignoring.", e);
+                }
+            }
+
+            while(!queue.isEmpty() && batch.size() < MAX_BATCH)
+                batch.add(queue.poll());
+            notFull.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void saveBatch(List<Entry> batch) {
+        // Encode everything first, grouping the writes by region file.
+        Map<RegionFile, List<Entry>> writes = new LinkedHashMap<>();
+        for(Entry e : batch) {
+            Region r = e.region;
+            if(!e.requeued)
+                stats.started.increment();
+            // Anything requested up until now will be covered by this save.
+            r.state.coalesceQueuedSaves();
+
+            if(!r.isDirty()) {
+                stats.skipped.increment();
+                finish(e, true);
+                continue;
+            }
+
+            try {
+                e.write = loader.encodeRegion(r);
+                writes.computeIfAbsent(e.write.file, f -> new ArrayList<>()).add(e);
+            } catch(Throwable t) {
+                stats.failed.increment();
+                log.postSevere("Saving " + r + " failed!", t);
+                finish(e, false);
+            }
+        }
+
+        // Then write them all at once, so that they share a journal sync.
+        List<Entry> ordered = new ArrayList<>(batch.size());
+        List<RegionWrite> regionWrites = new ArrayList<>(batch.size());
+        for(List<Entry> group : writes.values()) {
+            for(Entry e : group) {
+                ordered.add(e);
+                regionWrites.add(e.write);
+            }
+        }
+        Throwable[] failures = loader.writeAll(regionWrites);
+
+        for(int i = 0; i < ordered.size(); i++) {
+            Entry e = ordered.get(i);
+            boolean success = failures[i] == null;
+            if(success)
+                stats.completed.increment();
+            else {
+                stats.failed.increment();
+                log.postSevere("Saving " + e.region + " failed!", failures[i]);
+            }
+            e.write = null;
+            finish(e, success);
+        }
+    }
+
+    /**
+     * Finishes a save, requeueing the region if another save was requested
+     * while it was being written, or otherwise invoking its callback.
+     */
+    private void finish(Entry e, boolean success) {
+        if(e.region.state.finishSaving()) {
+            e.requeued = true;
+            lock.lock();
+            try {
+                // Goes over capacity if need be; we can't wait on ourselves.
+                queue.add(e);
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        try {
+            e.callback.accept(e.region, success);
+        } catch(Throwable t) {
+            log.postSevere("Save callback for " + e.region + " failed!", t);
+        }
+    }
+
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+
+    /**
+     * A queued save.
+     */
+    private static class Entry {
+
+        final Region region;
+        final RegionCallback callback;
+        /** true if this entry was put back on the queue after being saved. */
+        boolean requeued = false;
+        /** The region's encoded records, between being encoded and written. */
+        RegionWrite write;
+
+
+        Entry(Region region, RegionCallback callback) {
+            this.region = region;
+            this.callback = callback;
+        }
+
+    }
+
+}
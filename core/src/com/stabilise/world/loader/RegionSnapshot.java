@@ -0,0 +1,150 @@
+package com.stabilise.world.loader;
+
+import static com.stabilise.world.loader.RegionFile.FILE_SIZE;
+import static com.stabilise.world.loader.RegionFile.FILE_SIZE_SHIFT;
+import static com.stabilise.world.loader.RegionFile.RECORDS_PER_REGION;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.collect.LongMap;
+import com.stabilise.util.io.data.Compression;
+import com.stabilise.world.Region;
+import com.stabilise.world.WorldSnapshot;
+
+/**
+ * The region files of a dimension being written for a {@link WorldSnapshot}.
+ *
+ * <p>Regions which were in memory when the snapshot was taken are written by
+ * the snapshot itself. Every other region is copied as-is from the world's
+ * region files, without being decompressed -- either by {@link
+ * #copyRemaining()} once the snapshot is done with the regions it holds, or,
+ * if the world is about to overwrite the region before then, by {@link
+ * #preserve(RegionFile, int, int)} just before it does so. Either way, the
+ * snapshot gets each region as it was on disk when the snapshot was taken.
+ */
+@ThreadSafe
+class RegionSnapshot {
+
+    /** The world's region files. */
+    private final RegionFiles source;
+    /** The snapshot's region files. */
+    final RegionFiles target;
+
+    /** The keys of the regions which have been, or are being, written to the
+     * snapshot. This includes those held by the snapshot from the start. */
+    @GuardedBy("this") private final LongMap<Boolean> claimed;
+    /** Set once the snapshot is done, after which nothing more is copied. */
+    @GuardedBy("this") private boolean finished = false;
+    /** Counted down once the snapshot has been written. */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+
+    /**
+     * @param source The world's region files.
+     * @param dir The directory of the snapshot's region files.
+     * @param held The keys of the regions written by the snapshot itself.
+     */
+    RegionSnapshot(RegionFiles source, FileHandle dir, long[] held) {
+        this.source = source;
+        this.target = new RegionFiles(dir);
+        this.claimed = new LongMap<>(held.length);
+        for(long key : held)
+            claimed.put(key, Boolean.TRUE);
+    }
+
+    /**
+     * Claims a region for copying.
+     *
+     * @return {@code true} if the region had yet to be claimed, and the
+     * snapshot isn't finished.
+     */
+    private synchronized boolean claim(long key) {
+        return !finished && claimed.putIfAbsent(key, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Copies a region to the snapshot if it has yet to be. This should be
+     * invoked before any of the region's records are overwritten.
+     *
+     * @param file The region file the region is in.
+     * @param x The x-coordinate of the region, in region-lengths.
+     * @param y The y-coordinate of the region, in region-lengths.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @UserThread("Any")
+    void preserve(RegionFile file, int x, int y) throws IOException {
+        // Holding the file's lock keeps anyone from writing the region while
+        // we copy it.
+        synchronized(file) {
+            if(claim(Region.key(x, y)))
+                copy(file, x, y);
+        }
+    }
+
+    private void copy(RegionFile file, int x, int y) throws IOException {
+        RegionFile dest = null;
+        // Slices first and the region's own record last, as with any write.
+        for(int i = 1; i <= RECORDS_PER_REGION; i++) {
+            int record = i % RECORDS_PER_REGION;
+            ByteBuffer payload = file.readPayload(x, y, record);
+            if(payload == null)
+                continue;
+            Compression compression = Compression.byID(payload.get() & 0xFF);
+            byte[] data = Arrays.copyOfRange(payload.array(), payload.position(),
+                    payload.limit());
+            if(dest == null)
+                dest = target.get(x, y, true);
+            dest.write(x, y, record, data, compression);
+        }
+    }
+
+    /**
+     * Copies every region on disk which has yet to be written to the
+     * snapshot.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    void copyRemaining() throws IOException {
+        for(long coords : source.listFiles()) {
+            int fx = LongMap.keyX(coords) << FILE_SIZE_SHIFT;
+            int fy = LongMap.keyY(coords) << FILE_SIZE_SHIFT;
+            RegionFile file = source.get(fx, fy, false);
+            if(file == null)
+                continue;
+            for(int y = fy; y < fy + FILE_SIZE; y++)
+                for(int x = fx; x < fx + FILE_SIZE; x++)
+                    preserve(file, x, y);
+        }
+    }
+
+    /**
+     * Closes the snapshot's region files and declares it done.
+     */
+    void finish() {
+        synchronized(this) {
+            finished = true;
+        }
+        target.close();
+        done.countDown();
+    }
+
+    /**
+     * Waits for the snapshot to be {@link #finish() finished}.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     * while waiting.
+     */
+    void awaitDone() throws InterruptedException {
+        done.await();
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.stabilise.world.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.stabilise.util.Checks;
+
+/**
+ * Builds the preset dictionary for the {@link WorldLoader#SLICE_ZLIB} codec.
+ *
+ * <p>Slice records are small -- often only a few hundred bytes once
+ * compressed -- and a good part of that is the same few tag names and
+ * boilerplate over and over, which ZLIB can't do much about when each record
+ * is compressed on its own. The dictionary is laid out exactly as those
+ * records are written (see {@code BaseRegionLoader.saveSlice()}), with the
+ * most common content last, since ZLIB encodes nearer matches more cheaply.
+ *
+ * <p>The dictionary is part of the region file format. <b>Never change
+ * anything here</b> -- records written with one dictionary can't be read with
+ * another. If the record layout changes enough that a new dictionary is
+ * worthwhile, register a new codec with a new ID alongside the old one.
+ */
+class SliceDictionary {
+
+    // NBT tag IDs. These are written out here rather than taken from NBTType
+    // so that nothing outside this class can ever change the dictionary.
+    private static final int BYTE_ARRAY = 7;
+    private static final int STRING = 8;
+    private static final int LIST = 9;
+    private static final int COMPOUND = 10;
+    private static final int INT_ARRAY = 11;
+    private static final int LONG_ARRAY = 12;
+    private static final int INT = 3;
+    private static final int BOOLEAN = 22;
+
+
+    private SliceDictionary() {} // non-instantiable
+
+    /**
+     * Builds the dictionary.
+     */
+    static byte[] build() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)) {
+            // Least common first: region records, structures and tile
+            // entities.
+            tag(out, COMPOUND, "");
+            tag(out, BOOLEAN, "generated");
+            out.writeByte(1);
+            tag(out, BOOLEAN, "sliceRecords");
+            out.writeByte(1);
+            tag(out, LIST, "queuedStructures");
+            out.writeByte(COMPOUND);
+            out.writeInt(1);
+            tag(out, STRING, "schematicName");
+            out.writeUTF("tree_1");
+            for(String s : new String[] { "sliceX", "sliceY", "tileX", "tileY",
+                    "offsetX", "offsetY" }) {
+                tag(out, INT, s);
+                out.writeInt(0);
+            }
+            out.writeByte(0);
+            tag(out, LIST, "queuedActions");
+            out.writeByte(COMPOUND);
+            out.writeInt(0);
+            out.writeByte(0);
+
+            tag(out, LIST, "tileEntities");
+            out.writeByte(COMPOUND);
+            out.writeInt(1);
+            tag(out, INT, "id");
+            out.writeInt(0);
+            tag(out, INT, "ticksUntilNextSpawn");
+            out.writeInt(0);
+            out.writeByte(0);
+
+            // A slice with a few different tiles...
+            slice(out, new int[] { 0, 1, 2, 3 }, 8, new int[] { 0, 1 }, 4);
+            // ...and most common of all, a slice of one tile, e.g. air or
+            // stone. Paletted arrays of one value have no packed data.
+            slice(out, new int[] { 0 }, 0, new int[] { 0 }, 0);
+        } catch(IOException e) {
+            throw Checks.badAssert();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void slice(DataOutputStream out, int[] tilePalette,
+            int tileLongs, int[] wallPalette, int wallLongs) throws IOException {
+        tag(out, COMPOUND, "");
+        tag(out, INT_ARRAY, "tilePalette");
+        ints(out, tilePalette);
+        tag(out, LONG_ARRAY, "tiles");
+        out.writeInt(tileLongs);
+        for(int i = 0; i < tileLongs; i++)
+            out.writeLong(0);
+        tag(out, INT_ARRAY, "wallPalette");
+        ints(out, wallPalette);
+        tag(out, LONG_ARRAY, "walls");
+        out.writeInt(wallLongs);
+        for(int i = 0; i < wallLongs; i++)
+            out.writeLong(0);
+        tag(out, BYTE_ARRAY, "light");
+        out.writeInt(256);
+        out.write(new byte[256]);
+        out.writeByte(0);
+    }
+
+    private static void tag(DataOutputStream out, int type, String name) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(name);
+    }
+
+    private static void ints(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for(int v : values)
+            out.writeInt(v);
+    }
+
+}
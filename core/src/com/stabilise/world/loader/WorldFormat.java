@@ -8,6 +8,16 @@ import com.stabilise.world.loader.impl.*;
 
 public class WorldFormat {
     
+    /** The latest world format version.
+     * 
+     * <ul>
+     * <li>1: Each region is saved in its own file.
+     * <li>2: Regions are saved in {@link RegionFile region files}.
+     * <li>3: Each slice of a region is saved in its own region file record.
+     * </ul>
+     */
+    public static final int LATEST_VERSION = 3;
+    
     private WorldFormat() {} // non-instantiable
     
     
@@ -16,7 +26,7 @@ public class WorldFormat {
      * Invoking this is suitable when creating a new world.
      */
     public static void putLatest(WorldInfo info) {
-        info.worldFormat.put("version", 1);
+        info.worldFormat.put("version", LATEST_VERSION);
     }
     
     /**
@@ -26,12 +36,20 @@ public class WorldFormat {
     public static void registerLoaders(WorldLoader loader, WorldInfo info) {
         DataCompound format = info.worldFormat;
         
-        // We'll modify this function here to actually do something with the
-        // format if in the future I change the save format and want a smooth
-        // compatible transition from an older to a newer version.
-        
-        if(format.getI32("version") != 1)
-            Log.get().postInfo("World format version not 1? (not that it matters for now)");
+        int version = format.getI32("version");
+        if(version < LATEST_VERSION) {
+            // Version 1 -> 2: regions are moved into region files by each
+            // dimension's WorldLoader as it is prepared; see
+            // WorldLoader.convertLegacyRegions().
+            // Version 2 -> 3: region files are upgraded when opened, and
+            // each region's slices get their own records when it is next
+            // saved.
+            Log.get().postInfo("Upgrading world format from version " + version
+                    + " to " + LATEST_VERSION);
+            format.put("version", LATEST_VERSION);
+        } else if(version > LATEST_VERSION)
+            Log.get().postWarning("World format version " + version
+                    + " is newer than the latest known version (" + LATEST_VERSION + ")");
         
         loader.addLoaderAndSaver(new BaseRegionLoader());
         loader.addLoaderAndSaver(new ActionLoader());
@@ -1,23 +1,38 @@
 package com.stabilise.world.loader;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.stabilise.util.Log;
 import com.stabilise.util.annotation.ThreadUnsafeMethod;
 import com.stabilise.util.annotation.UserThread;
+import com.stabilise.util.io.ByteBufferInputStream;
+import com.stabilise.util.io.DataInStream;
 import com.stabilise.util.io.IOUtil;
 import com.stabilise.util.io.data.Compression;
 import com.stabilise.util.io.data.DataCompound;
 import com.stabilise.util.io.data.Format;
+import com.stabilise.util.io.data.nbt.NBTCompound;
+import com.stabilise.util.io.data.nbt.NBTReader;
+import com.stabilise.util.io.data.nbt.NBTType;
 import com.stabilise.world.HostWorld;
 import com.stabilise.world.Region;
 import com.stabilise.world.RegionState;
 import com.stabilise.world.RegionStore;
 import com.stabilise.world.RegionStore.RegionCallback;
+import com.stabilise.world.RegionTaskScheduler;
+import com.stabilise.world.WorldSnapshot;
 import com.stabilise.world.WorldStatistics;
+import com.stabilise.world.loader.impl.SliceDecoder;
 
 
 /**
@@ -28,18 +43,49 @@ import com.stabilise.world.WorldStatistics;
  * <p>The actual code for loading a region is provided by {@link
  * IRegionLoaders}, and these are provided upon construction by {@link
  * WorldFormat}.
+ * 
+ * <p>Regions are stored in {@link RegionFile region files}, each of which
+ * holds a square block of regions. Writes to them go through a {@link
+ * RegionJournal} first, so that they survive a crash.
  */
 public class WorldLoader {
     
     public static final Format REGION_FORMAT = Format.NBT;
-    public static final Compression REGION_COMPRESSION = Compression.GZIP;
+    /** ZLIB primed with a dictionary of typical slice data; see {@link
+     * SliceDictionary}. This compresses slice records markedly better than
+     * plain ZLIB or GZIP, since most of them are very small. */
+    public static final Compression SLICE_ZLIB = Compression.register(
+            Compression.zlibWithDictionary(4, "ZLIB_SLICE", SliceDictionary.build()));
+    /** The codec with which region records are written. Records may be read
+     * no matter which registered codec they were written with, so this can
+     * be freely changed. The lowest deflate level compresses roughly twice as
+     * fast as the default while costing little in size. */
+    public static final Compression REGION_COMPRESSION =
+            SLICE_ZLIB.withLevel(Deflater.BEST_SPEED);
+    
+    /** The extension of the per-region files used by world format version
+     * 1. */
+    private static final String LEGACY_EXTENSION = ".region";
+    private static final Pattern LEGACY_NAME = Pattern.compile("r_(-?\\d+)_(-?\\d+)\\.region");
+    /** The names of the slice compounds in a region record of world format
+     * version 2. */
+    private static final Pattern LEGACY_SLICE = Pattern.compile("slice(\\d+)_(\\d+)");
     
 	
     /** A reference to the world that this WorldLoader handles the loading for. */
     private final HostWorld world;
-    /** A reference to the Executor with which we send off all asynchronous
-     * loading tasks. */
-    private final Executor executor;
+    /** The scheduler with which we send off all asynchronous loading
+     * tasks. */
+    private final RegionTaskScheduler scheduler;
+    
+    /** The region files in which regions are stored. */
+    private final RegionFiles regionFiles;
+    /** Every write to {@link #regionFiles} goes through this first. */
+    private final RegionJournal journal;
+    /** Performs all saves which needn't be done on the requesting thread. */
+    private final RegionSaver saver;
+    /** The snapshot being written, if any. */
+    private volatile RegionSnapshot snapshot = null;
     
     private volatile boolean cancelLoadOperations = false;
     
@@ -55,17 +101,28 @@ public class WorldLoader {
     /**
      * Creates a new WorldLoader for the given world.
      * 
+     * @param world The world.
+     * @param scheduler The scheduler with which to run loading tasks.
+     * 
      * @throws NullPointerException if world is null.
      */
-    public WorldLoader(HostWorld world) {
+    public WorldLoader(HostWorld world, RegionTaskScheduler scheduler) {
         this.world = world;
-        this.executor = world.multiverse().getExecutor();
+        this.scheduler = scheduler;
+        this.regionFiles = new RegionFiles(world.getWorldDir());
         
         this.loadStats = world.stats.load;
         this.saveStats = world.stats.save;
         
         this.log = Log.getAgent("WORLDLOADER: " + world.getDimensionName());
         
+        this.journal = new RegionJournal(
+                world.getWorldDir().child(RegionJournal.FILE_NAME).file(),
+                regionFiles, log);
+        
+        this.saver = new RegionSaver(this, saveStats, log,
+                "RegionSaver-" + world.getDimensionName());
+        
         // Register all the base loaders in accordance with the world's save
         // format.
         WorldFormat.registerLoaders(this, world.multiverse().info);
@@ -119,7 +176,7 @@ public class WorldLoader {
     @UserThread("Any")
     public void loadRegion(Region r, RegionCallback callback) {
         loadStats.requests.increment();
-        executor.execute(() -> doLoad(r, callback));
+        scheduler.execute(r, () -> doLoad(r, callback));
     }
     
     private void doLoad(Region r, RegionCallback callback) {
@@ -138,28 +195,40 @@ public class WorldLoader {
             return;
         }
         
+        // The region may no longer be wanted by the time we get to it.
+        if(world.regions.abandonIfUnwanted(r)) {
+            loadStats.aborted.increment();
+            return;
+        }
+        
         boolean success = true;
-    	FileHandle file = r.getFile(world);
-    	if(file.exists()) {
-            try {
-            	DataCompound c = IOUtil.read(file, REGION_FORMAT, REGION_COMPRESSION);
+        try {
+            RegionFile file = regionFiles.get(r.x(), r.y(), false);
+            DataCompound c = file == null ? null : readRegionRecord(file, r);
+            if(c != null) {
                 boolean generated = c.optBool("generated").orElse(false);
+                boolean sliceRecords = c.optBool("sliceRecords").orElse(false);
                 
                 loaders.forEach(l -> l.load(r, c, generated));
+                if(generated && sliceRecords)
+                    loadSlices(r, file);
+                
+                // Regions saved before slices had their own records keep
+                // their slices flagged as dirty so they're all rewritten.
+                if(!generated || sliceRecords)
+                    r.markClean();
                 
                 r.state.setLoaded(generated, r.hasQueuedStructures());
-            	
-                loadStats.completed.increment();
-            } catch(Exception e) {
-                log.postSevere("Loading " + r + " failed!", e);
-                loadStats.failed.increment();
-                success = false;
-            }
-    	} else {
-    	    loadStats.completed.increment(); // we'll count this as completed
-    	    r.state.setLoaded(false, false); // nothing to load = "loaded", but not generated
-    	}
-    	
+            } else
+                r.state.setLoaded(false, false); // nothing to load = "loaded", but not generated
+            
+            loadStats.completed.increment(); // we'll count no data as completed
+        } catch(Exception e) {
+            log.postSevere("Loading " + r + " failed!", e);
+            loadStats.failed.increment();
+            success = false;
+        }
+        
     	callback.accept(r, success);
     }
     
@@ -167,18 +236,23 @@ public class WorldLoader {
      * Saves a region. It is assumed that the caller has acquired a {@link
      * RegionState#getSavePermit() permit} to save the region.
      * 
+     * <p>If {@code useCurrentThread} is {@code false}, the region is handed to
+     * this loader's {@link RegionSaver}. Note that this may block the calling
+     * thread if the saver has fallen behind.
+     * 
      * @param region The region to save.
      * @param useCurrentThread true to save on the current thread, false to
-     * spawn a worker thread.
+     * save in the background.
      * @param callback The function to call once saving is completed.
      */
     @UserThread("Any")
     public void saveRegion(Region region, boolean useCurrentThread, RegionCallback callback) {
         saveStats.requests.increment();
-        if(useCurrentThread)
+        // There's no point in dispatching a save which will be skipped. If
+        // the region happens to be modified in the meantime we'll just end up
+        // saving it on this thread, which is harmless.
+        if(useCurrentThread || !region.isDirty() || !saver.submit(region, callback))
             doSave(region, callback);
-        else
-            executor.execute(() -> doSave(region, callback));
     }
     
     private void doSave(Region r, RegionCallback callback) {
@@ -186,16 +260,18 @@ public class WorldLoader {
         boolean success;
     	
         do {
-            DataCompound c = REGION_FORMAT.newCompound();
-            boolean generated = r.state.isGenerated();
-            c.put("generated", generated);
+            // Most regions which get unloaded were never modified, so we can
+            // avoid touching the disk at all.
+            if(!r.isDirty()) {
+                success = true;
+                saveStats.skipped.increment();
+                continue;
+            }
             
             try {
                 // Include the savers in the try-catch because it'd be foolish
                 // to trust them.
-                savers.forEach(s -> s.save(r, c, generated));
-                
-                IOUtil.writeSafe(r.getFile(world), c, REGION_COMPRESSION);
+                encodeRegion(r).write();
                 
                 success = true;
                 saveStats.completed.increment();
@@ -213,6 +289,342 @@ public class WorldLoader {
         callback.accept(r, success);
     }
     
+    /**
+     * Opens a record for streaming. The whole record is read into memory and
+     * decoded from there, which lets tile arrays and the like be read in
+     * bulk. Records are always {@link #REGION_FORMAT NBT}, which is what
+     * lets us read them a tag at a time rather than as a DataCompound.
+     * 
+     * @return A reader positioned at the start of the record's root
+     * compound, or {@code null} if the record doesn't exist.
+     */
+    private NBTReader openRecord(RegionFile file, Region r, int record)
+            throws IOException {
+        ByteBuffer buf = file.readBuffer(r.x(), r.y(), record);
+        if(buf == null)
+            return null;
+        // A ByteBufferInputStream holds no resources, so needn't be closed
+        NBTReader in = new NBTReader(new DataInStream(new ByteBufferInputStream(buf)));
+        in.beginRoot();
+        return in;
+    }
+    
+    /**
+     * Reads a region's own record. Slices stored within it, as by world
+     * format version 2, are decoded straight into the region; everything
+     * else is returned for the {@link IRegionLoader}s.
+     * 
+     * @return The record, or {@code null} if it doesn't exist.
+     */
+    private DataCompound readRegionRecord(RegionFile file, Region r)
+            throws IOException {
+        NBTReader in = openRecord(file, r, 0);
+        if(in == null)
+            return null;
+        NBTCompound c = new NBTCompound();
+        while(in.next()) {
+            Matcher m;
+            if(in.is(NBTType.COMPOUND) && (m = LEGACY_SLICE.matcher(in.name())).matches())
+                loadSlice(r, Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), in);
+            else
+                in.readInto(c);
+        }
+        return c;
+    }
+    
+    /**
+     * Loads every slice of a generated region from its own record.
+     * 
+     * @throws IOException if an I/O error occurs, or a slice is missing.
+     */
+    private void loadSlices(Region r, RegionFile file) throws IOException {
+        for(int y = 0; y < Region.REGION_SIZE; y++) {
+            for(int x = 0; x < Region.REGION_SIZE; x++) {
+                NBTReader in = openRecord(file, r, sliceRecord(x, y));
+                if(in == null)
+                    throw new IOException("Missing slice " + x + "," + y + " of " + r);
+                loadSlice(r, x, y, in);
+            }
+        }
+    }
+    
+    /**
+     * Decodes a slice via the {@link SliceDecoder}, and hands anything else
+     * saved with it to the {@link IRegionLoader}s.
+     */
+    private void loadSlice(Region r, int x, int y, NBTReader in) throws IOException {
+        if(x < 0 || x >= Region.REGION_SIZE || y < 0 || y >= Region.REGION_SIZE)
+            throw new IOException("Bad slice " + x + "," + y + " of " + r);
+        DataCompound extra = SliceDecoder.decode(r, x, y, in);
+        if(extra != null)
+            loaders.forEach(l -> l.loadSlice(r, x, y, extra));
+    }
+    
+    /**
+     * Encodes a region for writing to its region file. Only slices which have
+     * been modified since the region was last saved are encoded. The modified
+     * flags of the region are cleared, and are restored if either this or
+     * {@link RegionWrite#write()} fails.
+     * 
+     * @throws IOException if the region file could not be opened.
+     */
+    RegionWrite encodeRegion(Region r) throws IOException {
+        RegionWrite w = new RegionWrite(r, regionFiles.get(r.x(), r.y(), true), true);
+        boolean generated = r.state.isGenerated();
+        
+        try {
+            // Encode the slices first, since the region's own record claims
+            // that they are all present and so must be written last.
+            if(generated) {
+                for(int y = 0; y < Region.REGION_SIZE; y++) {
+                    for(int x = 0; x < Region.REGION_SIZE; x++) {
+                        // Slices with tile entities are always rewritten since
+                        // their state isn't tracked.
+                        if(r.takeSliceDirty(x, y) || r.getSliceAt(x, y).tileEntities != null)
+                            encodeSlice(w, r, x, y);
+                    }
+                }
+            }
+            
+            r.takeDirty();
+            w.add(0, saveRegionRecord(r));
+        } catch(Throwable t) {
+            // We don't bother keeping track of exactly which flags we cleared.
+            r.markAllDirty();
+            throw t;
+        }
+        
+        return w;
+    }
+    
+    private void encodeSlice(RegionWrite w, Region r, int x, int y) throws IOException {
+        DataCompound c = REGION_FORMAT.newCompound();
+        savers.forEach(s -> s.saveSlice(r, x, y, c));
+        w.add(sliceRecord(x, y), c);
+    }
+    
+    /**
+     * Saves everything of a region other than its slices, i.e., what goes in
+     * the region's own record.
+     * 
+     * <p>This does not touch the region's modified flags.
+     */
+    @UserThread("Any")
+    public DataCompound saveRegionRecord(Region r) {
+        boolean generated = r.state.isGenerated();
+        DataCompound c = REGION_FORMAT.newCompound();
+        c.put("generated", generated);
+        c.put("sliceRecords", generated);
+        savers.forEach(s -> s.save(r, c, generated));
+        return c;
+    }
+    
+    /**
+     * Starts writing this world's regions to a {@link WorldSnapshot}. Until
+     * {@link #finishSnapshot(boolean)}, every region about to be saved is
+     * first copied to the snapshot as it was on disk, unless it is one of the
+     * regions which the snapshot holds itself.
+     * 
+     * @param dir The snapshot's directory for this world.
+     * @param held The keys of the regions the snapshot holds, which are to be
+     * written via {@link #writeSnapshotRegion(Region, boolean,
+     * DataCompound)}.
+     * 
+     * @throws IllegalStateException if a snapshot is already being written.
+     */
+    @UserThread("MainThread")
+    public void beginSnapshot(FileHandle dir, long[] held) {
+        if(snapshot != null)
+            throw new IllegalStateException("Snapshot already in progress");
+        snapshot = new RegionSnapshot(regionFiles, dir, held);
+    }
+    
+    /**
+     * Returns {@code true} if a snapshot has begun and has yet to be
+     * finished.
+     */
+    @UserThread("Any")
+    public boolean isSnapshotInProgress() {
+        return snapshot != null;
+    }
+    
+    /**
+     * Writes a region held by the current snapshot. Every slice is written.
+     * 
+     * @param r The region, which should not be modified by anyone else.
+     * @param generated Whether the region has been generated.
+     * @param record The region's own record, as per {@link
+     * #saveRegionRecord(Region)}.
+     * 
+     * @throws IOException if an I/O error occurs.
+     */
+    @UserThread("Any")
+    public void writeSnapshotRegion(Region r, boolean generated, DataCompound record)
+            throws IOException {
+        RegionWrite w = new RegionWrite(r, snapshot.target.get(r.x(), r.y(), true), false);
+        if(generated) {
+            for(int y = 0; y < Region.REGION_SIZE; y++)
+                for(int x = 0; x < Region.REGION_SIZE; x++)
+                    encodeSlice(w, r, x, y);
+        }
+        w.add(0, record);
+        w.write();
+    }
+    
+    /**
+     * Finishes writing the current snapshot, and stops copying regions to it.
+     * 
+     * @param copyRemaining {@code true} to copy every region on disk which
+     * has yet to be written to the snapshot; {@code false} if the snapshot is
+     * being abandoned.
+     * 
+     * @throws IOException if an I/O error occurs while copying regions. The
+     * snapshot is finished regardless.
+     */
+    @UserThread("Any")
+    public void finishSnapshot(boolean copyRemaining) throws IOException {
+        RegionSnapshot s = snapshot;
+        try {
+            if(copyRemaining)
+                s.copyRemaining();
+        } finally {
+            snapshot = null;
+            s.finish();
+        }
+    }
+    
+    /**
+     * Writes several regions at once, such that they share a single sync of
+     * the journal. Each region which fails to be written is flagged as
+     * modified, as per {@link RegionWrite#write()}.
+     * 
+     * @param writes The regions to write, in the order they should be
+     * written.
+     * 
+     * @return Why each write failed, in the same order; {@code null} for
+     * each that succeeded.
+     */
+    @UserThread("Any")
+    Throwable[] writeAll(List<RegionWrite> writes) {
+        Throwable[] failures = new Throwable[writes.size()];
+        journal.beginWrite();
+        try {
+            long seq = 0;
+            for(int i = 0; i < failures.length; i++) {
+                try {
+                    seq = writes.get(i).append();
+                } catch(Throwable t) {
+                    failures[i] = t;
+                }
+            }
+            
+            Throwable syncFailure = null;
+            try {
+                journal.sync(seq);
+            } catch(Throwable t) {
+                syncFailure = t;
+            }
+            
+            for(int i = 0; i < failures.length; i++) {
+                if(failures[i] == null) {
+                    try {
+                        if(syncFailure != null)
+                            throw syncFailure;
+                        writes.get(i).apply();
+                    } catch(Throwable t) {
+                        failures[i] = t;
+                    }
+                }
+                if(failures[i] != null)
+                    writes.get(i).region.markAllDirty();
+            }
+        } finally {
+            journal.endWrite();
+        }
+        return failures;
+    }
+    
+    /**
+     * Gets the region file record in which the slice at the given coordinates
+     * (relative to its region) is stored.
+     */
+    private static int sliceRecord(int x, int y) {
+        return 1 + y * Region.REGION_SIZE + x;
+    }
+    
+    /**
+     * Replays any region writes left in the journal by a crash, and opens the
+     * journal. This must be done before any region is loaded or saved.
+     * 
+     * <p>This is invoked as part of the world's {@link HostWorld#prepare()
+     * preparation}.
+     */
+    @UserThread("WorkerThread")
+    public void openJournal() {
+        journal.open();
+    }
+    
+    /**
+     * Moves any regions saved in the legacy one-file-per-region format (i.e.
+     * world format version 1) into region files. The legacy files are only
+     * deleted once every region has been moved and the region files they
+     * were moved into have been synced, so a crash part-way through never
+     * loses a region.
+     * 
+     * <p>This is invoked as part of the world's {@link HostWorld#prepare()
+     * preparation}, after {@link #openJournal()} and before any region is
+     * loaded.
+     */
+    @UserThread("WorkerThread")
+    public void convertLegacyRegions() {
+        FileHandle[] legacyFiles = world.getWorldDir().list(LEGACY_EXTENSION);
+        if(legacyFiles.length == 0)
+            return;
+        
+        log.postInfo("Converting " + legacyFiles.length + " regions to region files...");
+        int converted = 0;
+        // The legacy files moved into each region file
+        Map<RegionFile, List<FileHandle>> moved = new LinkedHashMap<>();
+        
+        for(FileHandle f : legacyFiles) {
+            Matcher m = LEGACY_NAME.matcher(f.name());
+            if(!m.matches())
+                continue;
+            int x = Integer.parseInt(m.group(1));
+            int y = Integer.parseInt(m.group(2));
+            
+            try {
+                // Legacy files hold exactly what we'd put in a region file
+                // payload, so we can just copy the bytes over. They were
+                // always written with GZIP.
+                byte[] data = f.readBytes();
+                RegionFile file = regionFiles.get(x, y, true);
+                file.write(x, y, 0, data, Compression.GZIP);
+                moved.computeIfAbsent(file, k -> new ArrayList<>()).add(f);
+            } catch(IOException | GdxRuntimeException e) {
+                log.postSevere("Could not convert " + f.name(), e);
+            }
+        }
+        
+        // Only now that the regions are safely on disk may the originals go.
+        // If a region file can't be synced, its legacy files are kept and
+        // will simply be converted again next time.
+        for(Map.Entry<RegionFile, List<FileHandle>> e : moved.entrySet()) {
+            try {
+                e.getKey().sync();
+            } catch(IOException ex) {
+                log.postSevere("Could not sync " + e.getKey() + "; keeping "
+                        + e.getValue().size() + " legacy regions", ex);
+                continue;
+            }
+            for(FileHandle f : e.getValue())
+                f.delete();
+            converted += e.getValue().size();
+        }
+        
+        log.postInfo("Converted " + converted + "/" + legacyFiles.length + " regions.");
+    }
+    
     /**
      * Shuts down the WorldLoader; region loading operations will be cancelled
      * but region saves will be permitted to complete.
@@ -221,5 +633,116 @@ public class WorldLoader {
     public void shutdown() {
         cancelLoadOperations = true;
     }
+    
+    /**
+     * Stops the region saver, waiting for it to finish any saves it still
+     * has queued, and closes all region files. This should only be invoked
+     * once all region loads and saves have been requested; any regions saved
+     * afterwards are saved on the thread which requested the save.
+     */
+    @UserThread("MainThread")
+    public void close() {
+        saver.close();
+        
+        // A snapshot may still be copying out of our region files
+        RegionSnapshot s = snapshot;
+        if(s != null) {
+            try {
+                s.awaitDone();
+            } catch(InterruptedException e) {
+                log.postWarning("Interrupted while waiting for a snapshot to finish.", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        // Syncs the region files, so this comes before closing them
+        journal.close();
+        regionFiles.close();
+    }
+    
+    //--------------------==========--------------------
+    //-------------=====Nested Classes=====-------------
+    //--------------------==========--------------------
+    
+    /**
+     * The encoded records of a region which are waiting to be written to its
+     * region file. Records are compressed as they are added, so that the
+     * region file's lock is held for no longer than it takes to write them.
+     */
+    class RegionWrite {
+        
+        final Region region;
+        final RegionFile file;
+        /** true if writing to the world's own region files, which are
+         * journalled; false if writing to a snapshot's. */
+        private final boolean journalled;
+        private final int[] records = new int[RegionFile.RECORDS_PER_REGION];
+        private final byte[][] data = new byte[RegionFile.RECORDS_PER_REGION][];
+        private int count = 0;
+        
+        
+        private RegionWrite(Region region, RegionFile file, boolean journalled) {
+            this.region = region;
+            this.file = file;
+            this.journalled = journalled;
+        }
+        
+        private void add(int record, DataCompound c) throws IOException {
+            records[count] = record;
+            data[count++] = IOUtil.toBytes(c, REGION_COMPRESSION);
+        }
+        
+        /**
+         * Writes the records to the region file, in the order they were
+         * added, by way of the journal. If this fails, the region is flagged as modified so that it
+         * is rewritten in full next time around.
+         * 
+         * @throws IOException if an I/O error occurs.
+         */
+        void write() throws IOException {
+            if(!journalled) {
+                apply();
+                return;
+            }
+            journal.beginWrite();
+            try {
+                journal.sync(append());
+                apply();
+            } catch(Throwable t) {
+                region.markAllDirty();
+                throw t;
+            } finally {
+                journal.endWrite();
+            }
+        }
+        
+        /**
+         * Appends the records to the journal. This must be done between
+         * {@link RegionJournal#beginWrite()} and {@link
+         * RegionJournal#endWrite()}, along with syncing the journal and
+         * {@link #apply() applying} the records.
+         * 
+         * @return The sequence number of the journal entry.
+         */
+        private long append() throws IOException {
+            return journal.append(region.x(), region.y(), records, data, count,
+                    REGION_COMPRESSION);
+        }
+        
+        /**
+         * Writes the records to the region file.
+         */
+        private void apply() throws IOException {
+            if(journalled) {
+                // Anything being overwritten gets into the snapshot first
+                RegionSnapshot s = snapshot;
+                if(s != null)
+                    s.preserve(file, region.x(), region.y());
+            }
+            file.write(region.x(), region.y(), records, data, count,
+                    REGION_COMPRESSION);
+        }
+        
+    }
 	
 }
@@ -1,7 +1,5 @@
 package com.stabilise.world.loader.impl;
 
-import static com.stabilise.world.Region.REGION_SIZE;
-
 import com.stabilise.util.io.data.DataCompound;
 import com.stabilise.util.io.data.DataList;
 import com.stabilise.world.Region;
@@ -10,61 +8,47 @@ import com.stabilise.world.loader.IRegionLoader;
 import com.stabilise.world.tile.tileentity.TileEntity;
 
 public class BaseRegionLoader implements IRegionLoader {
-	
+
 	@Override
 	public void load(Region r, DataCompound c, boolean generated) {
-		if(!generated)
-		    return;
-		
-        for(int y = 0; y < REGION_SIZE; y++) {
-            for(int x = 0; x < REGION_SIZE; x++) {
-                DataCompound sliceTag = c.getCompound("slice" + x + "_" + y);
-                Slice s = new Slice(r.offsetX + x, r.offsetY + y,
-                        sliceTag.getI32Arr("tiles"),
-                        sliceTag.getI32Arr("walls"),
-                        sliceTag.getI8Arr("light"));
-                
-                DataList tileEntities = sliceTag.childList("tileEntities");
-                if(tileEntities.size() > 0)
-                    s.initTileEntities();
-                for(int i = 0; i < tileEntities.size(); i++) {
-                    DataCompound tc = tileEntities.getCompound();
-                    TileEntity te = TileEntity.createFromCompound(tc);
-                    s.tileEntities[te.pos.lty()][te.pos.ltx()] = te; 
-                }
-                
-                r.slices[y][x] = s;
-            }
-        }
+		// Slices are decoded as they are read, by SliceDecoder,
+		// without going through a DataCompound
 	}
-	
+
 	@Override
 	public void save(Region r, DataCompound c, boolean generated) {
-		if(!generated)
-		    return;
-		
-		for(int y = 0; y < REGION_SIZE; y++) {
-            for(int x = 0; x < REGION_SIZE; x++) {
-                DataCompound sliceTag = c.childCompound("slice" + x + "_" + y);
-                Slice s = r.slices[y][x];
-                sliceTag.put("tiles", Slice.to1DArray(s.tiles));
-                sliceTag.put("walls", Slice.to1DArray(s.walls));
-                sliceTag.put("light", Slice.to1DArray(s.light));
-                
-                if(s.tileEntities != null) {
-                    DataList tileEntities = sliceTag.childList("tileEntities");
-                    
-                    TileEntity t;
-                    for(int tileX = 0; tileX < Slice.SLICE_SIZE; tileX++) {
-                        for(int tileY = 0; tileY < Slice.SLICE_SIZE; tileY++) {
-                            if((t = s.tileEntities[tileY][tileX]) != null) {
-                                t.exportToCompound(tileEntities.childCompound());
-                            }
-                        }
-                    }
-                }
-            }
+		// Slices are saved individually; see saveSlice()
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>The tags written here are read back by {@link SliceDecoder};
+	 * the two must be kept in step.
+	 */
+	@Override
+	public void saveSlice(Region r, int x, int y, DataCompound c) {
+		// Live regions are saved off the main thread, so take a copy which
+		// pairs each palette with its own packed data rather than reading
+		// them as they change. The copy's backing arrays are handed over
+		// as-is.
+		Slice live = r.getSliceAt(x, y);
+		Slice s = live.copyTerrain();
+		c.put("tilePalette", s.tiles.getPalette());
+		c.put("tiles", s.tiles.getPackedData());
+		c.put("wallPalette", s.walls.getPalette());
+		c.put("walls", s.walls.getPackedData());
+		c.put("light", s.light);
+
+		TileEntity[] tes = live.tileEntities;
+		if(tes != null) {
+			DataList tileEntities = c.childList("tileEntities");
+
+			for(TileEntity t : tes) {
+				if(t != null)
+					t.exportToCompound(tileEntities.childCompound());
+			}
 		}
 	}
-	
+
 }
@@ -0,0 +1,131 @@
+package com.stabilise.world.loader.impl;
+
+import static com.stabilise.world.Slice.TILES_PER_SLICE;
+
+import java.io.IOException;
+
+import com.stabilise.util.collect.PalettedIntArray;
+import com.stabilise.util.io.data.DataCompound;
+import com.stabilise.util.io.data.nbt.NBTCompound;
+import com.stabilise.util.io.data.nbt.NBTReader;
+import com.stabilise.util.io.data.nbt.NBTType;
+import com.stabilise.world.Region;
+import com.stabilise.world.Slice;
+import com.stabilise.world.loader.IRegionLoader;
+import com.stabilise.world.tile.tileentity.TileEntity;
+
+/**
+ * Decodes slices straight from a region record into their region, as they
+ * are read. Tile, wall and light arrays go directly into the slice without
+ * first being put into a DataCompound, and only each tile entity's own
+ * compound is ever built.
+ *
+ * <p>This reads the tags written by {@link
+ * BaseRegionLoader#saveSlice(Region, int, int, DataCompound)}, and the two
+ * must be kept in step. The WorldLoader decodes every slice through this
+ * rather than through {@link BaseRegionLoader#load(Region, DataCompound,
+ * boolean)}, so that the arrays need not be built into a DataCompound.
+ */
+public final class SliceDecoder {
+
+    private SliceDecoder() {} // non-instantiable
+
+    /**
+     * Decodes a slice and sets it in its region. The reader should be
+     * positioned at the start of the slice's tags; i.e., either just after
+     * {@link NBTReader#beginRoot()}, or just after a {@link NBTReader#next()}
+     * which landed on the slice's compound. Every tag of the slice is read.
+     *
+     * @param r The region.
+     * @param x The x-coordinate of the slice relative to the region, in
+     * slice-lengths.
+     * @param y The y-coordinate of the slice relative to the region, in
+     * slice-lengths.
+     * @param in The reader.
+     *
+     * @return Any tags which aren't part of the base slice data, to be handed
+     * to {@link IRegionLoader#loadSlice(Region, int, int, DataCompound)}, or
+     * {@code null} if there are none.
+     * @throws IOException if an I/O error occurs, or the slice is malformed.
+     */
+    public static DataCompound decode(Region r, int x, int y, NBTReader in)
+            throws IOException {
+        int[] tilePalette = null, wallPalette = null;
+        long[] tiles = null, walls = null;
+        // Slices saved before tiles were paletted
+        int[] legacyTiles = null, legacyWalls = null;
+        byte[] light = null;
+        DataCompound[] tileEntities = null;
+        NBTCompound extra = null;
+
+        while(in.next()) {
+            switch(in.name()) {
+                case "tilePalette":
+                    tilePalette = in.readI32Arr();
+                    break;
+                case "tiles":
+                    if(in.is(NBTType.INT_ARRAY))
+                        legacyTiles = in.readI32Arr();
+                    else
+                        tiles = in.readI64Arr();
+                    break;
+                case "wallPalette":
+                    wallPalette = in.readI32Arr();
+                    break;
+                case "walls":
+                    if(in.is(NBTType.INT_ARRAY))
+                        legacyWalls = in.readI32Arr();
+                    else
+                        walls = in.readI64Arr();
+                    break;
+                case "light":
+                    light = in.readI8Arr();
+                    break;
+                case "tileEntities":
+                    tileEntities = new DataCompound[in.beginList()];
+                    for(int i = 0; i < tileEntities.length; i++)
+                        tileEntities[i] = in.readCompound();
+                    break;
+                default:
+                    if(extra == null)
+                        extra = new NBTCompound();
+                    in.readInto(extra);
+                    break;
+            }
+        }
+
+        if(light == null)
+            throw malformed(r, x, y, "light");
+
+        Slice s;
+        if(tilePalette != null) {
+            if(tiles == null || wallPalette == null || walls == null)
+                throw malformed(r, x, y, "tiles or walls");
+            // The packed arrays are handed straight to the slice
+            s = new Slice(r.offsetX + x, r.offsetY + y,
+                    new PalettedIntArray(TILES_PER_SLICE, tilePalette, tiles),
+                    new PalettedIntArray(TILES_PER_SLICE, wallPalette, walls),
+                    light);
+        } else {
+            if(legacyTiles == null || legacyWalls == null)
+                throw malformed(r, x, y, "tiles or walls");
+            s = new Slice(r.offsetX + x, r.offsetY + y, legacyTiles, legacyWalls, light);
+        }
+
+        if(tileEntities != null) {
+            for(DataCompound tc : tileEntities) {
+                TileEntity te = TileEntity.createFromCompound(tc);
+                if(te != null)
+                    s.setTileEntityAt(te.pos.ltx(), te.pos.lty(), te);
+            }
+        }
+
+        r.setSliceAt(x, y, s);
+        return extra;
+    }
+
+    private static IOException malformed(Region r, int x, int y, String what) {
+        return new IOException("Slice " + x + "," + y + " of " + r + " is missing " + what);
+    }
+
+}
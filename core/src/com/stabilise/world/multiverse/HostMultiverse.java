@@ -20,6 +20,8 @@ import com.stabilise.util.io.data.Format;
 import com.stabilise.world.HostWorld;
 import com.stabilise.world.World;
 import com.stabilise.world.WorldInfo;
+import com.stabilise.world.WorldPregenerator;
+import com.stabilise.world.WorldSnapshot;
 import com.stabilise.world.dimension.Dimension;
 
 
@@ -127,6 +129,55 @@ public class HostMultiverse extends Multiverse<HostWorld> {
         return new PlayerBundle(world, playerEntity, data);
     }
     
+    /**
+     * Creates a pregenerator for a rectangle of regions of a dimension, which
+     * is loaded if it isn't already. The regions are generated and saved
+     * without needing any players in the dimension, so this may be used
+     * headlessly, e.g. before a server is opened.
+     * 
+     * @param dimension The name of the dimension.
+     * 
+     * @return The pregenerator. Nothing is generated until it is {@link
+     * WorldPregenerator#run() run}.
+     * @throws IllegalArgumentException if the dimension doesn't exist, or
+     * the rectangle is invalid.
+     * @see WorldPregenerator#WorldPregenerator(HostWorld, int, int, int, int)
+     */
+    @ThreadUnsafeMethod
+    public WorldPregenerator pregenerator(String dimension, int minX, int minY,
+            int maxX, int maxY) {
+        return new WorldPregenerator(loadDimension(dimension), minX, minY, maxX, maxY);
+    }
+    
+    /**
+     * Takes a snapshot of the world -- every loaded dimension, along with the
+     * world and player info -- and writes it to the given directory in the
+     * background while the world keeps running. The directory can then be
+     * loaded as a world in its own right. This should be invoked between
+     * ticks.
+     * 
+     * @param dir The directory to write the snapshot to.
+     * 
+     * @return The snapshot.
+     * @throws IllegalStateException if a previous snapshot of a loaded
+     * dimension is still being written.
+     * @see WorldSnapshot
+     */
+    @ThreadUnsafeMethod
+    public WorldSnapshot snapshot(FileHandle dir) {
+        WorldSnapshot snapshot = new WorldSnapshot(dir);
+        snapshot.addFile(World.FILE_INFO, info.toCompound());
+        for(PlayerData p : players.values()) {
+            syncPlayer(p);
+            snapshot.addFile(World.DIR_PLAYERS + p.data.hash + World.EXT_PLAYERS,
+                    p.toCompound());
+        }
+        for(HostWorld dim : dimensions.values())
+            snapshot.addWorld(dim, World.DIR_DIMENSIONS + dim.getDimensionName() + "/");
+        snapshot.take();
+        return snapshot;
+    }
+    
     /**
      * doesn't do anything yet
      */
@@ -175,8 +226,7 @@ public class HostMultiverse extends Multiverse<HostWorld> {
     
     private void savePlayers() {
         for(PlayerData p : players.values()) {
-            p.lastPos.set(p.tracker.entity.pos);
-            p.dimension = p.tracker.world.getDimensionName();
+            syncPlayer(p);
             
             this.getExecutor().execute(() -> {
                 try {
@@ -188,6 +238,14 @@ public class HostMultiverse extends Multiverse<HostWorld> {
         }
     }
     
+    /**
+     * Updates a player's data with where the player is.
+     */
+    private void syncPlayer(PlayerData p) {
+        p.lastPos.set(p.tracker.entity.pos);
+        p.dimension = p.tracker.world.getDimensionName();
+    }
+    
     @Override
     protected void closeExtra() {
         savePlayers();
@@ -261,10 +319,18 @@ public class HostMultiverse extends Multiverse<HostWorld> {
          * Saves the player data.
          */
         public void save() throws IOException {
+            IOUtil.writeSafe(file, toCompound(), Compression.GZIP);
+        }
+        
+        /**
+         * Exports the player data to a new compound, in the form in which it
+         * is saved.
+         */
+        public DataCompound toCompound() {
             DataCompound tag = Format.NBT.newCompound();
             tag.put("dimension", dimension);
             lastPos.exportToCompound(tag.childCompound("lastPos"));
-            IOUtil.writeSafe(file, tag, Compression.GZIP);
+            return tag;
         }
         
     }